@@ -0,0 +1,74 @@
+package turtlegraphics.bench;
+
+import org.openjdk.jmh.annotations.*;
+import turtlegraphics.CommandArchive;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ArchiveBenchmark {
+    @Param({"200000"})
+    public int lines;
+
+    private List<String> script;
+    private Path text, archive;
+
+    @Setup
+    public void setUp() throws IOException {
+        script = Arrays.asList(ScriptGenerator.lines(lines, 42));
+        text = Files.createTempFile("commands", ".txt");
+        archive = Files.createTempFile("commands", "." + CommandArchive.EXTENSION);
+        Files.write(text, script);
+        long bytes = CommandArchive.convert(text, null, archive);
+        System.out.printf("%n%,d lines: text %,d bytes, archive %,d bytes%n", lines, Files.size(text), bytes);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(text);
+        Files.deleteIfExists(archive);
+    }
+
+    @Benchmark
+    public List<String> readText() throws IOException {
+        return Files.readAllLines(text);
+    }
+
+    @Benchmark
+    public List<String> readArchive() throws IOException {
+        try (CommandArchive.Reader reader = CommandArchive.Reader.open(archive)) {
+            return reader.readCommands();
+        }
+    }
+
+    // The last block only, as a reader resuming near the end would
+    @Benchmark
+    public String seekArchive() throws IOException {
+        try (CommandArchive.Reader reader = CommandArchive.Reader.open(archive)) {
+            return reader.commands(lines - 1).next();
+        }
+    }
+
+    @Benchmark
+    public Path writeText() throws IOException {
+        return Files.write(text, script);
+    }
+
+    @Benchmark
+    public long writeArchive() throws IOException {
+        try (CommandArchive.Writer writer = new CommandArchive.Writer(archive)) {
+            for (String line : script) writer.addCommand(line);
+            return writer.finish();
+        }
+    }
+}
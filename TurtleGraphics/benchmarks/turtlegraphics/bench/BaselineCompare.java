@@ -0,0 +1,89 @@
+package turtlegraphics.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Compares two JMH CSV result files (-rf csv) and exits 1 if any benchmark
+// got worse than the tolerance, e.g. BaselineCompare baseline.csv jmh-result.csv 10
+public class BaselineCompare {
+    private static class Row {
+        String mode, unit;
+        double score, error;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: BaselineCompare <baseline.csv> <current.csv> [tolerance %]");
+            System.exit(2);
+        }
+        double tolerance = args.length > 2 ? Double.parseDouble(args[2]) : 10.0;
+        Map<String, Row> baseline = read(Paths.get(args[0]));
+        Map<String, Row> current = read(Paths.get(args[1]));
+
+        int regressions = 0;
+        for (Map.Entry<String, Row> e : current.entrySet()) {
+            Row now = e.getValue(), before = baseline.get(e.getKey());
+            if (before == null) {
+                System.out.printf("%-70s %12.3f %-8s (new)%n", e.getKey(), now.score, now.unit);
+                continue;
+            }
+            // Throughput modes are better when higher, time modes when lower
+            boolean higherIsBetter = now.mode.equals("thrpt");
+            double change = (now.score - before.score) / before.score * 100;
+            double worse = higherIsBetter ? -change : change;
+            String verdict = worse > tolerance ? "REGRESSION" : worse < -tolerance ? "improved" : "";
+            if (worse > tolerance) regressions++;
+            System.out.printf("%-70s %12.3f -> %12.3f %-8s %+7.1f%% %s%n",
+                    e.getKey(), before.score, now.score, now.unit, change, verdict);
+        }
+        System.out.println(regressions + " regression(s) beyond " + tolerance + "%");
+        if (regressions > 0) System.exit(1);
+    }
+
+    private static Map<String, Row> read(Path file) throws IOException {
+        List<String> lines = Files.readAllLines(file);
+        Map<String, Row> rows = new LinkedHashMap<>();
+        if (lines.isEmpty()) return rows;
+
+        List<String> header = split(lines.get(0));
+        for (String line : lines.subList(1, lines.size())) {
+            if (line.isBlank()) continue;
+            List<String> cells = split(line);
+            StringBuilder key = new StringBuilder(cells.get(0));
+            for (int i = 7; i < cells.size() && i < header.size(); i++) {
+                if (!cells.get(i).isEmpty()) {
+                    key.append(' ').append(header.get(i).replace("Param: ", "")).append('=').append(cells.get(i));
+                }
+            }
+            Row row = new Row();
+            row.mode = cells.get(1);
+            row.score = Double.parseDouble(cells.get(4));
+            row.error = cells.get(5).equals("NaN") ? 0 : Double.parseDouble(cells.get(5));
+            row.unit = cells.get(6);
+            rows.put(key.toString(), row);
+        }
+        return rows;
+    }
+
+    private static List<String> split(String line) {
+        List<String> cells = new ArrayList<>();
+        StringBuilder cell = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') quoted = !quoted;
+            else if (c == ',' && !quoted) {
+                cells.add(cell.toString());
+                cell.setLength(0);
+            } else cell.append(c);
+        }
+        cells.add(cell.toString());
+        return cells;
+    }
+}
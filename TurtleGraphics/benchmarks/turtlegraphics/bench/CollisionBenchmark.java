@@ -0,0 +1,93 @@
+package turtlegraphics.bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import turtlegraphics.GridIndex;
+import turtlegraphics.SegmentIndex;
+import turtlegraphics.SpatialIndex;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class CollisionBenchmark {
+    private static final int QUERIES = 1024;
+    private static final int SIDE = 4000;
+
+    @Param({"100", "10000", "100000"})
+    public int obstacles;
+
+    private int[][] points;
+    private SpatialIndex grid;
+    // Ten drawn segments per obstacle, as one random walk across the canvas
+    private SegmentIndex lines;
+    private int[] queries;
+
+    @Setup
+    public void build() {
+        points = ScriptGenerator.points(obstacles, SIDE, 7);
+        grid = new GridIndex();
+        for (int[] p : points) grid.add(p[0], p[1]);
+
+        lines = new SegmentIndex();
+        Random walk = new Random(5);
+        int wx = SIDE / 2, wy = SIDE / 2;
+        for (int i = 0; i < obstacles * 10; i++) {
+            int nx = Math.floorMod(wx + walk.nextInt(41) - 20, SIDE), ny = Math.floorMod(wy + walk.nextInt(41) - 20, SIDE);
+            lines.add(wx, wy, nx, ny);
+            wx = nx;
+            wy = ny;
+        }
+
+        Random random = new Random(11);
+        queries = new int[QUERIES * 4];
+        for (int i = 0; i < QUERIES; i++) {
+            int x = random.nextInt(SIDE), y = random.nextInt(SIDE);
+            queries[i * 4] = x;
+            queries[i * 4 + 1] = y;
+            queries[i * 4 + 2] = x + random.nextInt(101) - 50;
+            queries[i * 4 + 3] = y + random.nextInt(101) - 50;
+        }
+    }
+
+    // The pre-index behaviour: endpoint against every obstacle
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public void linearEndpoint(Blackhole bh) {
+        for (int i = 0; i < QUERIES; i++) {
+            int x = queries[i * 4 + 2], y = queries[i * 4 + 3];
+            boolean hit = false;
+            for (int[] p : points) {
+                if (Math.abs(x - p[0]) < 10 && Math.abs(y - p[1]) < 10) { hit = true; break; }
+            }
+            bh.consume(hit);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public void gridEndpoint(Blackhole bh) {
+        for (int i = 0; i < QUERIES; i++) bh.consume(grid.hits(queries[i * 4 + 2], queries[i * 4 + 3]));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public void gridSweptSegment(Blackhole bh) {
+        for (int i = 0; i < QUERIES; i++) {
+            bh.consume(grid.intersects(queries[i * 4], queries[i * 4 + 1], queries[i * 4 + 2], queries[i * 4 + 3]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public void segmentFirstHit(Blackhole bh) {
+        for (int i = 0; i < QUERIES; i++) {
+            bh.consume(lines.firstHit(queries[i * 4], queries[i * 4 + 1], queries[i * 4 + 2], queries[i * 4 + 3]));
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package turtlegraphics.bench;
+
+import org.openjdk.jmh.annotations.*;
+import turtlegraphics.HeadlessTurtle;
+import turtlegraphics.ScriptCompiler;
+import turtlegraphics.ScriptExecutor;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// The same ImageIO calls FileHandler.saveImage and loadImage make
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ImageIOBenchmark {
+    @Param({"png", "jpg"})
+    public String format;
+
+    private BufferedImage image;
+    private byte[] encoded;
+    private Path file;
+
+    @Setup
+    public void render() throws IOException {
+        HeadlessTurtle turtle = new HeadlessTurtle();
+        ScriptExecutor.execute(ScriptCompiler.compile(ScriptGenerator.script(5000, 3)), turtle);
+        turtle.dispose();
+        image = turtle.getImage();
+        encoded = encode();
+        file = Files.createTempFile("image", "." + format);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    private byte[] encode() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, format, out);
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] encodeToMemory() throws IOException {
+        return encode();
+    }
+
+    @Benchmark
+    public BufferedImage decodeFromMemory() throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(encoded));
+    }
+
+    @Benchmark
+    public BufferedImage saveAndLoadFile() throws IOException {
+        ImageIO.write(image, format, file.toFile());
+        return ImageIO.read(file.toFile());
+    }
+}
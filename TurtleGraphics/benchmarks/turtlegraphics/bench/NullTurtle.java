@@ -0,0 +1,53 @@
+package turtlegraphics.bench;
+
+import turtlegraphics.CollisionPolicy;
+import turtlegraphics.DisplayList;
+import turtlegraphics.Turtle;
+
+import java.awt.Color;
+import java.nio.file.Path;
+
+// Accepts every command and does nothing, so parser benchmarks measure parsing alone
+public class NullTurtle implements Turtle {
+    public long calls;
+    private final DisplayList displayList = new DisplayList();
+
+    public void about() { calls++; }
+    public void reset() { calls++; }
+    public void clear() { calls++; }
+    public void displayMessage(String message) { calls++; }
+    public void saveCurrentState() { calls++; }
+    public void loadState() { calls++; }
+    public void exitApplication() { calls++; }
+    public void saveSession(Path file) { calls++; }
+    public void loadSession(Path file) { calls++; }
+    public void setPenState(boolean down) { calls++; }
+    public boolean getPenState() { return true; }
+    public void setPenColour(Color colour) { calls++; }
+    public void forward(int distance) { calls += distance; }
+    public void left(int degrees) { calls += degrees; }
+    public void right(int degrees) { calls += degrees; }
+    public void drawSquare(int size) { calls += size; }
+    public void drawTriangle(int size) { calls += size; }
+    public void drawRectangle(int width, int height) { calls += width + height; }
+    public void drawCircle(int radius) { calls += radius; }
+    public void drawRohan() { calls++; }
+    public DisplayList getDisplayList() { return displayList; }
+    public void exportDrawing(Path file, int scale) { calls++; }
+    public void startRecording() { calls++; }
+    public void stopRecording() { calls++; }
+    public void playRecording() { calls++; }
+    public void pausePlayback() { calls++; }
+    public void resumePlayback() { calls++; }
+    public void stopPlayback() { calls++; }
+    public void seekPlayback(int index) { calls++; }
+    public void setInstantPlayback(boolean instant) { calls++; }
+    public void saveRecording(Path file) { calls++; }
+    public void loadRecording(Path file) { calls++; }
+    public void setTurtleSpeed(int speed) { calls++; }
+    public void addObstacle(int x, int y) { calls++; }
+    public void loadObstacles(Path file) { calls++; }
+    public void enableCollisionDetection(boolean enable) { calls++; }
+    public void enableLineCollision(boolean enable) { calls++; }
+    public void setCollisionPolicy(CollisionPolicy policy) { calls++; }
+}
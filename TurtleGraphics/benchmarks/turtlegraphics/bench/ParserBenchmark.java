@@ -0,0 +1,73 @@
+package turtlegraphics.bench;
+
+import org.openjdk.jmh.annotations.*;
+import turtlegraphics.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ParserBenchmark {
+    @Param({"10000", "100000"})
+    public int lines;
+
+    private String[] script;
+    private String text, unrolled, folded;
+
+    @Setup
+    public void generate() {
+        script = ScriptGenerator.lines(lines, 42);
+        text = ScriptGenerator.script(lines, 42);
+        unrolled = ScriptGenerator.spiral(lines / 2, true);
+        folded = ScriptGenerator.spiral(lines / 2, false);
+    }
+
+    @Benchmark
+    public long stringParser() {
+        NullTurtle turtle = new NullTurtle();
+        CommandParser parser = new CommandParser(turtle);
+        for (String line : script) parser.parseAndExecute(line);
+        return turtle.calls;
+    }
+
+    @Benchmark
+    public CompiledScript compile() {
+        return ScriptCompiler.compile(text);
+    }
+
+    @Benchmark
+    public long compileAndExecute() {
+        NullTurtle turtle = new NullTurtle();
+        ScriptExecutor.execute(ScriptCompiler.compile(text), turtle);
+        return turtle.calls;
+    }
+
+    // Same spiral either way; the repeat compiles to a single TRACE
+    @Benchmark
+    public int unrolledLoop() {
+        HeadlessTurtle turtle = new HeadlessTurtle();
+        ScriptExecutor.execute(ScriptCompiler.compile(unrolled), turtle);
+        turtle.dispose();
+        return turtle.getxPos();
+    }
+
+    @Benchmark
+    public int foldedLoop() {
+        HeadlessTurtle turtle = new HeadlessTurtle();
+        ScriptExecutor.execute(ScriptCompiler.compile(folded), turtle);
+        turtle.dispose();
+        return turtle.getxPos();
+    }
+
+    @Benchmark
+    public int headlessRender() {
+        HeadlessTurtle turtle = new HeadlessTurtle();
+        ScriptExecutor.execute(ScriptCompiler.compile(text), turtle);
+        turtle.dispose();
+        return turtle.getxPos();
+    }
+}
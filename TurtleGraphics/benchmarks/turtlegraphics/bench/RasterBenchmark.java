@@ -0,0 +1,47 @@
+package turtlegraphics.bench;
+
+import org.openjdk.jmh.annotations.*;
+import turtlegraphics.*;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+// Final render of a finished drawing: sequential replay onto one image vs
+// fork/join tile rasterisation on N threads
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx2g"})
+public class RasterBenchmark {
+    private static final int WIDTH = 4000, HEIGHT = 3000;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private DisplayList drawing;
+
+    @Setup
+    public void create() {
+        HeadlessTurtle turtle = new HeadlessTurtle(WIDTH, HEIGHT);
+        ScriptExecutor.execute(ScriptCompiler.compile(ScriptGenerator.script(200_000, 42)), turtle);
+        drawing = turtle.getDisplayList();
+        turtle.dispose();
+    }
+
+    @Benchmark
+    public BufferedImage sequential() {
+        ImageSurface surface = new ImageSurface(WIDTH, HEIGHT);
+        surface.clear(Color.BLACK);
+        drawing.replay(surface);
+        surface.dispose();
+        return surface.toImage();
+    }
+
+    @Benchmark
+    public BufferedImage parallel() {
+        return ParallelSurface.render(drawing, WIDTH, HEIGHT, Color.BLACK, threads);
+    }
+}
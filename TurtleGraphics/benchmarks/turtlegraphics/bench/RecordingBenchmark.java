@@ -0,0 +1,81 @@
+package turtlegraphics.bench;
+
+import org.openjdk.jmh.annotations.*;
+import turtlegraphics.MovementBuffer;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class RecordingBenchmark {
+    @Param({"100000"})
+    public int movements;
+
+    private MovementBuffer recorded;
+    private Path file;
+
+    // Shape of the object-per-move recording that MovementBuffer replaced
+    private static final class Movement {
+        final int x, y; final boolean penDown; final Color color; final int width;
+        Movement(int x, int y, boolean penDown, Color color, int width) {
+            this.x = x; this.y = y; this.penDown = penDown; this.color = color; this.width = width;
+        }
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        recorded = record();
+        file = Files.createTempFile("recording", ".tgr");
+        recorded.write(file);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    private MovementBuffer record() {
+        MovementBuffer buffer = new MovementBuffer(movements, false);
+        for (int i = 0; i < movements; i++) buffer.add(i & 1023, i >> 10, (i & 7) != 0, 0xFF000000 | i, 1 + (i & 3));
+        return buffer;
+    }
+
+    @Benchmark
+    public MovementBuffer recordBuffer() {
+        return record();
+    }
+
+    @Benchmark
+    public ArrayList<Movement> recordObjects() {
+        ArrayList<Movement> list = new ArrayList<>();
+        for (int i = 0; i < movements; i++) {
+            list.add(new Movement(i & 1023, i >> 10, (i & 7) != 0, new Color(0xFF000000 | i, true), 1 + (i & 3)));
+        }
+        return list;
+    }
+
+    @Benchmark
+    public long replayBuffer() {
+        long sum = 0;
+        for (int i = 0, n = recorded.size(); i < n; i++) {
+            sum += recorded.x(i) + recorded.y(i) + recorded.argb(i) + recorded.width(i) + (recorded.penDown(i) ? 1 : 0);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long writeAndMap() throws IOException {
+        recorded.write(file);
+        MovementBuffer mapped = MovementBuffer.map(file);
+        return mapped.x(mapped.size() - 1);
+    }
+}
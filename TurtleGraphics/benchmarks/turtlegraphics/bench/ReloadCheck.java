@@ -0,0 +1,166 @@
+package turtlegraphics.bench;
+
+import turtlegraphics.CommandHistory;
+import turtlegraphics.CompiledScript;
+import turtlegraphics.ScriptCompiler;
+import turtlegraphics.ScriptDiff;
+import turtlegraphics.ScriptExecutor;
+import turtlegraphics.Timeline;
+import turtlegraphics.TurtleGraphics;
+
+import javax.swing.SwingUtilities;
+import java.awt.image.BufferedImage;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+// Reloads edited scripts the way CommandLoader does and compares each with
+// the edited script run from scratch: pixels, turtle and history must all
+// match. Exits 1 if any edit differs, e.g. ReloadCheck 2000
+public class ReloadCheck {
+    public static void main(String[] args) throws Exception {
+        int lines = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int[] failed = new int[1];
+        SwingUtilities.invokeAndWait(() -> {
+            for (Map.Entry<String, List<List<String>>> e : edits(lines).entrySet()) {
+                List<String> before = e.getValue().get(0), after = e.getValue().get(1);
+                TurtleGraphics reloaded = new TurtleGraphics();
+                load(reloaded, before);
+                String how = reload(reloaded, after);
+                TurtleGraphics fresh = new TurtleGraphics();
+                load(fresh, after);
+                String difference = compare(reloaded, fresh);
+                if (difference != null) failed[0]++;
+                System.out.printf("%-24s %-8s %s%n", e.getKey(), how, difference == null ? "ok" : difference);
+            }
+        });
+        System.exit(failed[0] > 0 ? 1 : 0);
+    }
+
+    // Each edit as the script loaded first and the script reloaded over it
+    private static Map<String, List<List<String>>> edits(int n) {
+        Map<String, List<List<String>>> edits = new LinkedHashMap<>();
+
+        // A block longer than the lookahead right after a pure insertion
+        List<String> block = new ArrayList<>(List.of("move 10", "repeat 2 ["));
+        for (int i = 0; i < 70; i++) block.add(i % 2 == 0 ? "move 3" : "left 2");
+        block.addAll(List.of("]", "move 5"));
+        edits.put("insert before block", edit(block, e -> e.add(1, "right 90")));
+
+        List<String> base = script(n, 1);
+        edits.put("insert circle", edit(base, e -> e.add(n / 2, "circle 15")));
+        edits.put("insert move", edit(base, e -> e.add(n / 2, "move 1")));
+        edits.put("recolour", edit(base, e -> e.set(first(e, n / 3, "red"), "green")));
+        edits.put("shorten move", edit(base, e -> e.set(first(e, n / 4, "move"), "move 3")));
+        edits.put("delete square", edit(base, e -> e.remove(first(e, n / 5, "square"))));
+        edits.put("delete circle", edit(base, e -> e.remove(first(e, n / 5, "circle"))));
+        edits.put("inside repeat", edit(base, e -> e.set(first(e, n / 2, "repeat") + 1, "move 9")));
+        edits.put("append", edit(base, e -> e.add("move 40")));
+        edits.put("drop tail", edit(base, e -> e.subList(n - 10, e.size()).clear()));
+        return edits;
+    }
+
+    private interface Edit {
+        void apply(List<String> lines);
+    }
+
+    private static List<List<String>> edit(List<String> base, Edit edit) {
+        List<String> edited = new ArrayList<>(base);
+        edit.apply(edited);
+        return List.of(base, edited);
+    }
+
+    private static int first(List<String> lines, int from, String prefix) {
+        for (int i = from; i < lines.size(); i++) {
+            if (lines.get(i).startsWith(prefix)) return i;
+        }
+        throw new IllegalStateException("No " + prefix + " after line " + from);
+    }
+
+    private static List<String> script(int n, long seed) {
+        Random random = new Random(seed);
+        String[] colours = {"red", "green", "black", "white"};
+        List<String> lines = new ArrayList<>();
+        while (lines.size() < n) {
+            int k = random.nextInt(20);
+            if (k < 8) lines.add("move " + (5 + random.nextInt(30)));
+            else if (k < 12) lines.add((random.nextBoolean() ? "left " : "right ") + (1 + random.nextInt(179)));
+            else if (k < 14) lines.add(colours[random.nextInt(colours.length)]);
+            else if (k == 14) lines.add("square " + (5 + random.nextInt(20)));
+            else if (k == 15) lines.add("circle " + (5 + random.nextInt(20)));
+            else if (k == 16) lines.add(random.nextBoolean() ? "penup" : "pendown");
+            else if (k == 17) lines.addAll(List.of("repeat 3 [", "move 7", "right 120", "]"));
+            else if (k == 18) lines.add("reverse " + (5 + random.nextInt(30)));
+            else lines.add("triangle " + (5 + random.nextInt(20)));
+        }
+        return lines;
+    }
+
+    // === As CommandLoader ===
+
+    private static void load(TurtleGraphics graphics, List<String> lines) {
+        graphics.reset();
+        graphics.getTimeline().rebase();
+        graphics.getTimeline().setSource(Path.of("check.txt").toAbsolutePath());
+        run(graphics, lines, 0);
+    }
+
+    private static String reload(TurtleGraphics graphics, List<String> lines) {
+        Timeline timeline = graphics.getTimeline();
+        timeline.beforeCommand();
+        CommandHistory history = graphics.getCommandHistory();
+        int floor = timeline.getFloor();
+        List<String> previous = history.asList().subList(floor, history.size());
+        ScriptDiff diff = ScriptDiff.of(previous, lines);
+        if (diff.isEmpty()) return "same";
+        boolean spliced = false;
+        if (diff.oldEnd < previous.size() && Timeline.isLocal(previous.subList(diff.start, diff.oldEnd),
+                lines.subList(diff.start, diff.newEnd), lines)) {
+            spliced = timeline.splice(floor + diff.start, floor + diff.oldEnd, lines.subList(diff.start, diff.newEnd));
+        } else {
+            timeline.rewind(floor + diff.start);
+        }
+        if (spliced) return "spliced";
+        run(graphics, lines, timeline.getPosition() - floor);
+        return "resumed";
+    }
+
+    private static void run(TurtleGraphics graphics, List<String> lines, int from) {
+        if (from >= lines.size()) return;
+        List<String> chunk = lines.subList(from, lines.size());
+        CompiledScript program = ScriptCompiler.compile(String.join("\n", chunk), from + 1,
+                graphics.getCommandParser().getContext());
+        graphics.beginBatch();
+        try {
+            ScriptExecutor.execute(program, graphics, graphics.getCommandParser().getContext());
+        } finally {
+            graphics.endBatch();
+        }
+        graphics.getCommandHistory().addAll(chunk);
+        graphics.getTimeline().afterCommands();
+    }
+
+    // What differs, or null
+    private static String compare(TurtleGraphics a, TurtleGraphics b) {
+        if (!a.getCommandHistory().asList().equals(b.getCommandHistory().asList())) return "history differs";
+        if (a.getGeometry().getExactX() != b.getGeometry().getExactX()
+                || a.getGeometry().getExactY() != b.getGeometry().getExactY() || a.getDirection() != b.getDirection()) {
+            return String.format("turtle at %.1f,%.1f heading %d, expected %.1f,%.1f heading %d",
+                    a.getGeometry().getExactX(), a.getGeometry().getExactY(), a.getDirection(),
+                    b.getGeometry().getExactX(), b.getGeometry().getExactY(), b.getDirection());
+        }
+        if (a.getPenState() != b.getPenState() || !a.getPenColour().equals(b.getPenColour())) return "pen differs";
+        BufferedImage x = a.getCurrentImage(), y = b.getCurrentImage();
+        int w = x.getWidth(), h = x.getHeight();
+        if (w != y.getWidth() || h != y.getHeight()) return "canvas size differs";
+        int[] px = x.getRGB(0, 0, w, h, null, 0, w), py = y.getRGB(0, 0, w, h, null, 0, w);
+        int pixels = 0;
+        for (int i = 0; i < px.length; i++) {
+            if (px[i] != py[i]) pixels++;
+        }
+        return pixels == 0 ? null : pixels + " pixels differ";
+    }
+}
@@ -0,0 +1,49 @@
+package turtlegraphics.bench;
+
+import java.util.Random;
+
+// Reproducible command scripts: the same seed always yields the same lines
+public final class ScriptGenerator {
+    private ScriptGenerator() { }
+
+    public static String[] lines(int count, long seed) {
+        Random random = new Random(seed);
+        String[] lines = new String[count];
+        for (int i = 0; i < count; i++) {
+            int roll = random.nextInt(100);
+            if (roll < 40) lines[i] = "move " + (1 + random.nextInt(60));
+            else if (roll < 55) lines[i] = "right " + (1 + random.nextInt(180));
+            else if (roll < 70) lines[i] = "left " + (1 + random.nextInt(180));
+            else if (roll < 75) lines[i] = "reverse " + (1 + random.nextInt(40));
+            else if (roll < 82) lines[i] = "pencolour " + (1 + random.nextInt(255)) + ","
+                    + (1 + random.nextInt(255)) + "," + (1 + random.nextInt(255));
+            else if (roll < 86) lines[i] = random.nextBoolean() ? "penup" : "pendown";
+            else if (roll < 90) lines[i] = "square " + (5 + random.nextInt(40));
+            else if (roll < 93) lines[i] = "circle " + (5 + random.nextInt(30));
+            else if (roll < 96) lines[i] = "triangle " + (5 + random.nextInt(40));
+            else if (roll < 98) lines[i] = "rectangle " + (5 + random.nextInt(40)) + " " + (5 + random.nextInt(40));
+            else lines[i] = "reset";
+        }
+        return lines;
+    }
+
+    public static String script(int count, long seed) {
+        return String.join("\n", lines(count, seed)) + "\n";
+    }
+
+    // The same spiral of moves and turns, unrolled or as one repeat
+    public static String spiral(int steps, boolean unrolled) {
+        if (!unrolled) return "repeat " + steps + " [ move 3 right 7 ]\n";
+        StringBuilder sb = new StringBuilder(steps * 16);
+        for (int i = 0; i < steps; i++) sb.append("move 3\nright 7\n");
+        return sb.toString();
+    }
+
+    // Obstacle field spread over a square of the given side
+    public static int[][] points(int count, int side, long seed) {
+        Random random = new Random(seed);
+        int[][] points = new int[count][];
+        for (int i = 0; i < count; i++) points[i] = new int[] {random.nextInt(side), random.nextInt(side)};
+        return points;
+    }
+}
@@ -0,0 +1,56 @@
+package turtlegraphics.bench;
+
+import org.openjdk.jmh.annotations.*;
+import turtlegraphics.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ShapeBenchmark {
+    // "swing" needs the real LBUGraphics jar on the classpath
+    @Param({"headless", "swing"})
+    public String target;
+
+    private Turtle turtle;
+
+    @Setup
+    public void create() {
+        turtle = target.equals("swing") ? new TurtleGraphics() : new HeadlessTurtle();
+        turtle.setTurtleSpeed(0);
+    }
+
+    @Benchmark
+    public Turtle drawSquare() {
+        turtle.drawSquare(100);
+        return turtle;
+    }
+
+    @Benchmark
+    public Turtle drawCircle() {
+        turtle.drawCircle(50);
+        return turtle;
+    }
+
+    // Moves and turns with the pen up: the position arithmetic on its own
+    @Benchmark
+    public Turtle walk() {
+        turtle.setPenState(false);
+        for (int i = 0; i < 1000; i++) {
+            turtle.forward(3);
+            turtle.right(7);
+        }
+        turtle.setPenState(true);
+        return turtle;
+    }
+
+    @Benchmark
+    public Turtle drawRohan() {
+        turtle.drawRohan();
+        return turtle;
+    }
+}
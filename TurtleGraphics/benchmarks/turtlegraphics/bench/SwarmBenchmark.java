@@ -0,0 +1,45 @@
+package turtlegraphics.bench;
+
+import org.openjdk.jmh.annotations.*;
+import turtlegraphics.*;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+// The same total work spread over N agents: one turtle driving every agent's
+// script in turn vs a TurtleSwarm running the agents concurrently
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class SwarmBenchmark {
+    private static final int WIDTH = 2000, HEIGHT = 2000, MOVES = 200_000;
+
+    @Param({"1", "64", "512"})
+    public int agents;
+
+    private CompiledScript program;
+
+    @Setup
+    public void compile() {
+        program = ScriptCompiler.compile(ScriptGenerator.spiral(MOVES / agents, true));
+    }
+
+    @Benchmark
+    public BufferedImage sequential() {
+        HeadlessTurtle turtle = new HeadlessTurtle(WIDTH, HEIGHT);
+        for (int i = 0; i < agents; i++) ScriptExecutor.execute(program, turtle);
+        return turtle.getImage();
+    }
+
+    @Benchmark
+    public BufferedImage swarm() throws InterruptedException {
+        try (TurtleSwarm swarm = new TurtleSwarm(new ImageSurface(WIDTH, HEIGHT))) {
+            for (int i = 0; i < agents; i++) swarm.spawn().submit(program);
+            swarm.awaitIdle();
+            return swarm.getImage();
+        }
+    }
+}
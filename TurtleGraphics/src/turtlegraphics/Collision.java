@@ -0,0 +1,44 @@
+package turtlegraphics;
+
+// What the collision policy makes of a move, shared by the app's turtle and
+// the headless one so both stop in the same place and say the same thing.
+// A move that hits nothing has no Collision; otherwise it is either refused
+// or made to (x, y), which under clip is short of where it was aimed.
+final class Collision {
+    final boolean refused;
+    final int x, y;
+    final String message;
+
+    private Collision(boolean refused, int x, int y, String message) {
+        this.refused = refused;
+        this.x = x;
+        this.y = y;
+        this.message = message;
+    }
+
+    // The move from (x0, y0) to (x1, y1) against the obstacles and the lines
+    // drawn so far, either of which may be null when not checked; null when
+    // it hits neither
+    static Collision check(int x0, int y0, int x1, int y1, SpatialIndex obstacles, SegmentIndex lines,
+                           CollisionPolicy policy) {
+        Metrics.COLLISION_CHECKS.increment();
+        double t = SpatialIndex.NO_HIT;
+        if (obstacles != null) {
+            t = policy == CollisionPolicy.STOP
+                    ? obstacles.intersects(x0, y0, x1, y1) ? 0 : SpatialIndex.NO_HIT
+                    : obstacles.firstHit(x0, y0, x1, y1);
+        }
+        if (lines != null && t > 0) t = Math.min(t, lines.firstHit(x0, y0, x1, y1));
+        if (t == SpatialIndex.NO_HIT) return null;
+
+        Metrics.COLLISIONS.increment();
+        int hitX = (int) Math.round(x0 + t * (x1 - x0)), hitY = (int) Math.round(y0 + t * (y1 - y0));
+        if (policy == CollisionPolicy.REPORT) {
+            return new Collision(false, x1, y1, "Collision detected at " + hitX + "," + hitY);
+        }
+        if (policy == CollisionPolicy.STOP || hitX == x0 && hitY == y0) {
+            return new Collision(true, x0, y0, "Collision detected!");
+        }
+        return new Collision(false, hitX, hitY, "Collision detected, stopped at " + hitX + "," + hitY);
+    }
+}
@@ -0,0 +1,22 @@
+package turtlegraphics;
+
+import java.util.Locale;
+
+// What a move does when collision detection finds it would hit an obstacle
+// or, with line collision on, a line already drawn
+public enum CollisionPolicy {
+    // Refuse the move; the turtle stays where it is
+    STOP,
+    // Move as far as the first hit and stop there
+    CLIP,
+    // Make the whole move, saying where it hit
+    REPORT;
+
+    // "stop", "clip" or "report", in any case; null for anything else
+    public static CollisionPolicy parse(String name) {
+        for (CollisionPolicy policy : values()) {
+            if (policy.name().equals(name.toUpperCase(Locale.ROOT))) return policy;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,587 @@
+package turtlegraphics;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Long-term storage for a session's command log and movement recording, for
+// keeping every session rather than carrying on from one. A command written
+// as a command name and plain integer operands (move 10, pencolour 1,2,3) is
+// stored as the name's opcode followed by its operands as zigzag varints,
+// each the difference from the same operand of the last such command; any
+// other line is kept as UTF-8 text. A movement is stored as varint deltas
+// from the one before, with its colour and stroke only where they change.
+// Every entry reads back exactly as it was written.
+//
+// Both are cut into blocks of a few thousand entries that are deflated on
+// their own, and the deltas start again in every block, so a reader can
+// start at any block the index points it to without reading those before.
+//
+// Layout, little-endian: a 16 byte header (magic, version, zero), the
+// blocks, then the index of 36 byte entries (kind, entries, first entry,
+// offset, compressed and raw length, CRC-32 of the raw bytes) and a 16 byte
+// trailer (index offset, block count, magic).
+public final class CommandArchive {
+    public static final String EXTENSION = "tgl";
+
+    private static final int MAGIC = 0x54474131; // "TGA1"
+    private static final int VERSION = 1;
+    private static final int HEADER = 16, ENTRY = 36, TRAILER = 16;
+    private static final int COMMANDS = 0, MOVEMENTS = 1;
+    private static final int COMMAND_BLOCK = 4096, MOVEMENT_BLOCK = 16384;
+
+    // Command codes: TEXT, 1 + a CompiledScript opcode for its name, or
+    // COLOURS + i for the i-th colour name
+    private static final int TEXT = 0, COLOURS = 128;
+    // After the code, one byte of operand count and, from bit 3, whether
+    // each gap between operands is a comma rather than a space
+    private static final int MAX_OPERANDS = 4;
+    // Movement flags
+    private static final int PEN = 1, COLOUR = 2, STROKE = 4;
+
+    private static final String[] WORDS = new String[COLOURS + ScriptCompiler.COLOUR_NAMES.length];
+    private static final Map<String, Integer> CODES = new HashMap<>();
+
+    static {
+        for (int op = 0; op < CompiledScript.NAMES.length; op++) WORDS[1 + op] = CompiledScript.NAMES[op];
+        for (int i = 0; i < ScriptCompiler.COLOUR_NAMES.length; i++) WORDS[COLOURS + i] = ScriptCompiler.COLOUR_NAMES[i];
+        for (int code = 1; code < WORDS.length; code++) {
+            if (WORDS[code] != null) CODES.put(WORDS[code], code);
+        }
+    }
+
+    private CommandArchive() { }
+
+    // Returns the number of bytes written
+    public static long save(Path file, CommandHistory history, MovementBuffer recording) throws IOException {
+        try (Writer writer = new Writer(file)) {
+            for (int i = 0; i < history.size(); i++) writer.addCommand(history.get(i));
+            writer.addRecording(recording);
+            return writer.finish();
+        }
+    }
+
+    // Converts a saved command file, and the recording saved with it if there
+    // is one, reading the text a line at a time
+    public static long convert(Path commands, Path recording, Path file) throws IOException {
+        try (Writer writer = new Writer(file); BufferedReader reader = Files.newBufferedReader(commands)) {
+            String line;
+            while ((line = reader.readLine()) != null) writer.addCommand(line);
+            if (recording != null) writer.addRecording(MovementBuffer.map(recording));
+            return writer.finish();
+        }
+    }
+
+    public static void run(String[] args) throws IOException {
+        if (args.length < 2 || args.length > 3) {
+            System.err.println("Usage: --archive <commands.txt> [recording.tgr] <out." + EXTENSION + ">");
+            return;
+        }
+        Path commands = Paths.get(args[0]), out = Paths.get(args[args.length - 1]);
+        Path recording = args.length == 3 ? Paths.get(args[1]) : null;
+        long start = System.nanoTime();
+        long bytes = convert(commands, recording, out);
+        long before = Files.size(commands) + (recording != null ? Files.size(recording) : 0);
+        try (Reader reader = Reader.open(out)) {
+            System.out.printf("%,d commands and %,d movements archived to %s: %,d bytes from %,d (%.1f%%) in %.0f ms%n",
+                    reader.getCommandCount(), reader.getMovementCount(), out, bytes, before,
+                    bytes * 100.0 / Math.max(1, before), (System.nanoTime() - start) / 1e6);
+        }
+    }
+
+    // === Writing ===
+
+    // Blocks are written as they fill; finish() adds the index and puts the
+    // archive in place, and closing a writer that was never finished leaves
+    // the file as it was
+    public static final class Writer implements Closeable {
+        private final Path file, partial;
+        private final FileChannel ch;
+        private final Block commands = new Block(COMMANDS), movements = new Block(MOVEMENTS);
+        private final Deflater deflater = new Deflater();
+        private final CRC32 crc = new CRC32();
+        private final byte[] out = new byte[1 << 16];
+        private final Bytes raw = new Bytes();
+        private ByteBuffer index = buffer(ENTRY * 64);
+        private int blocks;
+        private boolean finished;
+
+        public Writer(Path file) throws IOException {
+            this.file = file;
+            this.partial = file.resolveSibling(file.getFileName() + ".part");
+            this.ch = FileChannel.open(partial, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            ch.position(HEADER);
+        }
+
+        public void addCommand(String line) throws IOException {
+            commands.command(line);
+            if (commands.entries == COMMAND_BLOCK) flush(commands);
+        }
+
+        public void addMovement(int x, int y, boolean penDown, int argb, int width) throws IOException {
+            movements.movement(x, y, penDown, argb, width);
+            if (movements.entries == MOVEMENT_BLOCK) flush(movements);
+        }
+
+        public void addRecording(MovementBuffer recording) throws IOException {
+            for (int i = 0; i < recording.size(); i++) {
+                addMovement(recording.x(i), recording.y(i), recording.penDown(i), recording.argb(i), recording.width(i));
+            }
+        }
+
+        private void flush(Block block) throws IOException {
+            if (block.entries == 0) return;
+            long offset = ch.position();
+            block.join(raw);
+            deflater.reset();
+            deflater.setInput(raw.data, 0, raw.length);
+            deflater.finish();
+            while (!deflater.finished()) {
+                int n = deflater.deflate(out);
+                writeFully(ch, ByteBuffer.wrap(out, 0, n));
+            }
+            crc.reset();
+            crc.update(raw.data, 0, raw.length);
+
+            if (index.remaining() < ENTRY) {
+                index = buffer(index.capacity() * 2).put(index.flip());
+            }
+            index.putInt(block.kind).putInt(block.entries).putLong(block.first).putLong(offset)
+                    .putInt((int) (ch.position() - offset)).putInt(raw.length).putInt((int) crc.getValue());
+            blocks++;
+            block.next();
+        }
+
+        // Returns the length of the archive
+        public long finish() throws IOException {
+            flush(commands);
+            flush(movements);
+            long indexOffset = ch.position();
+            writeFully(ch, index.flip());
+            writeFully(ch, buffer(TRAILER).putLong(indexOffset).putInt(blocks).putInt(MAGIC).flip());
+            long bytes = ch.size();
+            ByteBuffer header = buffer(HEADER).putInt(MAGIC).putInt(VERSION).putLong(0).flip();
+            while (header.hasRemaining()) ch.write(header, header.position());
+            ch.close();
+            Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            finished = true;
+            return bytes;
+        }
+
+        @Override
+        public void close() throws IOException {
+            deflater.end();
+            if (!finished) {
+                ch.close();
+                Files.deleteIfExists(partial);
+            }
+        }
+    }
+
+    // One block's entries before deflating, and the state its deltas are taken
+    // from. Each entry is split over three columns, which deflate better apart:
+    // codes or flags, operands or position deltas, and text or colour and stroke
+    private static final class Block {
+        final int kind;
+        final Bytes head = new Bytes(), values = new Bytes(), rest = new Bytes();
+        int entries;
+        long first;
+        // Commands: the last operands of each code; movements: the last movement
+        final int[] last = new int[WORDS.length * MAX_OPERANDS];
+        final int[] operands = new int[MAX_OPERANDS];
+        int x, y, argb, width;
+
+        Block(int kind) { this.kind = kind; }
+
+        // The raw block: the lengths of the first two columns, then the columns
+        void join(Bytes raw) {
+            raw.length = 0;
+            raw.putVarint(head.length);
+            raw.putVarint(values.length);
+            raw.put(head);
+            raw.put(values);
+            raw.put(rest);
+        }
+
+        void next() {
+            first += entries;
+            entries = head.length = values.length = rest.length = 0;
+            Arrays.fill(last, 0);
+            x = y = argb = width = 0;
+        }
+
+        void command(String line) {
+            entries++;
+            int space = line.indexOf(' ');
+            Integer code = CODES.get(space < 0 ? line : line.substring(0, space));
+            int count = 0, separators = 0;
+            for (int pos = space + 1; code != null && space >= 0; ) {
+                int end = pos;
+                while (end < line.length() && line.charAt(end) != ' ' && line.charAt(end) != ',') end++;
+                long value = parse(line, pos, end);
+                if (value == Long.MIN_VALUE || count == MAX_OPERANDS) {
+                    code = null;
+                } else {
+                    operands[count++] = (int) value;
+                    if (end == line.length()) break;
+                    if (line.charAt(end) == ',') separators |= 1 << (count - 1);
+                    pos = end + 1;
+                }
+            }
+            if (code == null) {
+                byte[] text = line.getBytes(StandardCharsets.UTF_8);
+                head.put(TEXT);
+                head.putVarint(text.length);
+                rest.put(text, text.length);
+                return;
+            }
+            head.put(code);
+            head.put(count | separators << 3);
+            for (int i = 0; i < count; i++) {
+                int slot = code * MAX_OPERANDS + i;
+                values.putVarint(zigzag(operands[i] - last[slot]));
+                last[slot] = operands[i];
+            }
+        }
+
+        void movement(int x, int y, boolean penDown, int argb, int width) {
+            entries++;
+            int flags = (penDown ? PEN : 0) | (argb != this.argb ? COLOUR : 0) | (width != this.width ? STROKE : 0);
+            head.put(flags);
+            values.putVarint(zigzag(x - this.x));
+            values.putVarint(zigzag(y - this.y));
+            if ((flags & COLOUR) != 0) {
+                for (int shift = 0; shift < 32; shift += 8) rest.put(argb >>> shift);
+            }
+            if ((flags & STROKE) != 0) rest.putVarint(zigzag(width));
+            this.x = x;
+            this.y = y;
+            this.argb = argb;
+            this.width = width;
+        }
+    }
+
+    private static final class Bytes {
+        byte[] data = new byte[1 << 14];
+        int length;
+
+        private void ensure(int n) {
+            if (length + n > data.length) data = Arrays.copyOf(data, Math.max(data.length * 2, length + n));
+        }
+
+        void put(int b) {
+            ensure(1);
+            data[length++] = (byte) b;
+        }
+
+        void put(byte[] bytes, int n) {
+            ensure(n);
+            System.arraycopy(bytes, 0, data, length, n);
+            length += n;
+        }
+
+        void put(Bytes other) { put(other.data, other.length); }
+
+        void putVarint(int v) {
+            ensure(5);
+            while ((v & ~0x7F) != 0) {
+                data[length++] = (byte) (v & 0x7F | 0x80);
+                v >>>= 7;
+            }
+            data[length++] = (byte) v;
+        }
+    }
+
+    // An operand exactly as Integer.toString would write it, or Long.MIN_VALUE,
+    // so that writing the value back gives the same text
+    private static long parse(String s, int from, int to) {
+        boolean negative = from < to && s.charAt(from) == '-';
+        int digits = negative ? from + 1 : from;
+        if (digits == to || to - digits > 10 || (s.charAt(digits) == '0' && (to - digits > 1 || negative))) {
+            return Long.MIN_VALUE;
+        }
+        long value = 0;
+        for (int i = digits; i < to; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') return Long.MIN_VALUE;
+            value = value * 10 + (c - '0');
+        }
+        if (negative) value = -value;
+        return value < Integer.MIN_VALUE || value > Integer.MAX_VALUE ? Long.MIN_VALUE : value;
+    }
+
+    private static int zigzag(int v) { return v << 1 ^ v >> 31; }
+    private static int unzigzag(int v) { return v >>> 1 ^ -(v & 1); }
+
+    private static ByteBuffer buffer(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) ch.write(buf);
+    }
+
+    // === Reading ===
+
+    // Reads the index when opened and each block only when it is asked for,
+    // so replaying from a block reads that block and those after it
+    public static final class Reader implements Closeable {
+        private final FileChannel ch;
+        private final String source;
+        // Per kind: where each block starts in the entries, and its index entry
+        private final List<long[]> commandBlocks = new ArrayList<>(), movementBlocks = new ArrayList<>();
+        private long commandCount, movementCount;
+
+        private Reader(FileChannel ch, String source) {
+            this.ch = ch;
+            this.source = source;
+        }
+
+        public static Reader open(Path file) throws IOException {
+            FileChannel ch = FileChannel.open(file, StandardOpenOption.READ);
+            try {
+                Reader reader = new Reader(ch, file.toString());
+                reader.readIndex();
+                return reader;
+            } catch (IOException | RuntimeException e) {
+                ch.close();
+                throw e;
+            }
+        }
+
+        private void readIndex() throws IOException {
+            long size = ch.size();
+            if (size < HEADER + TRAILER) throw new IOException("Not a command archive: " + source);
+            ByteBuffer header = read(0, HEADER), trailer = read(size - TRAILER, TRAILER);
+            if (header.getInt(0) != MAGIC || trailer.getInt(12) != MAGIC) {
+                throw new IOException("Not a command archive: " + source);
+            }
+            if (header.getInt(4) > VERSION) throw new IOException("Command archive is from a newer version: " + source);
+            long offset = trailer.getLong(0);
+            int blocks = trailer.getInt(8);
+            if (blocks < 0 || offset < HEADER || offset + (long) blocks * ENTRY != size - TRAILER) {
+                throw new IOException("Truncated command archive: " + source);
+            }
+            ByteBuffer index = read(offset, blocks * ENTRY);
+            for (int i = 0; i < blocks; i++) {
+                int kind = index.getInt(), entries = index.getInt();
+                long first = index.getLong(), at = index.getLong();
+                int length = index.getInt(), raw = index.getInt(), crc = index.getInt();
+                long[] block = {first, entries, at, length, raw, crc & 0xFFFFFFFFL};
+                if (kind == COMMANDS) {
+                    commandBlocks.add(block);
+                    commandCount = first + entries;
+                } else if (kind == MOVEMENTS) {
+                    movementBlocks.add(block);
+                    movementCount = first + entries;
+                }
+            }
+        }
+
+        public long getCommandCount() { return commandCount; }
+        public long getMovementCount() { return movementCount; }
+        public int getBlockCount() { return commandBlocks.size() + movementBlocks.size(); }
+
+        // The commands from the given one on, a block at a time. Read errors
+        // surface as UncheckedIOException
+        public Iterator<String> commands(long from) {
+            return new Iterator<>() {
+                private int block = find(commandBlocks, from);
+                private long next = from;
+                private Cursor cursor;
+
+                @Override
+                public boolean hasNext() { return next < commandCount; }
+
+                @Override
+                public String next() {
+                    if (!hasNext()) throw new NoSuchElementException();
+                    try {
+                        if (cursor == null || cursor.left == 0) {
+                            long[] info = commandBlocks.get(block++);
+                            cursor = new Cursor(inflate(info), (int) info[1]);
+                            for (long skip = next - info[0]; skip > 0; skip--) cursor.command();
+                        }
+                        next++;
+                        return cursor.command();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            };
+        }
+
+        public List<String> readCommands() throws IOException {
+            List<String> lines = new ArrayList<>((int) Math.min(commandCount, Integer.MAX_VALUE - 8));
+            try {
+                commands(0).forEachRemaining(lines::add);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            return lines;
+        }
+
+        // The movements from the given one on, as a recording ready to play
+        public MovementBuffer readMovements(long from) throws IOException {
+            long count = Math.max(0, movementCount - from);
+            if (count > Integer.MAX_VALUE / MovementBuffer.RECORD) throw new IOException("Recording too long: " + source);
+            MovementBuffer recording = new MovementBuffer((int) Math.max(1, count), false);
+            for (int i = find(movementBlocks, from); i < movementBlocks.size(); i++) {
+                long[] info = movementBlocks.get(i);
+                Cursor cursor = new Cursor(inflate(info), (int) info[1]);
+                for (long n = info[0]; cursor.left > 0; n++) {
+                    cursor.movement();
+                    if (n >= from) recording.add(cursor.x, cursor.y, cursor.penDown, cursor.argb, cursor.width);
+                }
+            }
+            return recording;
+        }
+
+        // The block holding the given entry
+        private static int find(List<long[]> blocks, long entry) {
+            int lo = 0, hi = blocks.size() - 1;
+            while (lo < hi) {
+                int mid = (lo + hi + 1) >>> 1;
+                if (blocks.get(mid)[0] <= entry) lo = mid;
+                else hi = mid - 1;
+            }
+            return Math.max(0, lo);
+        }
+
+        private byte[] inflate(long[] info) throws IOException {
+            ByteBuffer packed = read(info[2], (int) info[3]);
+            byte[] raw = new byte[(int) info[4]];
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(packed);
+                int n = 0;
+                while (n < raw.length && !inflater.finished()) {
+                    int got = inflater.inflate(raw, n, raw.length - n);
+                    if (got == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                    n += got;
+                }
+                CRC32 crc = new CRC32();
+                crc.update(raw, 0, n);
+                if (n != raw.length || crc.getValue() != info[5]) throw new IOException("Corrupt command archive: " + source);
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt command archive: " + source, e);
+            } finally {
+                inflater.end();
+            }
+            return raw;
+        }
+
+        private ByteBuffer read(long position, int length) throws IOException {
+            ByteBuffer buf = buffer(length);
+            while (buf.hasRemaining()) {
+                if (ch.read(buf, position + buf.position()) < 0) throw new IOException("Truncated command archive: " + source);
+            }
+            return buf.flip();
+        }
+
+        @Override
+        public void close() throws IOException {
+            ch.close();
+        }
+    }
+
+    // Decodes one block's entries in order, mirroring Block's state
+    private static final class Cursor {
+        private final byte[] data;
+        // Read positions in the three columns
+        private int head, values, rest;
+        private int left;
+        private final int[] last = new int[WORDS.length * MAX_OPERANDS];
+        private final StringBuilder line = new StringBuilder();
+        int x, y, argb, width;
+        boolean penDown;
+
+        Cursor(byte[] data, int entries) throws IOException {
+            this.data = data;
+            this.left = entries;
+            int heads = varint(0), valueBytes = varint(0);
+            values = head + heads;
+            rest = values + valueBytes;
+            if (heads < 0 || valueBytes < 0 || rest > data.length || rest < head) {
+                throw new IOException("Command archive block ends early");
+            }
+        }
+
+        String command() throws IOException {
+            left--;
+            int code = get();
+            if (code == TEXT) {
+                int n = varint(0);
+                if (n < 0 || rest + n > data.length) throw new IOException("Command archive block ends early");
+                String text = new String(data, rest, n, StandardCharsets.UTF_8);
+                rest += n;
+                return text;
+            }
+            if (code >= WORDS.length || WORDS[code] == null) throw new IOException("Unknown command code " + code);
+            int shape = get(), count = shape & 7;
+            if (count > MAX_OPERANDS) throw new IOException("Too many operands: " + count);
+            line.setLength(0);
+            line.append(WORDS[code]);
+            for (int i = 0; i < count; i++) {
+                int slot = code * MAX_OPERANDS + i;
+                last[slot] += unzigzag(varint(1));
+                line.append(i > 0 && (shape >> 3 + i - 1 & 1) != 0 ? ',' : ' ').append(last[slot]);
+            }
+            return line.toString();
+        }
+
+        void movement() throws IOException {
+            left--;
+            int flags = get();
+            penDown = (flags & PEN) != 0;
+            x += unzigzag(varint(1));
+            y += unzigzag(varint(1));
+            if ((flags & COLOUR) != 0) {
+                if (rest + 4 > data.length) throw new IOException("Command archive block ends early");
+                argb = data[rest] & 0xFF | (data[rest + 1] & 0xFF) << 8 | (data[rest + 2] & 0xFF) << 16 | data[rest + 3] << 24;
+                rest += 4;
+            }
+            if ((flags & STROKE) != 0) width = unzigzag(varint(2));
+        }
+
+        private int get() throws IOException {
+            if (head >= values) throw new IOException("Command archive block ends early");
+            return data[head++] & 0xFF;
+        }
+
+        // A varint from the given column
+        private int varint(int column) throws IOException {
+            int v = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int at = column == 0 ? head++ : column == 1 ? values++ : rest++;
+                if (at >= data.length) throw new IOException("Command archive block ends early");
+                int b = data[at] & 0xFF;
+                v |= (b & 0x7F) << shift;
+                if (b < 0x80) return v;
+            }
+            throw new IOException("Malformed varint in command archive");
+        }
+    }
+}
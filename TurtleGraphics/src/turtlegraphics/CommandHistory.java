@@ -0,0 +1,251 @@
+package turtlegraphics;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+// Raw commands packed as UTF-8 in one growing byte array; older bytes can be
+// spilled to an append-only log once the in-memory tail passes a limit
+public class CommandHistory {
+    private byte[] data = new byte[4096];
+    private int dataLength;
+    private long[] offsets = new long[256];
+    private int size;
+
+    private FileChannel log;
+    private long spilled;
+    private int memoryLimit = Integer.MAX_VALUE;
+
+    // Each is told the first index whose command changed, so rows rewritten in
+    // place (an undo followed by a new command) are reported as well as size changes
+    private final ArrayList<IntConsumer> listeners = new ArrayList<>();
+
+    // === Writing ===
+
+    public void add(String command) {
+        append(command);
+        if (log != null && dataLength > memoryLimit) spill();
+        changed(size - 1);
+    }
+
+    private void append(String command) {
+        byte[] bytes = command.getBytes(StandardCharsets.UTF_8);
+        if (size == offsets.length) offsets = Arrays.copyOf(offsets, size * 2);
+        offsets[size++] = spilled + dataLength;
+
+        if (dataLength + bytes.length > data.length) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, dataLength + bytes.length));
+        }
+        System.arraycopy(bytes, 0, data, dataLength, bytes.length);
+        dataLength += bytes.length;
+    }
+
+    public void addAll(List<String> commands) {
+        for (String c : commands) add(c);
+    }
+
+    public void clear() {
+        size = 0;
+        dataLength = 0;
+        spilled = 0;
+        if (log != null) {
+            try {
+                log.truncate(0);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        changed(0);
+    }
+
+    // Drops every command from newSize on, e.g. the redo tail after an undo
+    public void truncate(int newSize) {
+        if (newSize < 0) throw new IndexOutOfBoundsException(newSize);
+        if (newSize >= size) return;
+        cut(newSize);
+        changed(newSize);
+    }
+
+    private void cut(int newSize) {
+        long end = offsets[newSize];
+        if (end >= spilled) {
+            dataLength = (int) (end - spilled);
+        } else {
+            try {
+                log.truncate(end);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            spilled = end;
+            dataLength = 0;
+        }
+        size = newSize;
+    }
+
+    // Puts commands in place of those from..to, keeping the ones after. The
+    // kept commands are moved as bytes when they are all still in memory;
+    // listeners hear about it once
+    public void splice(int from, int to, List<String> commands) {
+        if (from < 0 || from > to || to > size) throw new IndexOutOfBoundsException(from);
+        long cut = from < size ? offsets[from] : spilled + dataLength;
+        if (cut < spilled) {
+            List<String> kept = new ArrayList<>(asList().subList(to, size));
+            cut(from);
+            for (String c : commands) append(c);
+            for (String c : kept) append(c);
+        } else {
+            byte[][] encoded = new byte[commands.size()][];
+            int added = 0;
+            for (int i = 0; i < encoded.length; i++) {
+                encoded[i] = commands.get(i).getBytes(StandardCharsets.UTF_8);
+                added += encoded[i].length;
+            }
+            long resume = to < size ? offsets[to] : spilled + dataLength;
+            int at = (int) (cut - spilled), tail = (int) (spilled + dataLength - resume);
+            if (at + added + tail > data.length) data = Arrays.copyOf(data, Math.max(data.length * 2, at + added + tail));
+            System.arraycopy(data, (int) (resume - spilled), data, at + added, tail);
+            int newSize = size - (to - from) + encoded.length;
+            if (newSize > offsets.length) offsets = Arrays.copyOf(offsets, Math.max(offsets.length * 2, newSize));
+            // The kept offsets move by how much the replaced commands grew or shrank
+            System.arraycopy(offsets, to, offsets, from + encoded.length, size - to);
+            long shift = cut + added - resume;
+            for (int i = from + encoded.length; i < newSize; i++) offsets[i] += shift;
+            for (int i = 0; i < encoded.length; i++) {
+                offsets[from + i] = spilled + at;
+                System.arraycopy(encoded[i], 0, data, at, encoded[i].length);
+                at += encoded[i].length;
+            }
+            size = newSize;
+            dataLength = at + tail;
+        }
+        if (log != null && dataLength > memoryLimit) spill();
+        changed(from);
+    }
+
+    // === Spilling ===
+
+    public void enableSpill(Path logFile, int memoryLimit) throws IOException {
+        if (log != null) log.close();
+        log = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.memoryLimit = memoryLimit;
+        spill();
+    }
+
+    private void spill() {
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(data, 0, dataLength);
+            long pos = spilled;
+            while (buf.hasRemaining()) pos += log.write(buf, pos);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        spilled += dataLength;
+        dataLength = 0;
+    }
+
+    public void close() throws IOException {
+        if (log != null) log.close();
+    }
+
+    // === Reading ===
+
+    public int size() { return size; }
+    public long byteSize() { return spilled + dataLength; }
+    public long spilledBytes() { return spilled; }
+
+    public String get(int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException(index);
+        long start = offsets[index];
+        long end = index + 1 < size ? offsets[index + 1] : spilled + dataLength;
+        int length = (int) (end - start);
+
+        if (start >= spilled) {
+            return new String(data, (int) (start - spilled), length, StandardCharsets.UTF_8);
+        }
+        byte[] bytes = new byte[length];
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        try {
+            while (buf.hasRemaining()) {
+                if (log.read(buf, start + buf.position()) < 0) throw new IOException("History log truncated");
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public List<String> asList() {
+        return new AbstractList<>() {
+            public String get(int index) { return CommandHistory.this.get(index); }
+            public int size() { return size; }
+        };
+    }
+
+    // === Bulk transfer: the count, each command's byte length, then the bytes ===
+
+    public void write(WritableByteChannel ch) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(4 + 4 * size).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(size);
+        for (int i = 0; i < size; i++) {
+            long end = i + 1 < size ? offsets[i + 1] : spilled + dataLength;
+            header.putInt((int) (end - offsets[i]));
+        }
+        header.flip();
+        while (header.hasRemaining()) ch.write(header);
+        // The spilled part goes from the log to the channel without passing through the heap
+        for (long pos = 0; pos < spilled; ) pos += log.transferTo(pos, spilled - pos, ch);
+        ByteBuffer tail = ByteBuffer.wrap(data, 0, dataLength);
+        while (tail.hasRemaining()) ch.write(tail);
+    }
+
+    // Appends commands laid out by write(); the bytes are copied in one piece,
+    // not decoded, and listeners hear about it once
+    public void read(ByteBuffer in) {
+        ByteBuffer buf = in.slice().order(ByteOrder.LITTLE_ENDIAN);
+        int count = buf.getInt();
+        if (count < 0 || count > buf.remaining() / 4) throw new IllegalArgumentException("Bad command count " + count);
+        if (size + count > offsets.length) offsets = Arrays.copyOf(offsets, Math.max(offsets.length * 2, size + count));
+        long end = spilled + dataLength;
+        for (int i = 0; i < count; i++) {
+            int length = buf.getInt();
+            if (length < 0) throw new IllegalArgumentException("Bad command length " + length);
+            offsets[size + i] = end;
+            end += length;
+        }
+        long bytes = end - spilled - dataLength;
+        if (bytes > buf.remaining() || dataLength + bytes > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Commands are truncated");
+        }
+        if (dataLength + bytes > data.length) {
+            data = Arrays.copyOf(data, (int) Math.max(Math.min(data.length * 2L, Integer.MAX_VALUE - 8), dataLength + bytes));
+        }
+        buf.get(data, dataLength, (int) bytes);
+        dataLength += (int) bytes;
+        int first = size;
+        size += count;
+
+        if (log != null && dataLength > memoryLimit) spill();
+        changed(first);
+    }
+
+    // === Change notification ===
+
+    public void addListener(IntConsumer listener) { listeners.add(listener); }
+    public void removeListener(IntConsumer listener) { listeners.remove(listener); }
+
+    private void changed(int from) {
+        for (IntConsumer l : listeners) l.accept(from);
+    }
+}
@@ -0,0 +1,243 @@
+package turtlegraphics;
+
+import javax.swing.*;
+import java.awt.BorderLayout;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+// Streams and compiles a command file on a worker thread, handing each chunk to
+// the EDT as one drawing batch while a modal dialog shows progress. A command
+// archive is read the same way, a block at a time, and its recording replaces
+// the current one once the commands have run.
+//
+// Loading the same file again is a reload: the file is compared with the
+// commands run since it was loaded, and only what follows the first change is
+// run again, from the timeline's checkpoints. An edit that leaves the turtle
+// as it found it is spliced in without running anything after it.
+public class CommandLoader extends SwingWorker<Integer, Void> {
+    private static final int CHUNK_LINES = 4096;
+
+    private final TurtleGraphics graphics;
+    private final File file;
+    private final long fileSize;
+    private final boolean archive;
+    private final JDialog dialog;
+    private final JProgressBar progressBar = new JProgressBar(0, 100);
+    private final JLabel status = new JLabel("Starting...");
+    // Shared with the command line, so procedures loaded from the file stay callable
+    private final ScriptContext context;
+    private long startNanos;
+    private Metrics.FileEvent event;
+    private int linesRead, linesDone;
+    // Progress, in characters of a text file or lines of an archive, out of total
+    private long read, total;
+    private MovementBuffer recording;
+    private ArrayList<String> chunk = new ArrayList<>(CHUNK_LINES);
+    private int depth;
+
+    // On a reload, the commands run since the file was loaded, from the floor on
+    private List<String> previous;
+    private int floor;
+    private ScriptDiff diff;
+    private boolean spliced;
+
+    private CommandLoader(TurtleGraphics graphics, File file) {
+        this.graphics = graphics;
+        this.file = file;
+        this.fileSize = Math.max(1, file.length());
+        this.archive = file.getName().toLowerCase().endsWith("." + CommandArchive.EXTENSION);
+        this.total = fileSize;
+        this.context = graphics.getCommandParser().getContext();
+
+        dialog = new JDialog(SwingUtilities.getWindowAncestor(graphics),
+                "Loading " + file.getName(), JDialog.ModalityType.APPLICATION_MODAL);
+        dialog.setDefaultCloseOperation(WindowConstants.DO_NOTHING_ON_CLOSE);
+        JButton cancel = new JButton("Cancel");
+        cancel.addActionListener(e -> cancel(false));
+        progressBar.setStringPainted(true);
+
+        JPanel panel = new JPanel(new BorderLayout(5, 5));
+        panel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+        panel.add(progressBar, BorderLayout.NORTH);
+        panel.add(status, BorderLayout.CENTER);
+        panel.add(cancel, BorderLayout.SOUTH);
+        dialog.add(panel);
+        dialog.pack();
+        dialog.setLocationRelativeTo(graphics);
+
+        addPropertyChangeListener(e -> {
+            if ("progress".equals(e.getPropertyName())) progressBar.setValue((Integer) e.getNewValue());
+        });
+    }
+
+    // Must be called on the EDT; returns once the load has finished or been cancelled
+    public static void load(TurtleGraphics graphics, File file) {
+        CommandLoader loader = new CommandLoader(graphics, file);
+        Timeline timeline = graphics.getTimeline();
+        Path path = file.toPath().toAbsolutePath().normalize();
+        if (path.equals(timeline.getSource())) {
+            // Read on the worker; the dialog keeps anything else from touching the history meanwhile
+            timeline.beforeCommand();
+            CommandHistory history = graphics.getCommandHistory();
+            loader.floor = timeline.getFloor();
+            loader.previous = history.asList().subList(loader.floor, history.size());
+        } else {
+            graphics.reset();
+            // Undo stops at the start of the file; the reset cannot be replayed
+            timeline.rebase();
+            timeline.setSource(path);
+        }
+        loader.startNanos = System.nanoTime();
+        loader.event = Metrics.file();
+        loader.execute();
+        loader.dialog.setVisible(true);
+    }
+
+    // === Worker thread ===
+
+    @Override
+    protected Integer doInBackground() throws IOException, InterruptedException {
+        if (previous != null) return reload();
+        if (archive) {
+            try (CommandArchive.Reader reader = CommandArchive.Reader.open(file.toPath())) {
+                total = Math.max(1, reader.getCommandCount());
+                Iterator<String> lines = reader.commands(0);
+                while (!isCancelled() && lines.hasNext()) feed(lines.next());
+                if (!chunk.isEmpty() && !isCancelled()) hand(chunk);
+                if (!isCancelled()) recording = reader.readMovements(0);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            return linesDone;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath())) {
+            String line;
+            while (!isCancelled() && (line = reader.readLine()) != null) feed(line);
+            if (!chunk.isEmpty() && !isCancelled()) hand(chunk);
+        }
+        return linesDone;
+    }
+
+    private List<String> readAll() throws IOException {
+        if (!archive) return Files.readAllLines(file.toPath());
+        try (CommandArchive.Reader reader = CommandArchive.Reader.open(file.toPath())) {
+            total = Math.max(1, reader.getCommandCount());
+            recording = reader.readMovements(0);
+            return reader.readCommands();
+        }
+    }
+
+    // The whole file is needed to find where the change ends; the lines
+    // before it are only compared, never run
+    private int reload() throws IOException, InterruptedException {
+        List<String> lines = readAll();
+        diff = ScriptDiff.of(previous, lines);
+        if (diff.isEmpty()) return 0;
+        Timeline timeline = graphics.getTimeline();
+        if (diff.oldEnd < previous.size() && Timeline.isLocal(previous.subList(diff.start, diff.oldEnd),
+                lines.subList(diff.start, diff.newEnd), lines)) {
+            onEdt(() -> spliced = timeline.splice(floor + diff.start, floor + diff.oldEnd,
+                    lines.subList(diff.start, diff.newEnd)));
+        } else {
+            onEdt(() -> timeline.rewind(floor + diff.start));
+        }
+        // Whatever the splice could not keep is run as usual from where it stopped
+        int resume = timeline.getPosition() - floor;
+        linesDone = spliced ? diff.getAdded() : resume - diff.start;
+        if (spliced) return linesDone;
+
+        linesRead = resume;
+        for (int i = 0; i < resume && i < lines.size(); i++) read += archive ? 1 : lines.get(i).length() + 1;
+        for (int i = resume; i < lines.size() && !isCancelled(); i++) feed(lines.get(i));
+        if (!chunk.isEmpty() && !isCancelled()) hand(chunk);
+        return linesDone;
+    }
+
+    // A chunk never ends inside a repeat or procedure
+    private void feed(String line) throws InterruptedException {
+        read += archive ? 1 : line.length() + 1;
+        chunk.add(line);
+        depth = Math.max(0, depth + ScriptCompiler.nesting(line));
+        if (chunk.size() >= CHUNK_LINES && depth == 0) {
+            hand(chunk);
+            chunk = new ArrayList<>(CHUNK_LINES);
+        }
+    }
+
+    private void hand(ArrayList<String> chunk) throws InterruptedException {
+        CompiledScript program = ScriptCompiler.compile(String.join("\n", chunk), linesRead + 1, context);
+        linesRead += chunk.size();
+        // Waiting for the EDT keeps at most one chunk in flight
+        onEdt(() -> apply(chunk, program));
+        setProgress((int) Math.min(100, read * 100 / total));
+    }
+
+    private static void onEdt(Runnable task) throws InterruptedException {
+        try {
+            SwingUtilities.invokeAndWait(task);
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    // === EDT ===
+
+    private void apply(ArrayList<String> chunk, CompiledScript program) {
+        if (isCancelled()) return;
+        graphics.beginBatch();
+        try {
+            ScriptExecutor.execute(program, graphics, context);
+        } finally {
+            graphics.endBatch();
+        }
+        graphics.getCommandHistory().addAll(chunk);
+        graphics.getTimeline().afterCommands();
+        graphics.setSavedState(false);
+        linesDone += chunk.size();
+        status.setText(String.format("%,d lines (%,.0f lines/s)", linesDone, linesPerSecond()));
+    }
+
+    private double linesPerSecond() {
+        double seconds = (System.nanoTime() - startNanos) / 1_000_000_000.0;
+        return seconds > 0 ? linesDone / seconds : 0;
+    }
+
+    @Override
+    protected void done() {
+        dialog.dispose();
+        if (isCancelled()) {
+            graphics.displayMessage("Load cancelled after " + linesDone + " lines");
+            return;
+        }
+        try {
+            get();
+            Metrics.fileDone(event, "loadCommands", file.getPath(), fileSize, false);
+            if (recording != null && recording.size() > 0) graphics.setRecordingBuffer(recording);
+            if (diff == null) {
+                graphics.displayMessage(String.format("Commands loaded successfully (%,d lines, %,.0f lines/s%s)",
+                        linesDone, linesPerSecond(), recording != null && recording.size() > 0
+                                ? String.format(", %,d movements", recording.size()) : ""));
+            } else if (diff.isEmpty()) {
+                graphics.displayMessage("Commands reloaded: no changes");
+            } else {
+                graphics.setSavedState(false);
+                graphics.displayMessage(String.format("Commands reloaded: %s, %,d lines run%s", diff, linesDone,
+                        spliced ? ", the rest kept as drawn" : ""));
+            }
+        } catch (ExecutionException e) {
+            Metrics.fileDone(event, "loadCommands", file.getPath(), -1, false);
+            FileHandler.showError(graphics, "Error loading commands: " + e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -1,11 +1,34 @@
 package turtlegraphics;
 
 import java.awt.Color;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Set;
 
 public class CommandParser {
-    private TurtleGraphics turtleGraphics;
+    private static final Set<String> KEYWORDS = Set.of("repeat", "if", "make", "to", "end", "stop");
+    private static final Set<String> PATH_COMMANDS = Set.of(
+            "saverecording", "loadrecording", "addobstacles", "export", "exportscaled",
+            "savesession", "loadsession");
 
-    public CommandParser(TurtleGraphics turtleGraphics) {
+    // Metric names are per command; anything else is counted as unknown
+    private static final Set<String> KNOWN = Set.of(
+            "about", "penup", "pendown", "reset", "clear", "save", "load", "exit",
+            "left", "right", "move", "reverse", "black", "red", "green", "white", "pencolour",
+            "square", "triangle", "circle", "rectangle", "record", "stoprecord", "play",
+            "saverecording", "loadrecording", "speed", "pause", "resume", "stopplay", "seek",
+            "instant", "paced", "addobstacle", "addobstacles", "collision", "nocollision",
+            "rohan", "export", "exportscaled", "savesession", "loadsession", "linecollision",
+            "nolinecollision", "collisionpolicy");
+
+    private Turtle turtleGraphics;
+    private final ScriptContext context = new ScriptContext();
+    // Lines of a block still waiting for its closing ] or end
+    private final StringBuilder pending = new StringBuilder();
+    private int pendingDepth;
+
+    public CommandParser(Turtle turtleGraphics) {
         this.turtleGraphics = turtleGraphics;
     }
 
@@ -14,6 +37,18 @@ public class CommandParser {
         if (parts.length == 0 || parts[0].isEmpty()) return false;
 
         String cmd = parts[0].toLowerCase();
+        boolean structured = pendingDepth > 0 || isStructured(cmd, parts);
+        Metrics.CommandEvent event = Metrics.command();
+        boolean ok = false;
+        try {
+            ok = structured ? parseStructured(command) : execute(command, cmd, parts);
+            return ok;
+        } finally {
+            Metrics.commandDone(event, structured ? "structured" : KNOWN.contains(cmd) ? cmd : "unknown", ok);
+        }
+    }
+
+    private boolean execute(String command, String cmd, String[] parts) {
         try {
             switch (cmd) {
                 // Basic commands
@@ -22,9 +57,11 @@ public class CommandParser {
                 case "pendown": turtleGraphics.setPenState(true); return true;
                 case "reset": turtleGraphics.reset(); return true;
                 case "clear": turtleGraphics.clear(); return true;
-                case "save": FileHandler.saveCurrentState(turtleGraphics); return true;
-                case "load": FileHandler.loadState(turtleGraphics); return true;
+                case "save": turtleGraphics.saveCurrentState(); return true;
+                case "load": turtleGraphics.loadState(); return true;
                 case "exit": turtleGraphics.exitApplication(); return true;
+                case "savesession": turtleGraphics.saveSession(pathArgument(command, cmd)); return true;
+                case "loadsession": turtleGraphics.loadSession(pathArgument(command, cmd)); return true;
 
                 // Movement
                 case "left": return parseRotation(parts, false);
@@ -49,16 +86,34 @@ public class CommandParser {
                 case "record": turtleGraphics.startRecording(); return true;
                 case "stoprecord": turtleGraphics.stopRecording(); return true;
                 case "play": turtleGraphics.playRecording(); return true;
+                case "saverecording": turtleGraphics.saveRecording(pathArgument(command, cmd)); return true;
+                case "loadrecording": turtleGraphics.loadRecording(pathArgument(command, cmd)); return true;
                 case "speed": return parseSpeed(parts);
+                case "pause": turtleGraphics.pausePlayback(); return true;
+                case "resume": turtleGraphics.resumePlayback(); return true;
+                case "stopplay": turtleGraphics.stopPlayback(); return true;
+                case "seek": return parseSeek(parts);
+                case "instant": turtleGraphics.setInstantPlayback(true); return true;
+                case "paced": turtleGraphics.setInstantPlayback(false); return true;
 
                 // Collision
                 case "addobstacle": return parseObstacle(parts);
+                case "addobstacles": return parseObstacleFile(command);
                 case "collision": turtleGraphics.enableCollisionDetection(true); return true;
                 case "nocollision": turtleGraphics.enableCollisionDetection(false); return true;
+                case "linecollision": turtleGraphics.enableLineCollision(true); return true;
+                case "nolinecollision": turtleGraphics.enableLineCollision(false); return true;
+                // A policy name is a word, so is compiled; only a missing or numeric one gets here
+                case "collisionpolicy":
+                    return error(parts.length < 2 ? "Missing collision policy" : "Expected stop, clip or report");
 
                 // Custom
                 case "rohan": turtleGraphics.drawRohan(); return true;
 
+                // Export
+                case "export": turtleGraphics.exportDrawing(pathArgument(command, cmd), 1); return true;
+                case "exportscaled": return parseExportScaled(parts, command);
+
                 default:
                     turtleGraphics.displayMessage("Unknown command: " + cmd);
                     return false;
@@ -69,6 +124,42 @@ public class CommandParser {
         }
     }
 
+    // === Structured commands ===
+
+    // Loops, procedures and anything with an expression go through the compiler
+    private boolean isStructured(String cmd, String[] parts) {
+        if (KEYWORDS.contains(cmd) || context.isProcedure(cmd) || cmd.indexOf('[') >= 0) return true;
+        if (PATH_COMMANDS.contains(cmd)) return false;
+        for (int i = 1; i < parts.length; i++) {
+            for (int j = 0; j < parts[i].length(); j++) {
+                char c = parts[i].charAt(j);
+                if ((c < '0' || c > '9') && c != ',') return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean parseStructured(String command) {
+        pending.append(command).append('\n');
+        pendingDepth += ScriptCompiler.nesting(command);
+        if (pendingDepth > 0) return true;
+
+        String script = pending.toString();
+        discardPending();
+        CompiledScript program = ScriptCompiler.compile(script, 1, context);
+        return ScriptExecutor.execute(program, turtleGraphics, context) == 0;
+    }
+
+    // True while the lines of an open block are being collected
+    public boolean isPending() { return pendingDepth > 0; }
+
+    public void discardPending() {
+        pending.setLength(0);
+        pendingDepth = 0;
+    }
+
+    public ScriptContext getContext() { return context; }
+
     private boolean parseRotation(String[] parts, boolean right) {
         if (parts.length < 2) return error("Missing degrees parameter");
         int degrees = validatePositive(parts[1]);
@@ -138,6 +229,14 @@ public class CommandParser {
         return true;
     }
 
+    private boolean parseSeek(String[] parts) {
+        if (parts.length < 2) return error("Missing movement index");
+        int index = validatePositive(parts[1]);
+        if (index < 0 && !parts[1].equals("0")) return false;
+        turtleGraphics.seekPlayback(Math.max(index, 0));
+        return true;
+    }
+
     private boolean parseObstacle(String[] parts) {
         if (parts.length < 3) return error("Missing x and y");
         int x = validatePositive(parts[1]);
@@ -147,6 +246,27 @@ public class CommandParser {
         return true;
     }
 
+    private boolean parseObstacleFile(String command) throws IOException {
+        turtleGraphics.loadObstacles(pathArgument(command, "addobstacles"));
+        return true;
+    }
+
+    private boolean parseExportScaled(String[] parts, String command) throws IOException {
+        if (parts.length < 3) return error("Missing scale and file name");
+        int scale = validatePositive(parts[1]);
+        if (scale < 0) return false;
+        String rest = command.trim().substring(parts[0].length()).trim();
+        turtleGraphics.exportDrawing(Paths.get(rest.substring(parts[1].length()).trim()), scale);
+        return true;
+    }
+
+    // Everything after the command word, so file names may contain spaces
+    private Path pathArgument(String command, String cmd) {
+        String path = command.trim().substring(cmd.length()).trim();
+        if (path.isEmpty()) throw new IllegalArgumentException("Missing file name");
+        return Paths.get(path);
+    }
+
     private int validatePositive(String s) {
         try {
             int v = Integer.parseInt(s);
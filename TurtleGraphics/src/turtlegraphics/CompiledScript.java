@@ -0,0 +1,154 @@
+package turtlegraphics;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+public class CompiledScript {
+    // === Opcodes ===
+    public static final int ABOUT = 0, PENUP = 1, PENDOWN = 2, RESET = 3, CLEAR = 4,
+            SAVE = 5, LOAD = 6, EXIT = 7, LEFT = 8, RIGHT = 9, MOVE = 10, COLOUR = 11,
+            SQUARE = 12, TRIANGLE = 13, CIRCLE = 14, RECTANGLE = 15, RECORD = 16,
+            STOPRECORD = 17, PLAY = 18, SPEED = 19, OBSTACLE = 20, COLLISION = 21,
+            NOCOLLISION = 22, ROHAN = 23, OBSTACLES = 24, SAVERECORDING = 25,
+            LOADRECORDING = 26, PAUSE = 27, RESUME = 28, STOPPLAY = 29, SEEK = 30, INSTANT = 31,
+            PACED = 32, EXPORT = 33, ERROR = 34;
+
+    // Structured code: an int stack for expressions, locals per procedure frame
+    // (parameters, then repeat counters) and globals in the ScriptContext.
+    // Command name lookup skips ERROR..REVERSE, so none of these collide.
+    public static final int PUSH = 35, GET = 36, SET = 37, GETLOCAL = 38, SETLOCAL = 39,
+            ARITH = 40, APPLY = 41, REPEAT = 42, LOOP = 43, JUMP = 44, JUMPZERO = 45,
+            DEFINE = 46, CALL = 47, RETURN = 48, TRACE = 49, REVERSE = 50;
+
+    // Commands added after the structured instructions
+    public static final int SAVESESSION = 51, LOADSESSION = 52, LINECOLLISION = 53, NOLINECOLLISION = 54,
+            POLICY = 55;
+
+    // ARITH operands
+    static final int ADD = 0, SUB = 1, MUL = 2, DIV = 3, MOD = 4, NEG = 5,
+            LT = 6, GT = 7, EQ = 8, LE = 9, GE = 10, NE = 11;
+
+    static final String[] NAMES = {
+            "about", "penup", "pendown", "reset", "clear", "save", "load", "exit",
+            "left", "right", "move", "pencolour", "square", "triangle", "circle", "rectangle",
+            "record", "stoprecord", "play", "speed", "addobstacle", "collision",
+            "nocollision", "rohan", "addobstacles", "saverecording", "loadrecording",
+            "pause", "resume", "stopplay", "seek", "instant", "paced", "export", "error",
+            "push", "get", "set", "getlocal", "setlocal", "arith", "apply", "repeat", "loop",
+            "jump", "jumpzero", "define", "call", "return", "trace", "reverse",
+            "savesession", "loadsession", "linecollision", "nolinecollision", "collisionpolicy"
+    };
+
+    static final int[] OPERANDS = {
+            0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 1, 1, 1, 2, 0, 0, 0, 1, 2, 0, 0, 0, 1, 1, 1,
+            0, 0, 0, 1, 0, 0, 2, 1,
+            1, 1, 1, 1, 1, 1, 2, 2, 2, 1, 1, 4, 2, 0, 3, 0,
+            1, 1, 0, 0, 1
+    };
+
+    private static final int MAGIC = 0x54474339; // "TGC9"
+
+    final int[] code;
+    final int length;
+    // String operands (error messages, file names) referenced by index from the code
+    final String[] strings;
+    // Folded movement paths referenced by TRACE, as (turn, distance) pairs
+    final int[] data;
+    final int errorCount;
+    final int lines;
+    // Repeat counters needed by the top level
+    final int mainLocals;
+    // Where each top-level statement starts; nothing jumps across these, so
+    // the code can be run, or skipped, a statement at a time
+    final int[] statements;
+
+    CompiledScript(int[] code, int length, String[] strings, int[] data, int errorCount, int lines, int mainLocals,
+                   int[] statements) {
+        this.code = code;
+        this.length = length;
+        this.strings = strings;
+        this.data = data;
+        this.errorCount = errorCount;
+        this.lines = lines;
+        this.mainLocals = mainLocals;
+        this.statements = statements;
+    }
+
+    public int getLineCount() { return lines; }
+    public int getErrorCount() { return errorCount; }
+    public int getCodeLength() { return length; }
+
+    public int getInstructionCount() {
+        int count = 0;
+        for (int pc = 0; pc < length; pc += 1 + OPERANDS[code[pc]]) count++;
+        return count;
+    }
+
+    public static String nameOf(int opcode) { return NAMES[opcode]; }
+
+    // === Cache file ===
+
+    public static Path cachePathFor(Path script) {
+        String name = script.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return script.resolveSibling((dot > 0 ? name.substring(0, dot) : name) + ".tgc");
+    }
+
+    public void write(Path file, long sourceSize, long sourceModified) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeLong(sourceSize);
+            out.writeLong(sourceModified);
+            out.writeInt(lines);
+            out.writeInt(errorCount);
+            out.writeInt(mainLocals);
+            out.writeInt(length);
+            for (int i = 0; i < length; i++) out.writeInt(code[i]);
+            out.writeInt(strings.length);
+            for (String str : strings) out.writeUTF(str);
+            out.writeInt(data.length);
+            for (int v : data) out.writeInt(v);
+            out.writeInt(statements.length);
+            for (int s : statements) out.writeInt(s);
+        }
+    }
+
+    static CompiledScript read(Path file, long sourceSize, long sourceModified) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) return null;
+            if (in.readLong() != sourceSize || in.readLong() != sourceModified) return null;
+            int lines = in.readInt();
+            int errorCount = in.readInt();
+            int mainLocals = in.readInt();
+            int length = in.readInt();
+            int[] code = new int[length];
+            for (int i = 0; i < length; i++) code[i] = in.readInt();
+            String[] strings = new String[in.readInt()];
+            for (int i = 0; i < strings.length; i++) strings[i] = in.readUTF();
+            int[] data = new int[in.readInt()];
+            for (int i = 0; i < data.length; i++) data[i] = in.readInt();
+            int[] statements = new int[in.readInt()];
+            for (int i = 0; i < statements.length; i++) statements[i] = in.readInt();
+            return new CompiledScript(code, length, strings, data, errorCount, lines, mainLocals, statements);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int pc = 0; pc < length; pc += 1 + OPERANDS[code[pc]]) {
+            sb.append(NAMES[code[pc]]);
+            for (int i = 1; i <= OPERANDS[code[pc]]; i++) sb.append(' ').append(code[pc + i]);
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    static int[] grow(int[] code, int needed) {
+        return needed <= code.length ? code : Arrays.copyOf(code, Math.max(needed, code.length * 2));
+    }
+}
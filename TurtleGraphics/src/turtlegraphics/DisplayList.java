@@ -0,0 +1,514 @@
+package turtlegraphics;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.DeflaterOutputStream;
+
+// Retained copy of everything drawn: polylines and circles with their pen
+// colour and stroke, stored as parallel arrays. A pen-down segment that
+// starts where the previous one ended, in the same colour and stroke, extends
+// that polyline instead of starting a new primitive.
+public class DisplayList {
+    public static final int POLYLINE = 0, CIRCLE = 1;
+
+    private byte[] kind = new byte[64];
+    private int[] argb = new int[64];
+    private int[] stroke = new int[64];
+    // Index into coords: polyline points as x,y pairs, or cx,cy,radius for a circle
+    private int[] start = new int[64];
+    private int[] coords = new int[256];
+    private int count, coordCount, segments;
+
+    // === Recording ===
+
+    public void addLine(int x1, int y1, int x2, int y2, int argb, int stroke) {
+        int last = count - 1;
+        if (last >= 0 && kind[last] == POLYLINE && this.argb[last] == argb && this.stroke[last] == stroke
+                && coords[coordCount - 2] == x1 && coords[coordCount - 1] == y1) {
+            point(x2, y2);
+        } else {
+            primitive(POLYLINE, argb, stroke);
+            point(x1, y1);
+            point(x2, y2);
+        }
+        segments++;
+    }
+
+    public void addCircle(int cx, int cy, int radius, int argb, int stroke) {
+        primitive(CIRCLE, argb, stroke);
+        coords = grow(coords, coordCount + 3);
+        coords[coordCount++] = cx;
+        coords[coordCount++] = cy;
+        coords[coordCount++] = radius;
+    }
+
+    private void primitive(int type, int colour, int width) {
+        if (count == kind.length) {
+            int n = count * 2;
+            kind = Arrays.copyOf(kind, n);
+            argb = Arrays.copyOf(argb, n);
+            stroke = Arrays.copyOf(stroke, n);
+            start = Arrays.copyOf(start, n);
+        }
+        kind[count] = (byte) type;
+        argb[count] = colour;
+        stroke[count] = width;
+        start[count] = coordCount;
+        count++;
+    }
+
+    private void point(int x, int y) {
+        coords = grow(coords, coordCount + 2);
+        coords[coordCount++] = x;
+        coords[coordCount++] = y;
+    }
+
+    private static int[] grow(int[] a, int needed) {
+        return needed <= a.length ? a : Arrays.copyOf(a, Math.max(needed, a.length * 2));
+    }
+
+    public void clear() {
+        count = coordCount = segments = 0;
+    }
+
+    // Opaque position that truncate() can roll back to, e.g. when playback rewinds
+    public long mark() {
+        return (long) count << 32 | coordCount;
+    }
+
+    public void truncate(long mark) {
+        int primitives = (int) (mark >>> 32), used = (int) mark;
+        if (primitives > count || used > coordCount) throw new IllegalArgumentException("Mark is ahead of the list");
+        count = primitives;
+        coordCount = used;
+        segments = 0;
+        for (int i = 0; i < count; i++) {
+            if (kind[i] == POLYLINE) segments += points(i) - 1;
+        }
+    }
+
+    // Independent list holding everything up to the mark
+    public DisplayList copy(long mark) {
+        int primitives = (int) (mark >>> 32), used = (int) mark;
+        if (primitives > count || used > coordCount) throw new IllegalArgumentException("Mark is ahead of the list");
+        DisplayList c = new DisplayList();
+        int capacity = Math.max(64, primitives);
+        c.kind = Arrays.copyOf(kind, capacity);
+        c.argb = Arrays.copyOf(argb, capacity);
+        c.stroke = Arrays.copyOf(stroke, capacity);
+        c.start = Arrays.copyOf(start, capacity);
+        c.coords = Arrays.copyOf(coords, Math.max(256, used));
+        c.count = primitives;
+        c.coordCount = used;
+        c.truncate(mark);
+        return c;
+    }
+
+    // Whether this list begins with everything other held at the mark
+    public boolean startsWith(DisplayList other, long mark) {
+        int primitives = (int) (mark >>> 32), used = (int) mark;
+        if (primitives > count || used > coordCount || primitives > other.count || used > other.coordCount) return false;
+        return Arrays.equals(kind, 0, primitives, other.kind, 0, primitives)
+                && Arrays.equals(argb, 0, primitives, other.argb, 0, primitives)
+                && Arrays.equals(stroke, 0, primitives, other.stroke, 0, primitives)
+                && Arrays.equals(start, 0, primitives, other.start, 0, primitives)
+                && Arrays.equals(coords, 0, used, other.coords, 0, used);
+    }
+
+    // Adds what other drew after the mark, as though it had been drawn here
+    public void append(DisplayList other, long mark) {
+        for (int i = Math.max(0, (int) (mark >>> 32) - 1); i < other.count; i++) {
+            int s = other.drawnFrom(i, mark);
+            if (s < 0) continue;
+            int[] c = other.coords;
+            if (other.kind[i] == CIRCLE) {
+                addCircle(c[s], c[s + 1], c[s + 2], other.argb[i], other.stroke[i]);
+            } else {
+                for (int p = s + 2, end = other.end(i); p < end; p += 2) {
+                    addLine(c[p - 2], c[p - 1], c[p], c[p + 1], other.argb[i], other.stroke[i]);
+                }
+            }
+        }
+    }
+
+    // First coordinate of primitive i drawn after the mark, or -1 if it was
+    // all drawn before; the polyline open at the mark may have been carried
+    // on from its last point since
+    private int drawnFrom(int i, long mark) {
+        int primitives = (int) (mark >>> 32), used = (int) mark;
+        if (i >= primitives) return start[i];
+        return i == primitives - 1 && kind[i] == POLYLINE && end(i) > used ? used - 2 : -1;
+    }
+
+    private int end(int i) { return i + 1 < count ? start[i + 1] : coordCount; }
+
+    // === Access ===
+
+    public int size() { return count; }
+    public int getSegmentCount() { return segments; }
+    public int kind(int i) { return kind[i]; }
+    public int argb(int i) { return argb[i]; }
+    public int stroke(int i) { return stroke[i]; }
+
+    public int points(int i) { return (end(i) - start[i]) / 2; }
+
+    public int x(int i, int point) { return coords[start[i] + point * 2]; }
+    public int y(int i, int point) { return coords[start[i] + point * 2 + 1]; }
+    public int radius(int i) { return coords[start[i] + 2]; }
+
+    // === Binary form: counts, then the arrays, little-endian ===
+
+    public int encodedSize() { return 12 + count * 13 + coordCount * 4; }
+
+    public void encode(ByteBuffer out) {
+        ByteBuffer buf = out.slice().order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(count).putInt(coordCount).putInt(segments);
+        buf.put(kind, 0, count);
+        putInts(buf, argb, count);
+        putInts(buf, stroke, count);
+        putInts(buf, start, count);
+        putInts(buf, coords, coordCount);
+        out.position(out.position() + buf.position());
+    }
+
+    public static DisplayList decode(ByteBuffer in) {
+        ByteBuffer buf = in.slice().order(ByteOrder.LITTLE_ENDIAN);
+        int count = buf.getInt(), used = buf.getInt(), segments = buf.getInt();
+        if (count < 0 || used < 0 || (long) count * 13 + (long) used * 4 > buf.remaining()) {
+            throw new IllegalArgumentException("Display list is truncated");
+        }
+        DisplayList list = new DisplayList();
+        list.kind = new byte[Math.max(64, count)];
+        list.argb = new int[list.kind.length];
+        list.stroke = new int[list.kind.length];
+        list.start = new int[list.kind.length];
+        list.coords = new int[Math.max(256, used)];
+        buf.get(list.kind, 0, count);
+        getInts(buf, list.argb, count);
+        getInts(buf, list.stroke, count);
+        getInts(buf, list.start, count);
+        getInts(buf, list.coords, used);
+        for (int i = 0; i < count; i++) {
+            if (list.start[i] < (i == 0 ? 0 : list.start[i - 1]) || list.start[i] > used
+                    || list.kind[i] != POLYLINE && list.kind[i] != CIRCLE) {
+                throw new IllegalArgumentException("Display list is corrupt at primitive " + i);
+            }
+        }
+        list.count = count;
+        list.coordCount = used;
+        list.segments = segments;
+        in.position(in.position() + buf.position());
+        return list;
+    }
+
+    private static void putInts(ByteBuffer buf, int[] values, int n) {
+        buf.asIntBuffer().put(values, 0, n);
+        buf.position(buf.position() + n * 4);
+    }
+
+    private static void getInts(ByteBuffer buf, int[] values, int n) {
+        buf.asIntBuffer().get(values, 0, n);
+        buf.position(buf.position() + n * 4);
+    }
+
+    // === Raster ===
+
+    // Issues the same drawLine/drawOval calls the turtle made, so the result
+    // matches the original canvas pixel for pixel
+    public void replay(DrawingSurface surface) {
+        Color colour = null;
+        for (int i = 0; i < count; i++) {
+            if (colour == null || colour.getRGB() != argb[i]) colour = new Color(argb[i], true);
+            int s = start[i];
+            if (kind[i] == CIRCLE) {
+                int r = coords[s + 2];
+                surface.drawOval(coords[s] - r, coords[s + 1] - r, r * 2, r * 2, colour, stroke[i]);
+            } else {
+                for (int p = s + 2, end = s + points(i) * 2; p < end; p += 2) {
+                    surface.drawLine(coords[p - 2], coords[p - 1], coords[p], coords[p + 1], colour, stroke[i]);
+                }
+            }
+        }
+    }
+
+    // Replays only what was drawn between two marks, and of that only what may
+    // touch the area; used to redraw part of a canvas
+    public void replay(DrawingSurface surface, long from, long to, Rectangle area) {
+        Color colour = null;
+        int primitives = (int) (to >>> 32), used = (int) to;
+        for (int i = Math.max(0, (int) (from >>> 32) - 1); i < primitives; i++) {
+            int s = drawnFrom(i, from);
+            if (s < 0) continue;
+            int pad = stroke[i] + 1;
+            if (kind[i] == CIRCLE) {
+                int r = coords[s + 2];
+                if (!touches(area, coords[s] - r, coords[s + 1] - r, coords[s] + r, coords[s + 1] + r, pad)) continue;
+                if (colour == null || colour.getRGB() != argb[i]) colour = new Color(argb[i], true);
+                surface.drawOval(coords[s] - r, coords[s + 1] - r, r * 2, r * 2, colour, stroke[i]);
+            } else {
+                for (int p = s + 2, end = Math.min(end(i), used); p < end; p += 2) {
+                    if (!touches(area, coords[p - 2], coords[p - 1], coords[p], coords[p + 1], pad)) continue;
+                    if (colour == null || colour.getRGB() != argb[i]) colour = new Color(argb[i], true);
+                    surface.drawLine(coords[p - 2], coords[p - 1], coords[p], coords[p + 1], colour, stroke[i]);
+                }
+            }
+        }
+    }
+
+    // The pixels drawn on between two marks, widened by the stroke; empty
+    // (negative size) if nothing was drawn
+    public Rectangle bounds(long from, long to) {
+        Rectangle area = new Rectangle(0, 0, -1, -1);
+        int primitives = (int) (to >>> 32), used = (int) to;
+        for (int i = Math.max(0, (int) (from >>> 32) - 1); i < primitives; i++) {
+            int s = drawnFrom(i, from);
+            if (s < 0) continue;
+            int pad = stroke[i] + 1;
+            if (kind[i] == CIRCLE) {
+                int r = coords[s + 2];
+                area.add(box(coords[s] - r, coords[s + 1] - r, coords[s] + r, coords[s + 1] + r, pad));
+            } else {
+                for (int p = s + 2, end = Math.min(end(i), used); p < end; p += 2) {
+                    area.add(box(coords[p - 2], coords[p - 1], coords[p], coords[p + 1], pad));
+                }
+            }
+        }
+        return area;
+    }
+
+    private static Rectangle box(int x0, int y0, int x1, int y1, int pad) {
+        int x = Math.min(x0, x1) - pad, y = Math.min(y0, y1) - pad;
+        return new Rectangle(x, y, Math.max(x0, x1) + pad + 1 - x, Math.max(y0, y1) + pad + 1 - y);
+    }
+
+    private static boolean touches(Rectangle area, int x0, int y0, int x1, int y1, int pad) {
+        return Math.max(x0, x1) + pad >= area.x && Math.min(x0, x1) - pad < area.x + area.width
+                && Math.max(y0, y1) + pad >= area.y && Math.min(y0, y1) - pad < area.y + area.height;
+    }
+
+    // Resolution-independent rendering: true curves and joined polylines under
+    // the given scale, anti-aliased
+    public void render(Graphics2D g, double scale) {
+        AffineTransform saved = g.getTransform();
+        g.scale(scale, scale);
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+        Path2D.Float path = new Path2D.Float();
+        Ellipse2D.Float circle = new Ellipse2D.Float();
+        int width = -1;
+        for (int i = 0; i < count; i++) {
+            if (i == 0 || argb[i] != argb[i - 1]) g.setColor(new Color(argb[i], true));
+            if (stroke[i] != width) {
+                width = stroke[i];
+                g.setStroke(new BasicStroke(width));
+            }
+            int s = start[i];
+            if (kind[i] == CIRCLE) {
+                int r = coords[s + 2];
+                circle.setFrame(coords[s] - r, coords[s + 1] - r, r * 2, r * 2);
+                g.draw(circle);
+            } else {
+                path.reset();
+                path.moveTo(coords[s], coords[s + 1]);
+                for (int p = s + 2, end = s + points(i) * 2; p < end; p += 2) path.lineTo(coords[p], coords[p + 1]);
+                g.draw(path);
+            }
+        }
+        g.setTransform(saved);
+    }
+
+    public BufferedImage renderImage(int width, int height, Color background, double scale) {
+        int w = (int) Math.ceil(width * scale), h = (int) Math.ceil(height * scale);
+        BufferedImage image = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(background);
+        g.fillRect(0, 0, w, h);
+        render(g, scale);
+        g.dispose();
+        return image;
+    }
+
+    // === Export ===
+
+    // Picks the format from the extension: .svg and .pdf are vector, anything
+    // else is a raster at scale times the canvas size
+    public void export(Path file, int width, int height, Color background, int scale) throws IOException {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+            if (name.endsWith(".svg")) {
+                writeSvg(out, width, height, background, scale);
+            } else if (name.endsWith(".pdf")) {
+                writePdf(out, width, height, background, scale);
+            } else if (name.endsWith(".jpg") || name.endsWith(".jpeg")) {
+                if (!ImageIO.write(renderImage(width, height, background, scale), "jpg", out)) {
+                    throw new IOException("No JPEG writer available");
+                }
+            } else if (scale == 1) {
+                ImageSurface surface = new ImageSurface(width, height);
+                surface.clear(background);
+                replay(surface);
+                surface.writePng(out);
+                surface.dispose();
+            } else {
+                new ImageSurface(renderImage(width, height, background, scale)).writePng(out);
+            }
+        }
+    }
+
+    public void writeSvg(OutputStream stream, int width, int height, Color background, double scale) throws IOException {
+        Writer out = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8));
+        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        out.write("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"" + num(width * scale) + "\" height=\""
+                + num(height * scale) + "\" viewBox=\"0 0 " + width + " " + height + "\">\n");
+        out.write("<rect width=\"100%\" height=\"100%\" fill=\"" + hex(background.getRGB()) + "\"/>\n");
+        // Matches BasicStroke's defaults: square caps, mitred joins
+        out.write("<g fill=\"none\" stroke-linecap=\"square\" stroke-linejoin=\"miter\" stroke-miterlimit=\"10\">\n");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.setLength(0);
+            int s = start[i];
+            if (kind[i] == CIRCLE) {
+                sb.append("<circle cx=\"").append(coords[s]).append("\" cy=\"").append(coords[s + 1])
+                        .append("\" r=\"").append(coords[s + 2]).append('"');
+            } else {
+                sb.append("<polyline points=\"");
+                for (int p = s, end = s + points(i) * 2; p < end; p += 2) {
+                    if (p > s) sb.append(' ');
+                    sb.append(coords[p]).append(',').append(coords[p + 1]);
+                }
+                sb.append('"');
+            }
+            sb.append(" stroke=\"").append(hex(argb[i])).append('"');
+            int alpha = argb[i] >>> 24;
+            if (alpha != 255) sb.append(" stroke-opacity=\"").append(num(alpha / 255.0)).append('"');
+            if (stroke[i] != 1) sb.append(" stroke-width=\"").append(stroke[i]).append('"');
+            sb.append("/>\n");
+            out.append(sb);
+        }
+        out.write("</g>\n</svg>\n");
+        out.flush();
+    }
+
+    // Single-page PDF with one deflated content stream; page units are canvas
+    // pixels times scale. Pen alpha is ignored.
+    public void writePdf(OutputStream stream, int width, int height, Color background, double scale) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        try (Writer w = new OutputStreamWriter(new DeflaterOutputStream(content), StandardCharsets.US_ASCII)) {
+            StringBuilder sb = new StringBuilder();
+            // Flip to canvas coordinates: origin top left, y down
+            sb.append(num(scale)).append(" 0 0 ").append(num(-scale)).append(" 0 ").append(num(height * scale)).append(" cm\n");
+            sb.append(rgb(background.getRGB())).append(" rg 0 0 ").append(width).append(' ').append(height).append(" re f\n");
+            sb.append("2 J 0 j 10 M\n");
+            int colour = 0, lineWidth = -1;
+            for (int i = 0; i < count; i++) {
+                if (i == 0 || argb[i] != colour) {
+                    colour = argb[i];
+                    sb.append(rgb(colour)).append(" RG\n");
+                }
+                if (stroke[i] != lineWidth) {
+                    lineWidth = stroke[i];
+                    sb.append(lineWidth).append(" w\n");
+                }
+                int s = start[i];
+                if (kind[i] == CIRCLE) {
+                    circlePath(sb, coords[s], coords[s + 1], coords[s + 2]);
+                } else {
+                    sb.append(coords[s]).append(' ').append(coords[s + 1]).append(" m\n");
+                    for (int p = s + 2, end = s + points(i) * 2; p < end; p += 2) {
+                        sb.append(coords[p]).append(' ').append(coords[p + 1]).append(" l\n");
+                    }
+                }
+                sb.append("S\n");
+                if (sb.length() > 8192) {
+                    w.append(sb);
+                    sb.setLength(0);
+                }
+            }
+            w.append(sb);
+        }
+
+        PdfOut out = new PdfOut(stream);
+        out.write("%PDF-1.4\n");
+        out.object(1, "<< /Type /Catalog /Pages 2 0 R >>");
+        out.object(2, "<< /Type /Pages /Kids [3 0 R] /Count 1 >>");
+        out.object(3, "<< /Type /Page /Parent 2 0 R /MediaBox [0 0 " + num(width * scale) + " "
+                + num(height * scale) + "] /Contents 4 0 R /Resources << >> >>");
+        out.offsets[4] = out.position;
+        out.write("4 0 obj\n<< /Length " + content.size() + " /Filter /FlateDecode >>\nstream\n");
+        out.write(content.toByteArray());
+        out.write("\nendstream\nendobj\n");
+        out.finish();
+    }
+
+    // Four cubic Béziers approximating the circle
+    private static void circlePath(StringBuilder sb, int cx, int cy, int r) {
+        double k = 0.5522847498 * r;
+        sb.append(cx + r).append(' ').append(cy).append(" m\n");
+        curve(sb, cx + r, cy + k, cx + k, cy + r, cx, cy + r);
+        curve(sb, cx - k, cy + r, cx - r, cy + k, cx - r, cy);
+        curve(sb, cx - r, cy - k, cx - k, cy - r, cx, cy - r);
+        curve(sb, cx + k, cy - r, cx + r, cy - k, cx + r, cy);
+    }
+
+    private static void curve(StringBuilder sb, double x1, double y1, double x2, double y2, double x3, double y3) {
+        sb.append(num(x1)).append(' ').append(num(y1)).append(' ').append(num(x2)).append(' ').append(num(y2))
+                .append(' ').append(num(x3)).append(' ').append(num(y3)).append(" c\n");
+    }
+
+    private static class PdfOut {
+        final OutputStream out;
+        final long[] offsets = new long[5];
+        long position;
+
+        PdfOut(OutputStream out) { this.out = out; }
+
+        void write(String s) throws IOException { write(s.getBytes(StandardCharsets.US_ASCII)); }
+
+        void write(byte[] b) throws IOException {
+            out.write(b);
+            position += b.length;
+        }
+
+        void object(int id, String body) throws IOException {
+            offsets[id] = position;
+            write(id + " 0 obj\n" + body + "\nendobj\n");
+        }
+
+        void finish() throws IOException {
+            long xref = position;
+            StringBuilder sb = new StringBuilder("xref\n0 5\n0000000000 65535 f \n");
+            for (int i = 1; i < 5; i++) sb.append(String.format("%010d 00000 n \n", offsets[i]));
+            sb.append("trailer\n<< /Size 5 /Root 1 0 R >>\nstartxref\n").append(xref).append("\n%%EOF\n");
+            write(sb.toString());
+            out.flush();
+        }
+    }
+
+    private static String hex(int argb) {
+        return String.format("#%06x", argb & 0xFFFFFF);
+    }
+
+    private static String rgb(int argb) {
+        return num(((argb >> 16) & 0xFF) / 255.0) + " " + num(((argb >> 8) & 0xFF) / 255.0) + " " + num((argb & 0xFF) / 255.0);
+    }
+
+    private static String num(double v) {
+        if (v == Math.rint(v)) return Long.toString((long) v);
+        String s = String.format(Locale.ROOT, "%.3f", v);
+        int end = s.length();
+        while (s.charAt(end - 1) == '0') end--;
+        return s.substring(0, end);
+    }
+}
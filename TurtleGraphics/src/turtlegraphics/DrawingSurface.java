@@ -0,0 +1,55 @@
+package turtlegraphics;
+
+import java.awt.Color;
+import java.awt.Polygon;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+
+// Where HeadlessTurtle puts its pixels: one BufferedImage (ImageSurface) or
+// lazily allocated tiles that can spill to disk (TiledCanvas)
+public interface DrawingSurface {
+    int getWidth();
+    int getHeight();
+
+    void clear(Color background);
+    void drawLine(int x1, int y1, int x2, int y2, Color colour, int stroke);
+    void drawOval(int x, int y, int width, int height, Color colour, int stroke);
+
+    // Copies row y into dst; only the low 24 bits (0xRRGGBB) of each pixel are meaningful
+    void readRow(int y, int[] dst);
+
+    // Materialises the whole surface; avoid on canvases larger than the heap
+    BufferedImage toImage();
+
+    void dispose();
+
+    // Java2D rasterises curves differently under a translated clip, so ovals are
+    // flattened to integer vertices here; straight edges come out identical
+    // whether drawn onto one image or split across tiles
+    static Polygon ovalPolygon(int x, int y, int width, int height) {
+        double rx = width / 2.0, ry = height / 2.0, cx = x + rx, cy = y + ry;
+        int n = Math.max(16, (int) Math.ceil(Math.max(rx, ry) * Math.PI / 2));
+        Polygon polygon = new Polygon();
+        for (int i = 0; i < n; i++) {
+            double a = 2 * Math.PI * i / n;
+            polygon.addPoint((int) Math.round(cx + rx * Math.cos(a)), (int) Math.round(cy + ry * Math.sin(a)));
+        }
+        return polygon;
+    }
+
+    default void writePng(OutputStream out) throws IOException {
+        writePng(out, Deflater.DEFAULT_COMPRESSION, PngWriter.FILTER_ADAPTIVE);
+    }
+
+    default void writePng(OutputStream out, int level, int filter) throws IOException {
+        PngWriter png = new PngWriter(out, getWidth(), getHeight(), level, filter);
+        int[] row = new int[getWidth()];
+        for (int y = 0; y < getHeight(); y++) {
+            readRow(y, row);
+            png.writeRow(row);
+        }
+        png.finish();
+    }
+}
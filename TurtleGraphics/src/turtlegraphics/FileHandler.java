@@ -5,6 +5,7 @@ import javax.swing.*;
 import java.awt.image.BufferedImage;
 import java.io.*;
 import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
 import javax.swing.filechooser.FileNameExtensionFilter;
 
 public class FileHandler {
@@ -29,106 +30,166 @@ public class FileHandler {
         return true;
     }
 
-    public static void saveCurrentState(TurtleGraphics graphics) {
-        int response = JOptionPane.showConfirmDialog(
-                graphics,
-                "Save both image and commands?",
-                "Save State",
-                JOptionPane.YES_NO_CANCEL_OPTION);
-
-        if (response == JOptionPane.CANCEL_OPTION) return;
-        if (response == JOptionPane.YES_OPTION) {
-            saveImage(graphics);
-            saveCommands(graphics);
-        }
-        graphics.setSavedState(true);
+    // One dialog for every format; the session file is the default and keeps
+    // everything, the image and command formats only part of it
+    private static final FileNameExtensionFilter SESSION_FILTER = new FileNameExtensionFilter(
+            "Turtle Session (*." + SessionFile.EXTENSION + ")", SessionFile.EXTENSION);
+    private static final FileNameExtensionFilter IMAGE_FILTER = new FileNameExtensionFilter(
+            "Image Files (*.png, *.jpg)", "png", "jpg", "jpeg");
+    private static final FileNameExtensionFilter TEXT_FILTER = new FileNameExtensionFilter(
+            "Text Files (*.txt)", "txt");
+    private static final FileNameExtensionFilter ARCHIVE_FILTER = new FileNameExtensionFilter(
+            "Command Archive (*." + CommandArchive.EXTENSION + ")", CommandArchive.EXTENSION);
+
+    private static JFileChooser chooser() {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.addChoosableFileFilter(SESSION_FILTER);
+        fileChooser.addChoosableFileFilter(IMAGE_FILTER);
+        fileChooser.addChoosableFileFilter(TEXT_FILTER);
+        fileChooser.addChoosableFileFilter(ARCHIVE_FILTER);
+        fileChooser.setFileFilter(SESSION_FILTER);
+        return fileChooser;
     }
 
-    private static void saveImage(TurtleGraphics graphics) {
-        JFileChooser fileChooser = new JFileChooser();
-        fileChooser.setFileFilter(new FileNameExtensionFilter(
-                "Image Files (*.png, *.jpg)", "png", "jpg"));
-
-        if (fileChooser.showSaveDialog(graphics) == JFileChooser.APPROVE_OPTION) {
-            File file = fileChooser.getSelectedFile();
-            try {
-                String format = file.getName().toLowerCase().endsWith(".jpg") ? "jpg" : "png";
-                ImageIO.write(graphics.getCurrentImage(), format, file);
-                graphics.displayMessage("Image saved successfully");
-            } catch (IOException e) {
-                showError(graphics, "Error saving image: " + e.getMessage());
+    private static String extension(File file) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(dot + 1).toLowerCase() : "";
+    }
+
+    // Done once the file is written: an image is encoded in the background, so
+    // its future completes later, exceptionally if the export fails
+    public static CompletableFuture<?> saveCurrentState(TurtleGraphics graphics) {
+        CompletableFuture<?> done = CompletableFuture.completedFuture(null);
+        JFileChooser fileChooser = chooser();
+        if (fileChooser.showSaveDialog(graphics) != JFileChooser.APPROVE_OPTION) return done;
+
+        File file = fileChooser.getSelectedFile();
+        String extension = extension(file);
+        if (extension.isEmpty()) {
+            // No extension typed: take the one the chosen filter stands for
+            extension = fileChooser.getFileFilter() == IMAGE_FILTER ? "png"
+                    : fileChooser.getFileFilter() == TEXT_FILTER ? "txt"
+                    : fileChooser.getFileFilter() == ARCHIVE_FILTER ? CommandArchive.EXTENSION : SessionFile.EXTENSION;
+            file = new File(file.getPath() + "." + extension);
+        }
+        boolean saved = switch (extension) {
+            case "png", "jpg", "jpeg" -> {
+                done = saveImage(graphics, file);
+                yield true;
             }
+            case "txt" -> saveCommands(graphics, file);
+            case CommandArchive.EXTENSION -> saveArchive(graphics, file);
+            default -> saveSession(graphics, file);
+        };
+        if (saved) graphics.setSavedState(true);
+        return done;
+    }
+
+    private static boolean saveSession(TurtleGraphics graphics, File file) {
+        try {
+            graphics.saveSession(file.toPath());
+            return true;
+        } catch (IOException e) {
+            showError(graphics, "Error saving session: " + e.getMessage());
+            return false;
         }
     }
 
-    private static void saveCommands(TurtleGraphics graphics) {
-        JFileChooser fileChooser = new JFileChooser();
-        fileChooser.setFileFilter(new FileNameExtensionFilter(
-                "Text Files (*.txt)", "txt"));
+    // Encoded in the background; the drawing counts as saved unless the export
+    // fails. The future completes once the outcome has been handed to the EDT
+    private static CompletableFuture<?> saveImage(TurtleGraphics graphics, File file) {
+        ImageExporter exporter = graphics.getImageExporter();
+        CompletableFuture<?> done = exporter.export(graphics.getCurrentImage(), file.toPath())
+                .whenComplete((result, error) -> SwingUtilities.invokeLater(() -> {
+                    if (error == null) {
+                        graphics.displayMessage(result.toString());
+                    } else {
+                        graphics.setSavedState(false);
+                        showError(graphics, "Error saving image: " + error.getMessage());
+                    }
+                }));
+        int queued = exporter.getPending();
+        graphics.displayMessage("Saving " + file.getName() + (queued > 1 ? " (" + queued + " exports queued)" : ""));
+        return done;
+    }
 
-        if (fileChooser.showSaveDialog(graphics) == JFileChooser.APPROVE_OPTION) {
-            File file = fileChooser.getSelectedFile();
+    private static boolean saveCommands(TurtleGraphics graphics, File file) {
+        Metrics.FileEvent event = Metrics.file();
+        long bytes = -1;
+        try {
             try (PrintWriter writer = new PrintWriter(file)) {
-                for (String cmd : graphics.getCommandHistory()) {
-                    writer.println(cmd.replaceAll(" \\[.*\\]", ""));
+                CommandHistory history = graphics.getCommandHistory();
+                for (int i = 0; i < history.size(); i++) {
+                    writer.println(history.get(i));
                 }
-                graphics.displayMessage("Commands saved successfully");
-            } catch (IOException e) {
-                showError(graphics, "Error saving commands: " + e.getMessage());
             }
+            bytes = file.length();
+            ScriptCompiler.compileCached(file.toPath());
+            graphics.displayMessage("Commands saved successfully");
+            return true;
+        } catch (IOException e) {
+            showError(graphics, "Error saving commands: " + e.getMessage());
+            return false;
+        } finally {
+            Metrics.fileDone(event, "saveCommands", file.getPath(), bytes, true);
+        }
+    }
+
+    // Commands and recording together, for keeping rather than carrying on from
+    private static boolean saveArchive(TurtleGraphics graphics, File file) {
+        Metrics.FileEvent event = Metrics.file();
+        long bytes = -1;
+        try {
+            bytes = CommandArchive.save(file.toPath(), graphics.getCommandHistory(), graphics.getRecording());
+            graphics.displayMessage(String.format("Commands archived (%,d bytes)", bytes));
+            return true;
+        } catch (IOException e) {
+            showError(graphics, "Error archiving commands: " + e.getMessage());
+            return false;
+        } finally {
+            Metrics.fileDone(event, "saveArchive", file.getPath(), bytes, true);
         }
     }
 
     public static void loadState(TurtleGraphics graphics) {
         if (!checkUnsavedChanges(graphics)) return;
 
-        String[] options = {"Load Image", "Load Commands"};
-        int choice = JOptionPane.showOptionDialog(graphics,
-                "Select load type:", "Load",
-                JOptionPane.DEFAULT_OPTION, JOptionPane.QUESTION_MESSAGE,
-                null, options, options[0]);
+        JFileChooser fileChooser = chooser();
+        if (fileChooser.showOpenDialog(graphics) != JFileChooser.APPROVE_OPTION) return;
 
-        if (choice == 0) loadImage(graphics);
-        else if (choice == 1) loadCommands(graphics);
+        File file = fileChooser.getSelectedFile();
+        switch (extension(file)) {
+            case "png", "jpg", "jpeg" -> loadImage(graphics, file);
+            case "txt", CommandArchive.EXTENSION -> CommandLoader.load(graphics, file);
+            default -> loadSession(graphics, file);
+        }
     }
 
-    private static void loadImage(TurtleGraphics graphics) {
-        JFileChooser fileChooser = new JFileChooser();
-        fileChooser.setFileFilter(new FileNameExtensionFilter(
-                "Image Files (*.png, *.jpg)", "png", "jpg"));
-
-        if (fileChooser.showOpenDialog(graphics) == JFileChooser.APPROVE_OPTION) {
-            try {
-                BufferedImage img = ImageIO.read(fileChooser.getSelectedFile());
-                graphics.setCurrentImage(img);
-                graphics.displayMessage("Image loaded successfully");
-            } catch (IOException e) {
-                showError(graphics, "Error loading image: " + e.getMessage());
-            }
+    private static void loadSession(TurtleGraphics graphics, File file) {
+        try {
+            graphics.loadSession(file.toPath());
+        } catch (IOException e) {
+            showError(graphics, "Error loading session: " + e.getMessage());
         }
     }
 
-    private static void loadCommands(TurtleGraphics graphics) {
-        JFileChooser fileChooser = new JFileChooser();
-        fileChooser.setFileFilter(new FileNameExtensionFilter(
-                "Text Files (*.txt)", "txt"));
-
-        if (fileChooser.showOpenDialog(graphics) == JFileChooser.APPROVE_OPTION) {
-            try (BufferedReader reader = new BufferedReader(
-                    new FileReader(fileChooser.getSelectedFile()))) {
-                graphics.reset();
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    graphics.processCommand(line);
-                }
-                graphics.displayMessage("Commands loaded successfully");
-            } catch (IOException e) {
-                showError(graphics, "Error loading commands: " + e.getMessage());
-            }
+    private static void loadImage(TurtleGraphics graphics, File file) {
+        Metrics.FileEvent event = Metrics.file();
+        long bytes = -1;
+        try {
+            BufferedImage img = ImageIO.read(file);
+            bytes = file.length();
+            graphics.setCurrentImage(img);
+            graphics.displayMessage("Image loaded successfully");
+        } catch (IOException e) {
+            showError(graphics, "Error loading image: " + e.getMessage());
+        } finally {
+            Metrics.fileDone(event, "loadImage", file.getPath(), bytes, false);
         }
     }
 
-    private static void showError(JComponent parent, String message) {
+    static void showError(JComponent parent, String message) {
         JOptionPane.showMessageDialog(parent, message,
                 "Error", JOptionPane.ERROR_MESSAGE);
     }
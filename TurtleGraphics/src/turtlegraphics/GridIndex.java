@@ -0,0 +1,231 @@
+package turtlegraphics;
+
+import java.util.Arrays;
+
+public class GridIndex implements SpatialIndex {
+    private static final int CELL = COLLISION_RADIUS;
+    private static final int R = COLLISION_RADIUS;
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    // Open-addressed cell table; each cell heads a linked list threaded through next[]
+    private long[] keys;
+    private int[] heads;
+    private int cells;
+
+    private int[] xs, ys, next;
+    private int count;
+
+    public GridIndex() {
+        this(256);
+    }
+
+    public GridIndex(int expected) {
+        int capacity = Math.max(16, expected);
+        xs = new int[capacity];
+        ys = new int[capacity];
+        next = new int[capacity];
+        allocateTable(Integer.highestOneBit(capacity * 2 - 1) * 2);
+    }
+
+    // Independent copy, for indexes that are replaced rather than changed in place
+    public GridIndex(GridIndex other) {
+        xs = other.xs.clone();
+        ys = other.ys.clone();
+        next = other.next.clone();
+        keys = other.keys.clone();
+        heads = other.heads.clone();
+        cells = other.cells;
+        count = other.count;
+    }
+
+    // === Building ===
+
+    public void add(int x, int y) {
+        if (count == xs.length) {
+            xs = Arrays.copyOf(xs, count * 2);
+            ys = Arrays.copyOf(ys, count * 2);
+            next = Arrays.copyOf(next, count * 2);
+        }
+        xs[count] = x;
+        ys[count] = y;
+        int slot = slotFor(key(Math.floorDiv(x, CELL), Math.floorDiv(y, CELL)));
+        next[count] = heads[slot];
+        heads[slot] = count++;
+        if (cells * 2 > keys.length) rehash();
+    }
+
+    public int size() { return count; }
+
+    public int x(int i) {
+        if (i < 0 || i >= count) throw new IndexOutOfBoundsException(i);
+        return xs[i];
+    }
+
+    public int y(int i) {
+        if (i < 0 || i >= count) throw new IndexOutOfBoundsException(i);
+        return ys[i];
+    }
+
+    public void clear() {
+        count = 0;
+        cells = 0;
+        Arrays.fill(keys, EMPTY);
+        Arrays.fill(heads, -1);
+    }
+
+    // === Queries ===
+
+    public boolean hits(int x, int y) {
+        if (count == 0) return false;
+        int cx = Math.floorDiv(x, CELL), cy = Math.floorDiv(y, CELL);
+        for (int i = cx - 1; i <= cx + 1; i++) {
+            for (int j = cy - 1; j <= cy + 1; j++) {
+                for (int p = head(i, j); p >= 0; p = next[p]) {
+                    if (Math.abs(x - xs[p]) < R && Math.abs(y - ys[p]) < R) return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // Walks the cells under the segment and tests the neighbourhood of each one.
+    // A box the segment starts inside can be left, but not stayed in: a move
+    // that ends in any box hits it, as a point check on the endpoint would
+    public boolean intersects(int x0, int y0, int x1, int y1) {
+        if (count == 0) return false;
+        if (x0 == x1 && y0 == y1) return hits(x1, y1);
+
+        double dx = x1 - x0, dy = y1 - y0;
+        int cx = Math.floorDiv(x0, CELL), cy = Math.floorDiv(y0, CELL);
+        int steps = Math.abs(Math.floorDiv(x1, CELL) - cx) + Math.abs(Math.floorDiv(y1, CELL) - cy);
+        int stepX = dx > 0 ? 1 : -1, stepY = dy > 0 ? 1 : -1;
+        double tDeltaX = dx != 0 ? CELL / Math.abs(dx) : Double.POSITIVE_INFINITY;
+        double tDeltaY = dy != 0 ? CELL / Math.abs(dy) : Double.POSITIVE_INFINITY;
+        double tMaxX = dx > 0 ? ((cx + 1) * CELL - x0) / dx
+                : dx < 0 ? (cx * CELL - x0) / dx : Double.POSITIVE_INFINITY;
+        double tMaxY = dy > 0 ? ((cy + 1) * CELL - y0) / dy
+                : dy < 0 ? (cy * CELL - y0) / dy : Double.POSITIVE_INFINITY;
+
+        for (int s = 0; s <= steps; s++) {
+            for (int i = cx - 1; i <= cx + 1; i++) {
+                for (int j = cy - 1; j <= cy + 1; j++) {
+                    for (int p = head(i, j); p >= 0; p = next[p]) {
+                        if (crosses(x0, y0, dx, dy, xs[p], ys[p])) return true;
+                    }
+                }
+            }
+            if (tMaxX < tMaxY) { tMaxX += tDeltaX; cx += stepX; }
+            else { tMaxY += tDeltaY; cy += stepY; }
+        }
+        return hits(x1, y1);
+    }
+
+    // The same walk, keeping the earliest entry into a box instead of stopping
+    // at the first; a move that never enters a box but ends in the one it
+    // started in hits at the start
+    @Override
+    public double firstHit(int x0, int y0, int x1, int y1) {
+        if (count == 0) return NO_HIT;
+        if (x0 == x1 && y0 == y1) return hits(x1, y1) ? 0 : NO_HIT;
+
+        double dx = x1 - x0, dy = y1 - y0;
+        int cx = Math.floorDiv(x0, CELL), cy = Math.floorDiv(y0, CELL);
+        int steps = Math.abs(Math.floorDiv(x1, CELL) - cx) + Math.abs(Math.floorDiv(y1, CELL) - cy);
+        int stepX = dx > 0 ? 1 : -1, stepY = dy > 0 ? 1 : -1;
+        double tDeltaX = dx != 0 ? CELL / Math.abs(dx) : Double.POSITIVE_INFINITY;
+        double tDeltaY = dy != 0 ? CELL / Math.abs(dy) : Double.POSITIVE_INFINITY;
+        double tMaxX = dx > 0 ? ((cx + 1) * CELL - x0) / dx
+                : dx < 0 ? (cx * CELL - x0) / dx : Double.POSITIVE_INFINITY;
+        double tMaxY = dy > 0 ? ((cy + 1) * CELL - y0) / dy
+                : dy < 0 ? (cy * CELL - y0) / dy : Double.POSITIVE_INFINITY;
+
+        double best = NO_HIT;
+        for (int s = 0; s <= steps; s++) {
+            for (int i = cx - 1; i <= cx + 1; i++) {
+                for (int j = cy - 1; j <= cy + 1; j++) {
+                    for (int p = head(i, j); p >= 0; p = next[p]) {
+                        best = Math.min(best, entry(x0, y0, dx, dy, xs[p], ys[p]));
+                    }
+                }
+            }
+            if (tMaxX < tMaxY) { tMaxX += tDeltaX; cx += stepX; }
+            else { tMaxY += tDeltaY; cy += stepY; }
+        }
+        return best == NO_HIT && hits(x1, y1) ? 0 : best;
+    }
+
+    // Segment against the open box around (px, py); boxes the segment starts inside are ignored
+    static boolean crosses(int x0, int y0, double dx, double dy, int px, int py) {
+        return entry(x0, y0, dx, dy, px, py) != NO_HIT;
+    }
+
+    // Where the segment enters the box, or NO_HIT
+    static double entry(int x0, int y0, double dx, double dy, int px, int py) {
+        if (Math.abs(x0 - px) < R && Math.abs(y0 - py) < R) return NO_HIT;
+        double t0 = 0, t1 = 1;
+        if (dx == 0) {
+            if (Math.abs(x0 - px) >= R) return NO_HIT;
+        } else {
+            double a = (px - R - x0) / dx, b = (px + R - x0) / dx;
+            t0 = Math.max(t0, Math.min(a, b));
+            t1 = Math.min(t1, Math.max(a, b));
+        }
+        if (dy == 0) {
+            if (Math.abs(y0 - py) >= R) return NO_HIT;
+        } else {
+            double a = (py - R - y0) / dy, b = (py + R - y0) / dy;
+            t0 = Math.max(t0, Math.min(a, b));
+            t1 = Math.min(t1, Math.max(a, b));
+        }
+        return t0 < t1 ? t0 : NO_HIT;
+    }
+
+    // === Cell table ===
+
+    private static long key(int cx, int cy) {
+        return ((long) cx << 32) | (cy & 0xFFFFFFFFL);
+    }
+
+    private static int hash(long key) {
+        key *= 0x9E3779B97F4A7C15L;
+        return (int) (key ^ (key >>> 32));
+    }
+
+    private int head(int cx, int cy) {
+        long key = key(cx, cy);
+        int mask = keys.length - 1;
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            if (keys[i] == key) return heads[i];
+            if (keys[i] == EMPTY) return -1;
+        }
+    }
+
+    private int slotFor(long key) {
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        while (keys[i] != EMPTY && keys[i] != key) i = (i + 1) & mask;
+        if (keys[i] == EMPTY) {
+            keys[i] = key;
+            cells++;
+        }
+        return i;
+    }
+
+    private void allocateTable(int size) {
+        keys = new long[size];
+        heads = new int[size];
+        Arrays.fill(keys, EMPTY);
+        Arrays.fill(heads, -1);
+        cells = 0;
+    }
+
+    private void rehash() {
+        int n = count;
+        allocateTable(keys.length * 2);
+        for (int p = 0; p < n; p++) {
+            int slot = slotFor(key(Math.floorDiv(xs[p], CELL), Math.floorDiv(ys[p], CELL)));
+            next[p] = heads[slot];
+            heads[slot] = p;
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package turtlegraphics;
+
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.stream.Stream;
+
+public class HeadlessRenderer {
+    private final int width, height;
+    private final boolean tiled;
+    private int rasterThreads;
+    private RenderCache cache;
+
+    public static class Result {
+        public final Path script, output;
+        public final int lines, errors;
+        public final long nanos;
+        // Why the script could not be rendered, or null if it was
+        public final String failure;
+
+        Result(Path script, Path output, int lines, int errors, long nanos) {
+            this(script, output, lines, errors, nanos, null);
+        }
+
+        private Result(Path script, Path output, int lines, int errors, long nanos, String failure) {
+            this.script = script; this.output = output;
+            this.lines = lines; this.errors = errors; this.nanos = nanos;
+            this.failure = failure;
+        }
+
+        static Result failed(Path script, Path output, Exception e, long nanos) {
+            return new Result(script, output, 0, 0, nanos, e.getMessage() != null ? e.getMessage() : e.toString());
+        }
+
+        public double millis() { return nanos / 1_000_000.0; }
+    }
+
+    private static class Run {
+        final HeadlessTurtle turtle;
+        int lines, errors;
+        Run(HeadlessTurtle turtle) { this.turtle = turtle; }
+    }
+
+    public HeadlessRenderer() {
+        this(HeadlessTurtle.DEFAULT_WIDTH, HeadlessTurtle.DEFAULT_HEIGHT);
+    }
+
+    public HeadlessRenderer(int width, int height) {
+        this(width, height, false);
+    }
+
+    // Tiled rendering is forced when one image would take more than a quarter of the heap
+    public HeadlessRenderer(int width, int height, boolean tiled) {
+        this.width = width;
+        this.height = height;
+        this.tiled = tiled || (long) width * height * 4 > Runtime.getRuntime().maxMemory() / 4;
+    }
+
+    public boolean isTiled() { return tiled; }
+
+    // Above zero, drawing is deferred and rasterised on that many threads once the script has run
+    public void setRasterThreads(int threads) { this.rasterThreads = threads; }
+
+    // Scripts drawn onto a plain image reuse what an earlier script with the same start drew
+    public void setCache(RenderCache cache) { this.cache = cache; }
+    public RenderCache getCache() { return cache; }
+
+    private DrawingSurface newSurface() {
+        if (tiled) return new TiledCanvas(width, height);
+        if (rasterThreads > 0) return new ParallelSurface(width, height, rasterThreads);
+        return new ImageSurface(width, height);
+    }
+
+    // === Single script ===
+
+    public BufferedImage render(InputStream script) throws IOException {
+        Run run = execute(ScriptCompiler.compile(script));
+        try {
+            return run.turtle.getImage();
+        } finally {
+            run.turtle.dispose();
+        }
+    }
+
+    // The PNG is streamed row by row, so a tiled canvas is never materialised
+    public void render(InputStream script, OutputStream png) throws IOException {
+        Run run = execute(ScriptCompiler.compile(script));
+        try {
+            run.turtle.getSurface().writePng(png);
+        } finally {
+            run.turtle.dispose();
+        }
+    }
+
+    public Result render(Path script, Path png) throws IOException {
+        long start = System.nanoTime();
+        Metrics.FileEvent event = Metrics.file();
+        long bytes = -1;
+        String name = png.getFileName().toString().toLowerCase();
+        Run run = null;
+        // A script that cannot be read counts as a failed render too
+        try {
+            run = execute(ScriptCompiler.compile(script));
+            if (name.endsWith(".svg") || name.endsWith(".pdf")) {
+                run.turtle.exportDrawing(png, 1);
+            } else {
+                try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(png))) {
+                    run.turtle.getSurface().writePng(out);
+                }
+            }
+            bytes = Files.size(png);
+        } finally {
+            if (run != null) run.turtle.dispose();
+            Metrics.fileDone(event, "render", png.toString(), bytes, true);
+        }
+        return new Result(script, png, run.lines, run.errors, System.nanoTime() - start);
+    }
+
+    private Run execute(CompiledScript program) {
+        Run run = new Run(new HeadlessTurtle(newSurface()));
+        run.lines = program.getLineCount();
+        run.errors = cache != null ? cache.execute(program, run.turtle) : ScriptExecutor.execute(program, run.turtle);
+        return run;
+    }
+
+    // === Batch ===
+
+    public List<Result> renderDirectory(Path dir, Path outDir, int threads)
+            throws IOException, InterruptedException {
+        List<Path> scripts;
+        try (Stream<Path> files = Files.list(dir)) {
+            scripts = files.filter(p -> p.getFileName().toString().toLowerCase().endsWith(".txt"))
+                    .sorted().toList();
+        }
+        Files.createDirectories(outDir);
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Result>> futures = new ArrayList<>();
+            for (Path script : scripts) {
+                Path png = outDir.resolve(pngName(script));
+                // A script that cannot be rendered is reported with the rest, not left to stop the batch
+                futures.add(pool.submit(() -> {
+                    long start = System.nanoTime();
+                    try {
+                        return render(script, png);
+                    } catch (IOException | RuntimeException e) {
+                        return Result.failed(script, png, e, System.nanoTime() - start);
+                    }
+                }));
+            }
+            List<Result> results = new ArrayList<>();
+            for (Future<Result> f : futures) {
+                try {
+                    results.add(f.get());
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) throw (IOException) cause;
+                    throw new IOException(cause);
+                }
+            }
+            return results;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static String pngName(Path script) {
+        String name = script.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return (dot > 0 ? name.substring(0, dot) : name) + ".png";
+    }
+
+    public static void printReport(List<Result> results, long wallNanos, PrintStream out) {
+        long lines = 0;
+        int failed = 0;
+        for (Result r : results) {
+            if (r.failure != null) {
+                out.printf("%-40s FAILED %10.2f ms: %s%n", r.script.getFileName(), r.millis(), r.failure);
+                failed++;
+                continue;
+            }
+            out.printf("%-40s %8d lines %6d errors %10.2f ms%n",
+                    r.script.getFileName(), r.lines, r.errors, r.millis());
+            lines += r.lines;
+        }
+        double seconds = wallNanos / 1_000_000_000.0;
+        out.printf("%d files%s, %d lines in %.2f s (%.1f files/s, %.0f lines/s)%n",
+                results.size(), failed > 0 ? " (" + failed + " failed)" : "", lines, seconds,
+                results.size() / seconds, lines / seconds);
+    }
+
+    // === Command line ===
+
+    public static void run(String[] args) throws IOException, InterruptedException {
+        List<String> positional = new ArrayList<>();
+        int width = HeadlessTurtle.DEFAULT_WIDTH, height = HeadlessTurtle.DEFAULT_HEIGHT;
+        boolean tiled = false;
+        int rasterThreads = 0;
+        long cacheMegabytes = 0, cacheDiskMegabytes = 256;
+        String cacheDir = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--tiled")) {
+                tiled = true;
+            } else if (args[i].equals("--raster-threads") && i + 1 < args.length) {
+                rasterThreads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--size") && i + 1 < args.length) {
+                int[] size = parseSize(args[++i]);
+                width = size[0];
+                height = size[1];
+            } else if (args[i].equals("--cache") && i + 1 < args.length) {
+                cacheMegabytes = Long.parseLong(args[++i]);
+            } else if (args[i].equals("--cache-dir") && i + 1 < args.length) {
+                cacheDir = args[++i];
+            } else if (args[i].equals("--cache-disk") && i + 1 < args.length) {
+                cacheDiskMegabytes = Long.parseLong(args[++i]);
+            } else {
+                positional.add(args[i]);
+            }
+        }
+        if (positional.size() < 2) {
+            System.err.println("Usage: --render <script.txt|dir> <out.png|outdir> [threads] [--size WxH] [--tiled] [--raster-threads N]"
+                    + " [--cache MB] [--cache-dir DIR] [--cache-disk MB]");
+            return;
+        }
+        Path in = Paths.get(positional.get(0)), out = Paths.get(positional.get(1));
+        int threads = positional.size() > 2 ? Integer.parseInt(positional.get(2))
+                : Runtime.getRuntime().availableProcessors();
+        HeadlessRenderer renderer = new HeadlessRenderer(width, height, tiled);
+        renderer.setRasterThreads(rasterThreads);
+        RenderCache cache = RenderCache.open(cacheMegabytes, cacheDir, cacheDiskMegabytes);
+        renderer.setCache(cache);
+
+        long start = System.nanoTime();
+        try {
+            List<Result> results = Files.isDirectory(in)
+                    ? renderer.renderDirectory(in, out, threads)
+                    : List.of(renderer.render(in, out));
+            printReport(results, System.nanoTime() - start, System.out);
+            if (cache != null) System.out.println(cache.getStats());
+        } finally {
+            if (cache != null) cache.close();
+        }
+    }
+
+    static int[] parseSize(String size) {
+        String[] parts = size.toLowerCase().split("x");
+        if (parts.length != 2) throw new IllegalArgumentException("Size must look like 800x400: " + size);
+        int w = Integer.parseInt(parts[0].trim()), h = Integer.parseInt(parts[1].trim());
+        if (w <= 0 || h <= 0) throw new IllegalArgumentException("Size must be positive: " + size);
+        return new int[] {w, h};
+    }
+}
@@ -0,0 +1,268 @@
+package turtlegraphics;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+public class HeadlessTurtle implements Turtle, Shapes.Walker {
+    public static final int DEFAULT_WIDTH = 800;
+    public static final int DEFAULT_HEIGHT = 400;
+    public static final Color DEFAULT_BACKGROUND = Color.BLACK;
+    public static final Color DEFAULT_PEN = Color.RED;
+
+    private final DrawingSurface surface;
+    private DisplayList displayList = new DisplayList();
+    private final ArrayList<String> messages = new ArrayList<>();
+
+    private final TurtleGeometry geometry = new TurtleGeometry();
+    private boolean penDown;
+    private Color penColour;
+    private int stroke;
+
+    private MovementBuffer movementHistory = new MovementBuffer();
+    private boolean isRecording = false;
+    private SpatialIndex obstacles = new GridIndex();
+    private boolean collisionDetection = false;
+    private boolean lineCollision = false;
+    private CollisionPolicy collisionPolicy = CollisionPolicy.STOP;
+    // What has been drawn, for line collision; built when first needed
+    private SegmentIndex lines;
+    private int endX, endY;
+
+    public HeadlessTurtle() {
+        this(DEFAULT_WIDTH, DEFAULT_HEIGHT);
+    }
+
+    public HeadlessTurtle(int width, int height) {
+        this(new ImageSurface(width, height));
+    }
+
+    public HeadlessTurtle(DrawingSurface surface) {
+        this.surface = surface;
+        clear();
+        reset();
+    }
+
+    // === Basic ===
+
+    public void about() {
+        displayMessage("Enhanced Turtle Graphics by Rohan (headless)");
+    }
+
+    public void reset() {
+        geometry.setPosition(surface.getWidth() / 2, surface.getHeight() / 2);
+        geometry.point(0);
+        penDown = true;
+        penColour = DEFAULT_PEN;
+        stroke = 1;
+    }
+
+    public void clear() {
+        surface.clear(DEFAULT_BACKGROUND);
+        displayList.clear();
+        lines = null;
+    }
+
+    public void displayMessage(String message) { messages.add(message); }
+
+    public void saveCurrentState() { displayMessage("save is not available in headless mode"); }
+    public void loadState() { displayMessage("load is not available in headless mode"); }
+    public void exitApplication() { displayMessage("exit is not available in headless mode"); }
+    public void saveSession(Path file) { displayMessage("savesession is not available in headless mode"); }
+    public void loadSession(Path file) { displayMessage("loadsession is not available in headless mode"); }
+
+    // === Pen and movement ===
+
+    public void setPenState(boolean down) { penDown = down; }
+    public boolean getPenState() { return penDown; }
+    public void setPenColour(Color colour) { penColour = colour; }
+    public Color getPenColour() { return penColour; }
+    public void setStroke(int width) { stroke = width; }
+    public int getStroke() { return stroke; }
+
+    public int getxPos() { return geometry.getX(); }
+    public int getyPos() { return geometry.getY(); }
+    public int getDirection() { return geometry.getDirection(); }
+    public TurtleGeometry getGeometry() { return geometry; }
+
+    public void pointTurtle(int degrees) { geometry.point(degrees); }
+    public void left(int degrees) { geometry.turn(-degrees); }
+    public void right(int degrees) { geometry.turn(degrees); }
+
+    public void forward(int distance) {
+        geometry.aim(distance);
+        moveTo(geometry.getTargetX(), geometry.getTargetY());
+    }
+
+    public void moveTo(int newX, int newY) {
+        Metrics.MOVES.increment();
+        if (!collide(newX, newY)) return;
+        newX = endX;
+        newY = endY;
+        int xPos = geometry.getX(), yPos = geometry.getY();
+
+        if (isRecording) {
+            movementHistory.add(newX, newY, penDown, penColour.getRGB(), stroke);
+        }
+
+        if (penDown) {
+            surface.drawLine(xPos, yPos, newX, newY, penColour, stroke);
+            displayList.addLine(xPos, yPos, newX, newY, penColour.getRGB(), stroke);
+            if (lines != null) lines.add(xPos, yPos, newX, newY);
+        }
+        geometry.moveTo(newX, newY);
+    }
+
+    // Applies the collision policy to a move towards (x, y): false when the
+    // move is refused, otherwise it ends at (endX, endY)
+    private boolean collide(int x, int y) {
+        endX = x;
+        endY = y;
+        if (!collisionDetection && !lineCollision) return true;
+        if (lineCollision && lines == null) lines = SegmentIndex.of(displayList);
+        Collision hit = Collision.check(geometry.getX(), geometry.getY(), x, y,
+                collisionDetection ? obstacles : null, lineCollision ? lines : null, collisionPolicy);
+        if (hit == null) return true;
+        displayMessage(hit.message);
+        if (hit.refused) {
+            geometry.cancel();
+            return false;
+        }
+        endX = hit.x;
+        endY = hit.y;
+        return true;
+    }
+
+    // === Shapes ===
+
+    public void drawRohan() { Shapes.rohan(this); }
+    public void drawSquare(int size) { Shapes.square(this, size); }
+    public void drawTriangle(int size) { Shapes.triangle(this, size); }
+    public void drawRectangle(int width, int height) { Shapes.rectangle(this, width, height); }
+    public void drawCircle(int radius) { Shapes.circle(this, radius); }
+
+    public void circleAt(int x, int y, int radius) {
+        surface.drawOval(x - radius, y - radius, radius * 2, radius * 2, penColour, stroke);
+        displayList.addCircle(x, y, radius, penColour.getRGB(), stroke);
+        if (lines != null) lines.addCircle(x, y, radius);
+    }
+
+    // === Display list ===
+
+    public DisplayList getDisplayList() { return displayList; }
+
+    public void exportDrawing(Path file, int scale) throws IOException {
+        displayList.export(file, surface.getWidth(), surface.getHeight(), DEFAULT_BACKGROUND, scale);
+    }
+
+    // === Animation ===
+
+    public void startRecording() {
+        if (movementHistory.isReadOnly()) movementHistory = new MovementBuffer();
+        else movementHistory.clear();
+        isRecording = true;
+    }
+
+    public void stopRecording() { isRecording = false; }
+
+    // Recording is suspended meanwhile: replayed moves would be appended to the
+    // buffer being read, and in ring mode overwrite moves not yet played
+    public void playRecording() {
+        Color originalColor = penColour;
+        int originalWidth = stroke;
+        boolean wasRecording = isRecording;
+        isRecording = false;
+        MovementBuffer moves = movementHistory;
+        try {
+            for (int i = 0, n = moves.size(); i < n; i++) {
+                if (penColour.getRGB() != moves.argb(i)) penColour = new Color(moves.argb(i), true);
+                stroke = moves.width(i);
+                penDown = moves.penDown(i);
+                moveTo(moves.x(i), moves.y(i));
+            }
+        } finally {
+            penColour = originalColor;
+            stroke = originalWidth;
+            isRecording = wasRecording;
+        }
+    }
+
+    // Headless playback is synchronous, so there is nothing to pace or interrupt
+    public void pausePlayback() { }
+    public void resumePlayback() { }
+    public void stopPlayback() { }
+    public void seekPlayback(int index) { }
+    public void setInstantPlayback(boolean instant) { }
+
+    public void saveRecording(Path file) throws IOException { movementHistory.write(file); }
+
+    public void loadRecording(Path file) throws IOException {
+        isRecording = false;
+        movementHistory = MovementBuffer.map(file);
+    }
+
+    public MovementBuffer getRecording() { return movementHistory; }
+    public void setRecordingBuffer(MovementBuffer buffer) { this.movementHistory = buffer; }
+
+    public void setTurtleSpeed(int speed) { }
+
+    // === Collision ===
+
+    public void addObstacle(int x, int y) { obstacles.add(x, y); }
+    public void loadObstacles(Path file) throws IOException { obstacles.addAll(file); }
+    public SpatialIndex getObstacleIndex() { return obstacles; }
+    public void setObstacleIndex(SpatialIndex index) { this.obstacles = index; }
+    public void enableCollisionDetection(boolean enable) { collisionDetection = enable; }
+    public CollisionPolicy getCollisionPolicy() { return collisionPolicy; }
+    public void setCollisionPolicy(CollisionPolicy policy) { collisionPolicy = policy; }
+
+    public void enableLineCollision(boolean enable) {
+        lineCollision = enable;
+        if (!enable) lines = null;
+    }
+
+    // === Render cache ===
+
+    static final int STATE_SIZE = 13;
+
+    // Pose and pen, as RenderCache keys and restores them; the exact position
+    // goes in as the bits of its doubles
+    int[] getState() {
+        long x = Double.doubleToLongBits(geometry.getExactX()), y = Double.doubleToLongBits(geometry.getExactY());
+        return new int[] {geometry.getX(), geometry.getY(), geometry.getDirection(), penDown ? 1 : 0,
+                penColour.getRGB(), stroke, collisionDetection ? 1 : 0,
+                (int) (x >>> 32), (int) x, (int) (y >>> 32), (int) y,
+                lineCollision ? 1 : 0, collisionPolicy.ordinal()};
+    }
+
+    boolean isRecording() { return isRecording; }
+
+    // Takes the drawing, recording and obstacles as they are; the caller
+    // restores the pixels to match
+    void restoreState(int[] state, DisplayList drawing, MovementBuffer recording, SpatialIndex obstacles) {
+        geometry.setPosition(Double.longBitsToDouble((long) state[7] << 32 | state[8] & 0xFFFFFFFFL),
+                Double.longBitsToDouble((long) state[9] << 32 | state[10] & 0xFFFFFFFFL));
+        geometry.point(state[2]);
+        penDown = state[3] != 0;
+        penColour = new Color(state[4], true);
+        stroke = state[5];
+        collisionDetection = state[6] != 0;
+        lineCollision = state[11] != 0;
+        collisionPolicy = CollisionPolicy.values()[state[12]];
+        lines = null;
+        isRecording = false;
+        displayList = drawing;
+        movementHistory = recording;
+        this.obstacles = obstacles;
+    }
+
+    // === Misc ===
+
+    public DrawingSurface getSurface() { return surface; }
+    public BufferedImage getImage() { return surface.toImage(); }
+    public ArrayList<String> getMessages() { return messages; }
+
+    public void dispose() { surface.dispose(); }
+}
@@ -0,0 +1,66 @@
+package turtlegraphics;
+
+import javax.swing.AbstractListModel;
+import javax.swing.SwingUtilities;
+
+// Lazy view over CommandHistory; rows are decorated only when the JList asks
+// for them, and bursts of commands are reported as one interval event, plus
+// one change event for rows rewritten in place. Rows that go are reported
+// at once, so the list never asks for one the history no longer has; the
+// history is only changed on the EDT
+public class HistoryListModel extends AbstractListModel<String> {
+    public static final String SUFFIX = " [Rohan Raj K C]";
+
+    private final CommandHistory history;
+    private int reported;
+    // The first row changed since the last flush
+    private int changedFrom = Integer.MAX_VALUE;
+    private boolean flushPending;
+    private Runnable onGrow;
+
+    public HistoryListModel(CommandHistory history) {
+        this.history = history;
+        this.reported = history.size();
+        history.addListener(this::historyChanged);
+    }
+
+    public int getSize() { return reported; }
+
+    public String getElementAt(int index) {
+        return history.get(index) + SUFFIX;
+    }
+
+    public void setOnGrow(Runnable onGrow) { this.onGrow = onGrow; }
+
+    private void historyChanged(int from) {
+        int size = history.size();
+        if (size < reported) {
+            int old = reported;
+            reported = size;
+            fireIntervalRemoved(this, size, old - 1);
+        }
+        changedFrom = Math.min(changedFrom, from);
+        if (flushPending) return;
+        flushPending = true;
+        SwingUtilities.invokeLater(this::flush);
+    }
+
+    private void flush() {
+        flushPending = false;
+        int size = history.size();
+        int kept = Math.min(size, reported);
+        if (changedFrom < kept) fireContentsChanged(this, changedFrom, kept - 1);
+        changedFrom = Integer.MAX_VALUE;
+        if (size < reported) {
+            int old = reported;
+            reported = size;
+            fireIntervalRemoved(this, size, old - 1);
+        }
+        if (size > reported) {
+            int from = reported;
+            reported = size;
+            fireIntervalAdded(this, from, size - 1);
+            if (onGrow != null) onGrow.run();
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package turtlegraphics;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Saves PNG and JPEG images off the calling thread. export() only copies the
+// canvas pixels, a plain array copy for the usual canvas; the encoding runs
+// on a background thread, one export after another, so any number can be
+// queued while drawing carries on. Each file is written next to its target
+// and moved into place once complete.
+//
+// The encoder settings default to -Dturtle.png.level (0-9), -Dturtle.png.filter
+// (PngWriter's FILTER_ constants, -1 for adaptive) and -Dturtle.jpeg.quality
+// (1-100), and are taken when an export is queued.
+public class ImageExporter implements AutoCloseable {
+    private final ExecutorService executor;
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private volatile int pngLevel = Integer.getInteger("turtle.png.level", 6);
+    private volatile int pngFilter = Integer.getInteger("turtle.png.filter", PngWriter.FILTER_ADAPTIVE);
+    private volatile int jpegQuality = Integer.getInteger("turtle.jpeg.quality", 90);
+
+    public static class Result {
+        public final Path file;
+        public final String format;
+        public final long bytes, snapshotNanos, encodeNanos;
+
+        Result(Path file, String format, long bytes, long snapshotNanos, long encodeNanos) {
+            this.file = file; this.format = format;
+            this.bytes = bytes; this.snapshotNanos = snapshotNanos; this.encodeNanos = encodeNanos;
+        }
+
+        public double encodeMillis() { return encodeNanos / 1_000_000.0; }
+
+        @Override
+        public String toString() {
+            return String.format("%s saved: %d KB, encoded in %.0f ms", file.getFileName(), bytes / 1024, encodeMillis());
+        }
+    }
+
+    public ImageExporter() {
+        executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "image-export");
+            t.setDaemon(true);
+            return t;
+        });
+        // Validates the system properties
+        setPngLevel(pngLevel);
+        setPngFilter(pngFilter);
+        setJpegQuality(jpegQuality);
+    }
+
+    // === Settings ===
+
+    public void setPngLevel(int level) {
+        if (level < 0 || level > 9) throw new IllegalArgumentException("PNG level must be 0-9: " + level);
+        pngLevel = level;
+    }
+
+    public void setPngFilter(int filter) {
+        if (filter < PngWriter.FILTER_ADAPTIVE || filter > PngWriter.FILTER_PAETH) {
+            throw new IllegalArgumentException("Unknown PNG filter " + filter);
+        }
+        pngFilter = filter;
+    }
+
+    public void setJpegQuality(int quality) {
+        if (quality < 1 || quality > 100) throw new IllegalArgumentException("JPEG quality must be 1-100: " + quality);
+        jpegQuality = quality;
+    }
+
+    public int getPngLevel() { return pngLevel; }
+    public int getPngFilter() { return pngFilter; }
+    public int getJpegQuality() { return jpegQuality; }
+
+    // Exports queued or still encoding
+    public int getPending() { return pending.get(); }
+
+    // === Exporting ===
+
+    // The format follows the extension: .jpg or .jpeg for JPEG, anything else PNG.
+    // The image may change as soon as this returns
+    public CompletableFuture<Result> export(BufferedImage image, Path file) {
+        String name = file.getFileName().toString().toLowerCase();
+        String format = name.endsWith(".jpg") || name.endsWith(".jpeg") ? "jpg" : "png";
+        int level = pngLevel, filter = pngFilter, quality = jpegQuality;
+
+        long start = System.nanoTime();
+        int width = image.getWidth(), height = image.getHeight();
+        int[] pixels = snapshot(image);
+        long snapshotNanos = System.nanoTime() - start;
+
+        CompletableFuture<Result> result = new CompletableFuture<>();
+        pending.incrementAndGet();
+        executor.execute(() -> {
+            try {
+                long encodeStart = System.nanoTime();
+                long bytes = write(file, format, pixels, width, height, level, filter, quality);
+                result.complete(new Result(file, format, bytes, snapshotNanos, System.nanoTime() - encodeStart));
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            } finally {
+                pending.decrementAndGet();
+            }
+        });
+        return result;
+    }
+
+    // 0xRRGGBB pixels row by row; a straight array copy for the usual int RGB canvas
+    static int[] snapshot(BufferedImage image) {
+        int width = image.getWidth(), height = image.getHeight();
+        if ((image.getType() == BufferedImage.TYPE_INT_RGB || image.getType() == BufferedImage.TYPE_INT_ARGB)
+                && image.getRaster().getDataBuffer() instanceof DataBufferInt data
+                && image.getRaster().getSampleModel() instanceof SinglePixelPackedSampleModel model
+                && model.getScanlineStride() == width && image.getRaster().getSampleModelTranslateX() == 0
+                && image.getRaster().getSampleModelTranslateY() == 0) {
+            int[] pixels = new int[width * height];
+            System.arraycopy(data.getData(), 0, pixels, 0, pixels.length);
+            return pixels;
+        }
+        return image.getRGB(0, 0, width, height, null, 0, width);
+    }
+
+    private static long write(Path file, String format, int[] pixels, int width, int height,
+                              int level, int filter, int quality) throws IOException {
+        Metrics.FileEvent event = Metrics.file();
+        long bytes = -1;
+        Path partial = file.resolveSibling(file.getFileName() + ".part");
+        try {
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(partial), 1 << 16)) {
+                if (format.equals("png")) {
+                    PngWriter png = new PngWriter(out, width, height, level, filter);
+                    for (int y = 0; y < height; y++) png.writeRow(pixels, y * width);
+                    png.finish();
+                } else {
+                    writeJpeg(out, pixels, width, height, quality);
+                }
+            }
+            Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            bytes = Files.size(file);
+            return bytes;
+        } finally {
+            if (bytes < 0) Files.deleteIfExists(partial);
+            Metrics.fileDone(event, "exportImage", file.toString(), bytes, true);
+        }
+    }
+
+    // The snapshot is wrapped as an RGB image rather than copied again
+    private static void writeJpeg(OutputStream out, int[] pixels, int width, int height, int quality) throws IOException {
+        DirectColorModel rgb = new DirectColorModel(24, 0xFF0000, 0xFF00, 0xFF);
+        WritableRaster raster = Raster.createPackedRaster(new DataBufferInt(pixels, pixels.length), width, height,
+                width, rgb.getMasks(), null);
+        BufferedImage image = new BufferedImage(rgb, raster, false, null);
+
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try (ImageOutputStream stream = ImageIO.createImageOutputStream(out)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality / 100f);
+            writer.setOutput(stream);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    // === Shutdown ===
+
+    // Waits for the queued exports, so none is lost when the application exits
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.SECONDS)) { }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
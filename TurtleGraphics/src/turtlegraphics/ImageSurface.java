@@ -0,0 +1,55 @@
+package turtlegraphics;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+public class ImageSurface implements DrawingSurface {
+    private final BufferedImage image;
+    private final Graphics2D g;
+    private BasicStroke basicStroke = new BasicStroke(1);
+
+    public ImageSurface(int width, int height) {
+        this(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB));
+    }
+
+    public ImageSurface(BufferedImage image) {
+        this.image = image;
+        g = image.createGraphics();
+    }
+
+    // Leaves everything outside the area untouched
+    public void clip(Rectangle area) { g.setClip(area); }
+
+    public int getWidth() { return image.getWidth(); }
+    public int getHeight() { return image.getHeight(); }
+
+    public void clear(Color background) {
+        g.setColor(background);
+        g.fillRect(0, 0, image.getWidth(), image.getHeight());
+    }
+
+    public void drawLine(int x1, int y1, int x2, int y2, Color colour, int stroke) {
+        pen(colour, stroke);
+        g.drawLine(x1, y1, x2, y2);
+    }
+
+    public void drawOval(int x, int y, int width, int height, Color colour, int stroke) {
+        pen(colour, stroke);
+        g.drawPolygon(DrawingSurface.ovalPolygon(x, y, width, height));
+    }
+
+    private void pen(Color colour, int stroke) {
+        g.setColor(colour);
+        if (basicStroke.getLineWidth() != stroke) basicStroke = new BasicStroke(stroke);
+        g.setStroke(basicStroke);
+    }
+
+    public void readRow(int y, int[] dst) {
+        image.getRGB(0, y, image.getWidth(), 1, dst, 0, image.getWidth());
+        for (int x = 0, n = image.getWidth(); x < n; x++) dst[x] &= 0xFFFFFF;
+    }
+
+    public BufferedImage toImage() { return image; }
+
+    public void dispose() { g.dispose(); }
+}
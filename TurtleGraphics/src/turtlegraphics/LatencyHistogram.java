@@ -0,0 +1,73 @@
+package turtlegraphics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// Lock-free latency histogram in nanoseconds. Values below 32 get a bucket
+// each; above that every power of two is split into 16 buckets, so a
+// percentile is off by at most 1/16 of its value.
+public class LatencyHistogram {
+    private static final int SUB_BITS = 4, SUB = 1 << SUB_BITS, LINEAR = SUB * 2;
+    private static final int BUCKETS = LINEAR + (63 - SUB_BITS - 1) * SUB;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        buckets.incrementAndGet(bucket(nanos));
+        total.add(nanos);
+        max.accumulate(nanos);
+    }
+
+    private static int bucket(long v) {
+        if (v < LINEAR) return (int) v;
+        int exponent = 63 - Long.numberOfLeadingZeros(v);
+        int sub = (int) (v >>> (exponent - SUB_BITS)) & (SUB - 1);
+        return LINEAR + (exponent - SUB_BITS - 1) * SUB + sub;
+    }
+
+    // Lowest value that falls in the bucket
+    private static long lowest(int bucket) {
+        if (bucket < LINEAR) return bucket;
+        int exponent = (bucket - LINEAR) / SUB + SUB_BITS + 1;
+        long sub = (bucket - LINEAR) % SUB;
+        return (1L << exponent) | sub << (exponent - SUB_BITS);
+    }
+
+    // === Reading ===
+
+    // Summed on read, so recording pays for one counter fewer
+    public long count() {
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) n += buckets.get(i);
+        return n;
+    }
+    public long max() { return max.get(); }
+    public long total() { return total.sum(); }
+
+    public double mean() {
+        long n = count();
+        return n == 0 ? 0 : (double) total.sum() / n;
+    }
+
+    // Nanoseconds at or below which the given fraction (0..1) of samples fall
+    public long percentile(double fraction) {
+        long n = count();
+        if (n == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(fraction * n)), seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) return Math.min(max.get(), i + 1 < BUCKETS ? lowest(i + 1) - 1 : Long.MAX_VALUE);
+        }
+        return max.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) buckets.set(i, 0);
+        total.reset();
+        max.reset();
+    }
+}
@@ -6,9 +6,30 @@ import java.awt.BorderLayout;
 import javax.swing.JPanel;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.util.Arrays;
 
 public class MainClass {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws Exception {
+        Metrics.install();
+        if (args.length > 0 && args[0].equals("--render")) {
+            System.setProperty("java.awt.headless", "true");
+            HeadlessRenderer.run(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--serve")) {
+            System.setProperty("java.awt.headless", "true");
+            RenderServer.run(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--archive")) {
+            CommandArchive.run(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--view")) {
+            TiledCanvasView.run(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
         TurtleGraphics turtleGraphics = new TurtleGraphics();
 
         JFrame mainFrame = new JFrame("Turtle Graphics");
@@ -0,0 +1,265 @@
+package turtlegraphics;
+
+import jdk.jfr.*;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Process-wide counters and latency histograms for commands, drawing,
+// playback and file I/O, readable over JMX (turtlegraphics:type=Metrics), as a
+// periodic text dump, and as JFR events in the "Turtle Graphics" category.
+// Counters are LongAdders and histograms are lock-free, so recording costs a
+// few atomic adds; a JFR event is only built when its type is enabled.
+public final class Metrics {
+    public static final String OBJECT_NAME = "turtlegraphics:type=Metrics";
+
+    private static final ConcurrentHashMap<String, LongAdder> COUNTERS = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, LatencyHistogram> LATENCIES = new ConcurrentHashMap<>();
+    // Keyed by bare command name, so the per-command path builds no strings
+    private static final ConcurrentHashMap<String, CommandProbe> COMMANDS = new ConcurrentHashMap<>();
+
+    // Commands are cheap enough that two clock reads would show, so a random
+    // one in SAMPLE_EVERY is timed (every one while a JFR recording wants
+    // them); random rather than every nth, as scripts repeat in fixed cycles.
+    // Their counts are exact
+    static final int SAMPLE_EVERY = 16;
+
+    // Hot paths hold their counters directly
+    static final LongAdder COMMANDS_FAILED = counter("commands.failed");
+    static final LongAdder MOVES = counter("moves");
+    static final LongAdder COLLISION_CHECKS = counter("collision.checks");
+    static final LongAdder COLLISIONS = counter("collision.hits");
+    static final LongAdder REPAINTS = counter("repaints");
+    static final LongAdder PLAYBACK_FRAMES = counter("playback.frames");
+    static final LongAdder BYTES_WRITTEN = counter("file.bytesWritten");
+    static final LongAdder BYTES_READ = counter("file.bytesRead");
+
+    private static ScheduledExecutorService dumper;
+
+    private Metrics() { }
+
+    public static LongAdder counter(String name) {
+        return COUNTERS.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    public static LatencyHistogram latency(String name) {
+        return LATENCIES.computeIfAbsent(name, n -> new LatencyHistogram());
+    }
+
+    // === Timed operations ===
+
+    // Each event doubles as the timer: its start is taken when it is created
+    // and it is committed to JFR only if a recording wants it. An event that
+    // is not timed (started == 0) records no latency
+    @Category("Turtle Graphics")
+    @StackTrace(false)
+    abstract static class Timed extends Event {
+        transient final long started;
+
+        Timed(boolean timed) {
+            begin();
+            started = timed || isEnabled() ? System.nanoTime() : 0;
+        }
+
+        void finish(LatencyHistogram histogram) {
+            if (started != 0) histogram.record(System.nanoTime() - started);
+            end();
+        }
+    }
+
+    private record CommandProbe(LongAdder count, LatencyHistogram latency) { }
+
+    @Name("turtlegraphics.Command")
+    @Label("Command")
+    static final class CommandEvent extends Timed {
+        @Label("Command") String command;
+        @Label("Succeeded") boolean succeeded;
+
+        CommandEvent() { super(ThreadLocalRandom.current().nextInt(SAMPLE_EVERY) == 0); }
+    }
+
+    @Name("turtlegraphics.Shape")
+    @Label("Shape")
+    static final class ShapeEvent extends Timed {
+        @Label("Shape") String shape;
+        @Label("Size") int size;
+
+        ShapeEvent() { super(true); }
+    }
+
+    @Name("turtlegraphics.Playback")
+    @Label("Playback")
+    static final class PlaybackEvent extends Timed {
+        @Label("Movements") int movements;
+        @Label("Cancelled") boolean cancelled;
+
+        PlaybackEvent() { super(true); }
+    }
+
+    @Name("turtlegraphics.FileIO")
+    @Label("File I/O")
+    static final class FileEvent extends Timed {
+        @Label("Operation") String operation;
+        @Label("File") String file;
+        @Label("Bytes") @DataAmount long bytes;
+
+        FileEvent() { super(true); }
+    }
+
+    static CommandEvent command() { return new CommandEvent(); }
+
+    static void commandDone(CommandEvent event, String command, boolean succeeded) {
+        CommandProbe probe = COMMANDS.get(command);
+        if (probe == null) {
+            probe = COMMANDS.computeIfAbsent(command,
+                    c -> new CommandProbe(counter("commands." + c), latency("command." + c)));
+        }
+        probe.count().increment();
+        event.finish(probe.latency());
+        if (!succeeded) COMMANDS_FAILED.increment();
+        if (event.shouldCommit()) {
+            event.command = command;
+            event.succeeded = succeeded;
+            event.commit();
+        }
+    }
+
+    static ShapeEvent shape() { return new ShapeEvent(); }
+
+    static void shapeDone(ShapeEvent event, String shape, int size) {
+        event.finish(latency("shape." + shape));
+        if (event.shouldCommit()) {
+            event.shape = shape;
+            event.size = size;
+            event.commit();
+        }
+    }
+
+    static PlaybackEvent playback() { return new PlaybackEvent(); }
+
+    static void playbackDone(PlaybackEvent event, int movements, boolean cancelled) {
+        event.finish(latency("playback"));
+        counter(cancelled ? "playbacks.cancelled" : "playbacks.finished").increment();
+        if (event.shouldCommit()) {
+            event.movements = movements;
+            event.cancelled = cancelled;
+            event.commit();
+        }
+    }
+
+    static FileEvent file() { return new FileEvent(); }
+
+    // bytes < 0 means the operation failed; reads and writes are told apart by name
+    static void fileDone(FileEvent event, String operation, String file, long bytes, boolean write) {
+        event.finish(latency("file." + operation));
+        if (bytes < 0) counter("file.failures").increment();
+        else (write ? BYTES_WRITTEN : BYTES_READ).add(bytes);
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.file = file;
+            event.bytes = bytes;
+            event.commit();
+        }
+    }
+
+    // === Reading ===
+
+    public static Map<String, Long> counters() {
+        TreeMap<String, Long> map = new TreeMap<>();
+        COUNTERS.forEach((name, adder) -> map.put(name, adder.sum()));
+        return map;
+    }
+
+    public static Map<String, LatencyHistogram> latencies() { return new TreeMap<>(LATENCIES); }
+
+    public static String dump() {
+        StringBuilder sb = new StringBuilder();
+        counters().forEach((name, value) -> {
+            if (value != 0) sb.append(String.format("%-32s %,14d%n", name, value));
+        });
+        sb.append(String.format("%-32s %10s %10s %10s %10s%n", "latency (us)", "timed", "p50", "p99", "max"));
+        latencies().forEach((name, h) -> {
+            if (h.count() == 0) return;
+            sb.append(String.format("%-32s %,10d %10.1f %10.1f %10.1f%n", name, h.count(),
+                    h.percentile(0.5) / 1000.0, h.percentile(0.99) / 1000.0, h.max() / 1000.0));
+        });
+        return sb.toString();
+    }
+
+    public static void reset() {
+        COUNTERS.values().forEach(LongAdder::reset);
+        LATENCIES.values().forEach(LatencyHistogram::reset);
+    }
+
+    // === Publishing ===
+
+    // Registers the MBean, and when -Dturtle.metrics.dump=<seconds> is set,
+    // dumps every period to -Dturtle.metrics.file (appended) or stderr
+    public static synchronized void install() {
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            var server = ManagementFactory.getPlatformMBeanServer();
+            if (!server.isRegistered(name)) server.registerMBean(new Bean(), name);
+        } catch (JMException e) {
+            System.err.println("Metrics MBean not registered: " + e.getMessage());
+        }
+
+        String period = System.getProperty("turtle.metrics.dump");
+        if (period == null) return;
+        try {
+            String file = System.getProperty("turtle.metrics.file");
+            PrintStream out = file != null ? new PrintStream(new FileOutputStream(file, true), true) : System.err;
+            startDump(Long.parseLong(period), out);
+        } catch (IOException | NumberFormatException e) {
+            System.err.println("Metrics dump not started: " + e.getMessage());
+        }
+    }
+
+    public static synchronized void startDump(long periodSeconds, PrintStream out) {
+        if (periodSeconds <= 0) throw new IllegalArgumentException("Dump period must be positive");
+        stopDump();
+        dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "metrics-dump");
+            t.setDaemon(true);
+            return t;
+        });
+        dumper.scheduleAtFixedRate(() -> {
+            out.println("=== Turtle Graphics metrics " + java.time.LocalTime.now().withNano(0) + " ===");
+            out.print(dump());
+            out.flush();
+        }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    public static synchronized void stopDump() {
+        if (dumper != null) dumper.shutdownNow();
+        dumper = null;
+    }
+
+    private static class Bean implements MetricsMXBean {
+        public Map<String, Long> getCounters() { return counters(); }
+        public Map<String, Long> getCounts() { return latencyMap(h -> h.count()); }
+        public Map<String, Long> getP50Nanos() { return latencyMap(h -> h.percentile(0.5)); }
+        public Map<String, Long> getP99Nanos() { return latencyMap(h -> h.percentile(0.99)); }
+        public Map<String, Long> getMaxNanos() { return latencyMap(LatencyHistogram::max); }
+        public String getDump() { return dump(); }
+        public void reset() { Metrics.reset(); }
+
+        private static Map<String, Long> latencyMap(java.util.function.ToLongFunction<LatencyHistogram> f) {
+            TreeMap<String, Long> map = new TreeMap<>();
+            LATENCIES.forEach((name, h) -> map.put(name, f.applyAsLong(h)));
+            return map;
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package turtlegraphics;
+
+import java.util.Map;
+
+// JMX view of Metrics; latency maps are keyed by histogram name
+public interface MetricsMXBean {
+    Map<String, Long> getCounters();
+    Map<String, Long> getCounts();
+    Map<String, Long> getP50Nanos();
+    Map<String, Long> getP99Nanos();
+    Map<String, Long> getMaxNanos();
+    String getDump();
+    void reset();
+}
@@ -0,0 +1,165 @@
+package turtlegraphics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public class MovementBuffer {
+    public static final int DEFAULT_CAPACITY = 1 << 20;
+
+    // Record layout: x, y, argb as ints, width as short, pen flag as byte, one byte padding
+    static final int RECORD = 16;
+    private static final int X = 0, Y = 4, ARGB = 8, WIDTH = 12, FLAGS = 14;
+    private static final int HEADER = 16;
+    private static final int MAGIC = 0x54475231; // "TGR1"
+    private static final int INITIAL = 1024;
+
+    private ByteBuffer records;
+    private final int capacity;
+    private final boolean ring;
+    private final boolean readOnly;
+    private int start, size;
+    private long dropped;
+
+    public MovementBuffer() {
+        this(DEFAULT_CAPACITY, false);
+    }
+
+    // In ring mode the oldest movement is overwritten once capacity is reached,
+    // otherwise further movements are dropped
+    public MovementBuffer(int capacity, boolean ring) {
+        if (capacity <= 0 || capacity > Integer.MAX_VALUE / RECORD) {
+            throw new IllegalArgumentException("Capacity out of range: " + capacity);
+        }
+        this.capacity = capacity;
+        this.ring = ring;
+        this.readOnly = false;
+        this.records = allocate(Math.min(capacity, INITIAL));
+    }
+
+    private MovementBuffer(ByteBuffer records, int size) {
+        this.records = records;
+        this.capacity = size;
+        this.size = size;
+        this.ring = false;
+        this.readOnly = true;
+    }
+
+    private static ByteBuffer allocate(int count) {
+        return ByteBuffer.allocateDirect(count * RECORD).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    // === Recording ===
+
+    public boolean add(int x, int y, boolean penDown, int argb, int width) {
+        if (readOnly) throw new IllegalStateException("Recording is read-only");
+        int slot;
+        if (size < capacity) {
+            if (size * RECORD == records.capacity()) grow();
+            slot = size++;
+        } else if (ring) {
+            slot = start;
+            start = (start + 1) % capacity;
+            dropped++;
+        } else {
+            dropped++;
+            return false;
+        }
+        int base = slot * RECORD;
+        records.putInt(base + X, x);
+        records.putInt(base + Y, y);
+        records.putInt(base + ARGB, argb);
+        records.putShort(base + WIDTH, (short) Math.min(width, Short.MAX_VALUE));
+        records.put(base + FLAGS, (byte) (penDown ? 1 : 0));
+        return true;
+    }
+
+    private void grow() {
+        int count = (int) Math.min((long) capacity, (long) size * 2);
+        ByteBuffer bigger = allocate(count);
+        records.position(0).limit(size * RECORD);
+        bigger.put(records);
+        records = bigger;
+    }
+
+    public void clear() {
+        if (readOnly) throw new IllegalStateException("Recording is read-only");
+        start = 0;
+        size = 0;
+        dropped = 0;
+    }
+
+    // === Access, index 0 is the oldest movement ===
+
+    public int size() { return size; }
+    public int capacity() { return capacity; }
+    public boolean isRing() { return ring; }
+    public boolean isReadOnly() { return readOnly; }
+    public long dropped() { return dropped; }
+
+    private int base(int i) {
+        if (i < 0 || i >= size) throw new IndexOutOfBoundsException(i);
+        int slot = start + i;
+        if (slot >= capacity) slot -= capacity;
+        return slot * RECORD;
+    }
+
+    public int x(int i) { return records.getInt(base(i) + X); }
+    public int y(int i) { return records.getInt(base(i) + Y); }
+    public int argb(int i) { return records.getInt(base(i) + ARGB); }
+    public int width(int i) { return records.getShort(base(i) + WIDTH); }
+    public boolean penDown(int i) { return records.get(base(i) + FLAGS) != 0; }
+
+    // === File format: 16 byte header followed by records, oldest first ===
+
+    public void write(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(ch);
+        }
+    }
+
+    // The same bytes as a recording file, e.g. as one section of a session
+    public void write(WritableByteChannel ch) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(RECORD).putLong(size).flip();
+        writeFully(ch, header);
+
+        int wrapped = start + size > capacity ? capacity - start : size;
+        writeFully(ch, records.duplicate().position(start * RECORD).limit((start + wrapped) * RECORD));
+        if (wrapped < size) {
+            writeFully(ch, records.duplicate().position(0).limit((size - wrapped) * RECORD));
+        }
+    }
+
+    private static void writeFully(WritableByteChannel ch, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) ch.write(buf);
+    }
+
+    // Maps a recording read-only; records are paged in by the OS as playback touches them
+    public static MovementBuffer map(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = ch.size();
+            if (length < HEADER) throw new IOException("Not a recording file: " + file);
+            return wrap(ch.map(FileChannel.MapMode.READ_ONLY, 0, length), file.toString());
+        }
+    }
+
+    // Reads a recording in place from bytes laid out by write(), which must not change afterwards
+    static MovementBuffer wrap(ByteBuffer bytes, String source) throws IOException {
+        ByteBuffer buf = bytes.slice().order(ByteOrder.LITTLE_ENDIAN);
+        if (buf.remaining() < HEADER || buf.getInt(0) != MAGIC || buf.getInt(4) != RECORD) {
+            throw new IOException("Not a recording file: " + source);
+        }
+        long count = buf.getLong(8);
+        if (count < 0 || count > Integer.MAX_VALUE || HEADER + count * RECORD > buf.remaining()) {
+            throw new IOException("Truncated recording file: " + source);
+        }
+        ByteBuffer body = buf.position(HEADER).slice().order(ByteOrder.LITTLE_ENDIAN);
+        return new MovementBuffer(body, (int) count);
+    }
+}
@@ -0,0 +1,243 @@
+package turtlegraphics;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Deferred surface: drawing calls are only recorded, and the first read
+// rasterises everything at once. Segments are binned by the tiles they cross,
+// then the tiles are drawn concurrently on a ForkJoinPool, each with its own
+// Graphics2D, and copied into one image. Every tile replays its segments in
+// the original order, so the result is pixel-identical to drawing them one by
+// one onto a single image.
+public class ParallelSurface implements DrawingSurface {
+    public static final int DEFAULT_TILE_SIZE = 256;
+
+    private final int width, height, threads, tileSize;
+    private final DisplayList ops = new DisplayList();
+    private Color background = Color.BLACK;
+    private BufferedImage image;
+
+    public ParallelSurface(int width, int height, int threads) {
+        this(width, height, threads, DEFAULT_TILE_SIZE);
+    }
+
+    public ParallelSurface(int width, int height, int threads, int tileSize) {
+        if (width <= 0 || height <= 0) throw new IllegalArgumentException("Canvas size must be positive");
+        if (threads <= 0 || tileSize <= 0) throw new IllegalArgumentException("Threads and tile size must be positive");
+        this.width = width;
+        this.height = height;
+        this.threads = threads;
+        this.tileSize = tileSize;
+    }
+
+    public int getWidth() { return width; }
+    public int getHeight() { return height; }
+
+    // === Recording ===
+
+    public void clear(Color background) {
+        this.background = background;
+        ops.clear();
+        image = null;
+    }
+
+    public void drawLine(int x1, int y1, int x2, int y2, Color colour, int stroke) {
+        ops.addLine(x1, y1, x2, y2, colour.getRGB(), stroke);
+        image = null;
+    }
+
+    // The turtles only ever draw circles, which is all the display list holds
+    public void drawOval(int x, int y, int width, int height, Color colour, int stroke) {
+        if (width != height || (width & 1) != 0) throw new UnsupportedOperationException("Only circles can be deferred");
+        ops.addCircle(x + width / 2, y + height / 2, width / 2, colour.getRGB(), stroke);
+        image = null;
+    }
+
+    // === Reading ===
+
+    public void readRow(int y, int[] dst) {
+        image().getRGB(0, y, width, 1, dst, 0, width);
+    }
+
+    public BufferedImage toImage() { return image(); }
+
+    private BufferedImage image() {
+        if (image == null) image = render(ops, width, height, background, threads, tileSize);
+        return image;
+    }
+
+    public void dispose() {
+        ops.clear();
+        image = null;
+    }
+
+    // === Rasteriser ===
+
+    public static BufferedImage render(DisplayList list, int width, int height, Color background, int threads) {
+        return render(list, width, height, background, threads, DEFAULT_TILE_SIZE);
+    }
+
+    public static BufferedImage render(DisplayList list, int width, int height, Color background,
+                                       int threads, int tileSize) {
+        BufferedImage out = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Bins bins = new Bins(list, width, height, tileSize);
+        int[] pixels = ((DataBufferInt) out.getRaster().getDataBuffer()).getData();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.invoke(new TileTask(bins, list, pixels, background.getRGB() & 0xFFFFFF, 0, bins.tiles.length));
+        } finally {
+            pool.shutdown();
+        }
+        return out;
+    }
+
+    // Per tile, the (primitive, point) pairs that touch it, in drawing order;
+    // point is the end of a polyline segment, or -1 for a circle
+    private static class Bins {
+        final int width, height, tileSize, across, down;
+        final int[][] tiles;
+        final int[] counts;
+
+        Bins(DisplayList list, int width, int height, int tileSize) {
+            this.width = width;
+            this.height = height;
+            this.tileSize = tileSize;
+            across = (width + tileSize - 1) / tileSize;
+            down = (height + tileSize - 1) / tileSize;
+            tiles = new int[across * down][];
+            counts = new int[across * down];
+
+            Rectangle bounds = new Rectangle();
+            for (int i = 0, n = list.size(); i < n; i++) {
+                int pad = list.stroke(i) / 2 + 2;
+                if (list.kind(i) == DisplayList.CIRCLE) {
+                    int cx = list.x(i, 0), cy = list.y(i, 0), r = list.radius(i);
+                    for (int ty = tileY(cy - r - pad); ty <= tileY(cy + r + pad); ty++) {
+                        for (int tx = tileX(cx - r - pad); tx <= tileX(cx + r + pad); tx++) add(ty * across + tx, i, -1);
+                    }
+                    continue;
+                }
+                for (int p = 1, points = list.points(i); p < points; p++) {
+                    int x1 = list.x(i, p - 1), y1 = list.y(i, p - 1), x2 = list.x(i, p), y2 = list.y(i, p);
+                    int tx0 = tileX(Math.min(x1, x2) - pad), tx1 = tileX(Math.max(x1, x2) + pad);
+                    int ty0 = tileY(Math.min(y1, y2) - pad), ty1 = tileY(Math.max(y1, y2) + pad);
+                    for (int ty = ty0; ty <= ty1; ty++) {
+                        for (int tx = tx0; tx <= tx1; tx++) {
+                            if (tx0 != tx1 && ty0 != ty1) {
+                                bounds.setBounds(tx * tileSize - pad, ty * tileSize - pad, tileSize + 2 * pad, tileSize + 2 * pad);
+                                if (!bounds.intersectsLine(x1, y1, x2, y2)) continue;
+                            }
+                            add(ty * across + tx, i, p);
+                        }
+                    }
+                }
+            }
+        }
+
+        private int tileX(int x) { return Math.max(0, Math.min(across - 1, Math.floorDiv(x, tileSize))); }
+        private int tileY(int y) { return Math.max(0, Math.min(down - 1, Math.floorDiv(y, tileSize))); }
+
+        private void add(int tile, int primitive, int point) {
+            int[] items = tiles[tile];
+            int n = counts[tile];
+            if (items == null) items = tiles[tile] = new int[16];
+            else if (n + 2 > items.length) items = tiles[tile] = Arrays.copyOf(items, items.length * 2);
+            items[n] = primitive;
+            items[n + 1] = point;
+            counts[tile] = n + 2;
+        }
+    }
+
+    // One tile image per worker thread, reused for every tile it draws
+    private static class Scratch {
+        final int size;
+        final BufferedImage image;
+        final int[] pixels;
+
+        Scratch(int size) {
+            this.size = size;
+            image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+            pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        }
+    }
+
+    private static final ThreadLocal<Scratch> SCRATCH = new ThreadLocal<>();
+
+    private static class TileTask extends RecursiveAction {
+        private final Bins bins;
+        private final DisplayList list;
+        private final int[] out;
+        private final int background, from, to;
+
+        TileTask(Bins bins, DisplayList list, int[] out, int background, int from, int to) {
+            this.bins = bins;
+            this.list = list;
+            this.out = out;
+            this.background = background;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new TileTask(bins, list, out, background, from, mid),
+                        new TileTask(bins, list, out, background, mid, to));
+                return;
+            }
+            int tile = from, size = bins.tileSize;
+            int x0 = (tile % bins.across) * size, y0 = (tile / bins.across) * size;
+            int w = Math.min(size, bins.width - x0), h = Math.min(size, bins.height - y0);
+
+            if (bins.counts[tile] == 0) {
+                for (int y = 0; y < h; y++) {
+                    int row = (y0 + y) * bins.width + x0;
+                    Arrays.fill(out, row, row + w, background);
+                }
+                return;
+            }
+
+            Scratch scratch = SCRATCH.get();
+            if (scratch == null || scratch.size != size) SCRATCH.set(scratch = new Scratch(size));
+            int[] pixels = scratch.pixels;
+            Arrays.fill(pixels, background);
+            Graphics2D g = scratch.image.createGraphics();
+            g.translate(-x0, -y0);
+            draw(g, bins.tiles[tile], bins.counts[tile]);
+            g.dispose();
+
+            for (int y = 0; y < h; y++) {
+                System.arraycopy(pixels, y * size, out, (y0 + y) * bins.width + x0, w);
+            }
+        }
+
+        // Same calls, in the same order, as ImageSurface makes for the sequential path
+        private void draw(Graphics2D g, int[] items, int count) {
+            int argb = 0, stroke = 1;
+            boolean first = true;
+            for (int k = 0; k < count; k += 2) {
+                int i = items[k], p = items[k + 1];
+                if (first || list.argb(i) != argb) {
+                    argb = list.argb(i);
+                    g.setColor(new Color(argb, true));
+                }
+                if (first || list.stroke(i) != stroke) {
+                    stroke = list.stroke(i);
+                    g.setStroke(new BasicStroke(stroke));
+                }
+                first = false;
+                if (p < 0) {
+                    int r = list.radius(i);
+                    g.drawPolygon(DrawingSurface.ovalPolygon(list.x(i, 0) - r, list.y(i, 0) - r, r * 2, r * 2));
+                } else {
+                    g.drawLine(list.x(i, p - 1), list.y(i, p - 1), list.x(i, p), list.y(i, p));
+                }
+            }
+        }
+    }
+}
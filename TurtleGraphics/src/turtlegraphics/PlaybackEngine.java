@@ -0,0 +1,131 @@
+package turtlegraphics;
+
+import javax.swing.Timer;
+
+// Paces playback from a single Swing timer so every step runs on the EDT
+public class PlaybackEngine {
+    public static final int DEFAULT_FPS = 60;
+    private static final long FRAME_BUDGET_NANOS = 12_000_000L;
+
+    public interface Listener {
+        void beforeFrame();
+        void step(int index);
+        void afterFrame();
+        // Put the canvas back to how it was when playback started
+        void rewind();
+        void finished(boolean cancelled);
+    }
+
+    private final Listener listener;
+    private final Timer timer;
+    private int total, position, seekTarget;
+    private int delayMs;
+    private boolean instant, paused, running;
+    private double credit;
+    private long lastTick;
+
+    public PlaybackEngine(Listener listener) {
+        this(listener, DEFAULT_FPS);
+    }
+
+    public PlaybackEngine(Listener listener, int fps) {
+        this.listener = listener;
+        this.timer = new Timer(Math.max(1, 1000 / fps), e -> tick());
+        timer.setCoalesce(true);
+    }
+
+    // === Control ===
+
+    public void start(int movements, int delayMs) {
+        if (running) finish(true);
+        this.total = movements;
+        this.delayMs = delayMs;
+        position = 0;
+        seekTarget = 0;
+        credit = 0;
+        paused = false;
+        running = true;
+        lastTick = System.nanoTime();
+        if (instant) tick();
+        if (running) timer.start();
+    }
+
+    public void pause() {
+        if (!running) return;
+        paused = true;
+        timer.stop();
+    }
+
+    public void resume() {
+        if (!running || !paused) return;
+        paused = false;
+        lastTick = System.nanoTime();
+        timer.start();
+    }
+
+    public void cancel() {
+        if (running) finish(true);
+    }
+
+    public void seek(int index) {
+        if (!running) return;
+        index = Math.max(0, Math.min(index, total));
+        if (index < position) {
+            listener.rewind();
+            position = 0;
+        }
+        seekTarget = index;
+        if (!timer.isRunning()) timer.start();
+    }
+
+    public void setDelay(int delayMs) { this.delayMs = delayMs; }
+    public void setInstant(boolean instant) { this.instant = instant; }
+
+    public boolean isRunning() { return running; }
+    public boolean isPaused() { return paused; }
+    public boolean isInstant() { return instant; }
+    public int getPosition() { return position; }
+    public int getTotal() { return total; }
+
+    // === Frame loop ===
+
+    private void tick() {
+        if (!running) return;
+        long now = System.nanoTime();
+        boolean catchingUp = position < seekTarget;
+        if (paused && !catchingUp) {
+            timer.stop();
+            return;
+        }
+
+        int due;
+        if (instant || delayMs <= 0) {
+            due = total - position;
+        } else if (catchingUp) {
+            due = seekTarget - position;
+        } else {
+            credit = Math.min(credit + (now - lastTick) / 1_000_000.0 / delayMs, total);
+            due = (int) credit;
+            credit -= due;
+        }
+        lastTick = now;
+        if (due <= 0) return;
+
+        long deadline = now + FRAME_BUDGET_NANOS;
+        listener.beforeFrame();
+        for (int n = 1; n <= due && position < total; n++) {
+            listener.step(position++);
+            if ((n & 63) == 0 && System.nanoTime() > deadline) break;
+        }
+        listener.afterFrame();
+
+        if (position >= total) finish(false);
+    }
+
+    private void finish(boolean cancelled) {
+        timer.stop();
+        running = false;
+        paused = false;
+        listener.finished(cancelled);
+    }
+}
@@ -0,0 +1,184 @@
+package turtlegraphics;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+// Streaming 8-bit RGB PNG encoder; rows are filtered and deflated as they
+// arrive, so only two scanlines are ever held in memory
+public class PngWriter {
+    public static final int FILTER_NONE = 0;
+    public static final int FILTER_SUB = 1;
+    public static final int FILTER_UP = 2;
+    public static final int FILTER_AVERAGE = 3;
+    public static final int FILTER_PAETH = 4;
+    public static final int FILTER_ADAPTIVE = -1;
+
+    private static final byte[] SIGNATURE = {(byte) 137, 80, 78, 71, 13, 10, 26, 10};
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final DataOutputStream out;
+    private final int width, height, filter;
+    private final Deflater deflater;
+    private final DeflaterOutputStream idat;
+    private byte[] prev, cur;
+    private final byte[][] candidates;
+    private int rowsWritten;
+
+    public PngWriter(OutputStream out, int width, int height) throws IOException {
+        this(out, width, height, Deflater.DEFAULT_COMPRESSION, FILTER_ADAPTIVE);
+    }
+
+    public PngWriter(OutputStream out, int width, int height, int level, int filter) throws IOException {
+        if (width <= 0 || height <= 0) throw new IllegalArgumentException("Empty image");
+        if (filter < FILTER_ADAPTIVE || filter > FILTER_PAETH) throw new IllegalArgumentException("Unknown filter " + filter);
+        this.out = new DataOutputStream(out);
+        this.width = width;
+        this.height = height;
+        this.filter = filter;
+        prev = new byte[width * 3];
+        cur = new byte[width * 3];
+        candidates = new byte[filter == FILTER_ADAPTIVE ? 5 : 1][1 + width * 3];
+
+        this.out.write(SIGNATURE);
+        ByteArrayOutputStream header = new ByteArrayOutputStream(13);
+        DataOutputStream h = new DataOutputStream(header);
+        h.writeInt(width);
+        h.writeInt(height);
+        h.writeByte(8);    // bit depth
+        h.writeByte(2);    // truecolour
+        h.writeByte(0);    // deflate
+        h.writeByte(0);    // adaptive filtering
+        h.writeByte(0);    // no interlace
+        chunk("IHDR", header.toByteArray(), 0, 13);
+
+        deflater = new Deflater(level);
+        idat = new DeflaterOutputStream(new ChunkStream(), deflater, CHUNK_SIZE);
+    }
+
+    // Takes width pixels of 0xRRGGBB starting at offset
+    public void writeRow(int[] rgb, int offset) throws IOException {
+        if (rowsWritten == height) throw new IllegalStateException("All rows already written");
+        for (int x = 0, i = 0; x < width; x++) {
+            int p = rgb[offset + x];
+            cur[i++] = (byte) (p >> 16);
+            cur[i++] = (byte) (p >> 8);
+            cur[i++] = (byte) p;
+        }
+
+        byte[] row;
+        if (filter == FILTER_ADAPTIVE) {
+            // Pick the filter with the smallest sum of absolute residuals
+            row = null;
+            long best = Long.MAX_VALUE;
+            for (int f = FILTER_NONE; f <= FILTER_PAETH; f++) {
+                long cost = applyFilter(f, candidates[f]);
+                if (cost < best) {
+                    best = cost;
+                    row = candidates[f];
+                }
+            }
+        } else {
+            applyFilter(filter, candidates[0]);
+            row = candidates[0];
+        }
+        idat.write(row);
+
+        byte[] t = prev;
+        prev = cur;
+        cur = t;
+        rowsWritten++;
+    }
+
+    public void writeRow(int[] rgb) throws IOException {
+        writeRow(rgb, 0);
+    }
+
+    public void finish() throws IOException {
+        if (rowsWritten != height) throw new IllegalStateException("Only " + rowsWritten + " of " + height + " rows written");
+        idat.finish();
+        deflater.end();
+        chunk("IEND", new byte[0], 0, 0);
+        out.flush();
+    }
+
+    // One loop per filter type keeps the filter choice out of the per-byte
+    // work; the returned cost is the sum of absolute residuals used by FILTER_ADAPTIVE
+    private long applyFilter(int type, byte[] dst) {
+        byte[] x = cur, up = prev;
+        int n = x.length;
+        dst[0] = (byte) type;
+        long cost = 0;
+        switch (type) {
+            case FILTER_SUB -> {
+                for (int i = 0; i < n; i++) {
+                    byte v = (byte) (x[i] - (i >= 3 ? x[i - 3] : 0));
+                    dst[i + 1] = v;
+                    cost += Math.abs(v);
+                }
+            }
+            case FILTER_UP -> {
+                for (int i = 0; i < n; i++) {
+                    byte v = (byte) (x[i] - up[i]);
+                    dst[i + 1] = v;
+                    cost += Math.abs(v);
+                }
+            }
+            case FILTER_AVERAGE -> {
+                for (int i = 0; i < n; i++) {
+                    int a = i >= 3 ? x[i - 3] & 0xFF : 0;
+                    byte v = (byte) (x[i] - ((a + (up[i] & 0xFF)) >> 1));
+                    dst[i + 1] = v;
+                    cost += Math.abs(v);
+                }
+            }
+            case FILTER_PAETH -> {
+                for (int i = 0; i < n; i++) {
+                    int a = i >= 3 ? x[i - 3] & 0xFF : 0, c = i >= 3 ? up[i - 3] & 0xFF : 0;
+                    byte v = (byte) (x[i] - paeth(a, up[i] & 0xFF, c));
+                    dst[i + 1] = v;
+                    cost += Math.abs(v);
+                }
+            }
+            default -> {
+                System.arraycopy(x, 0, dst, 1, n);
+                for (int i = 0; i < n; i++) cost += Math.abs(x[i]);
+            }
+        }
+        return cost;
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a), pb = Math.abs(p - b), pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) return a;
+        return pb <= pc ? b : c;
+    }
+
+    private void chunk(String type, byte[] data, int offset, int length) throws IOException {
+        byte[] name = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(name);
+        crc.update(data, offset, length);
+        out.writeInt(length);
+        out.write(name);
+        out.write(data, offset, length);
+        out.writeInt((int) crc.getValue());
+    }
+
+    // Every block the deflater flushes becomes one IDAT chunk
+    private class ChunkStream extends OutputStream {
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len > 0) chunk("IDAT", b, off, len);
+        }
+    }
+}
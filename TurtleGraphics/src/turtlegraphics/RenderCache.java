@@ -0,0 +1,526 @@
+package turtlegraphics;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import static turtlegraphics.CompiledScript.*;
+
+// Remembers what scripts drew. Keys are SHA-256 hashes of the turtle's
+// starting state followed by the compiled code, which is the script with
+// whitespace, comments, case and constant arithmetic already normalised away.
+// A key is taken at the first statement boundary after every STRIDE ints of
+// code, and snapshots of the turtle are kept at some of those boundaries while
+// a script runs. Rendering a script again restores the snapshot at its end;
+// a script that shares a prefix with one rendered before restores the longest
+// cached prefix and runs only the statements after it.
+//
+// A snapshot holds the pixels, pose and pen, display list, recording,
+// obstacles, variables and failure count; procedures are registered again
+// from the prefix's definitions, and messages are not kept. It relies on the
+// canvas showing exactly what the display list says, as it does for a
+// HeadlessTurtle only ever drawn on by its commands.
+//
+// Memory is an LRU bounded by bytes. The optional disk tier keeps one
+// deflated file per snapshot, bounded by bytes and evicted by last use, and is
+// written in the background.
+public class RenderCache implements AutoCloseable {
+    private static final int STRIDE = 256;
+    // Snapshots are at least this far apart in running time, and further
+    // apart the longer the script has run, so a long script keeps only a few
+    private static final long MIN_SPACING = TimeUnit.MILLISECONDS.toNanos(20);
+    private static final int MAGIC = 0x54475243; // "TGRC"
+    private static final String SUFFIX = ".tgr";
+    // Raised whenever the same script starts drawing differently, e.g. circles
+    // centred ahead of the turtle (2), moves ending inside an obstacle (3)
+    private static final int DRAWING = 3;
+    // Opcodes as this build numbers them, so a disk tier never outlives a change to them
+    private static final byte[] FORMAT = (MAGIC + ":" + DRAWING + String.join(",", NAMES) + Arrays.toString(OPERANDS))
+            .getBytes(StandardCharsets.UTF_8);
+
+    private static final LongAdder HITS = Metrics.counter("cache.hits");
+    private static final LongAdder PREFIX_HITS = Metrics.counter("cache.prefixHits");
+    private static final LongAdder MISSES = Metrics.counter("cache.misses");
+    private static final LongAdder STORES = Metrics.counter("cache.stores");
+    private static final LongAdder EVICTIONS = Metrics.counter("cache.evictions");
+    private static final LongAdder DISK_READS = Metrics.counter("cache.diskReads");
+
+    private final long memoryLimit;
+    private final LinkedHashMap<String, Snapshot> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private long memoryBytes;
+
+    private final Path dir;
+    private final long diskLimit;
+    private final LinkedHashMap<String, Long> disk = new LinkedHashMap<>(16, 0.75f, true);
+    private long diskBytes;
+    private final ExecutorService writer;
+
+    public RenderCache(long memoryLimit) {
+        this.memoryLimit = memoryLimit;
+        this.dir = null;
+        this.diskLimit = 0;
+        this.writer = null;
+    }
+
+    // Picks up the snapshots already in dir, oldest use first
+    public RenderCache(long memoryLimit, Path dir, long diskLimit) throws IOException {
+        this.memoryLimit = memoryLimit;
+        this.dir = dir;
+        this.diskLimit = diskLimit;
+        Files.createDirectories(dir);
+        List<Path> files;
+        try (Stream<Path> list = Files.list(dir)) {
+            files = list.filter(p -> p.getFileName().toString().endsWith(SUFFIX)).toList();
+        }
+        record Entry(Path file, long size, long used) { }
+        List<Entry> entries = new ArrayList<>();
+        for (Path file : files) {
+            entries.add(new Entry(file, Files.size(file), Files.getLastModifiedTime(file).toMillis()));
+        }
+        entries.sort(Comparator.comparingLong(Entry::used));
+        synchronized (this) {
+            for (Entry e : entries) {
+                String name = e.file.getFileName().toString();
+                disk.put(name.substring(0, name.length() - SUFFIX.length()), e.size);
+                diskBytes += e.size;
+            }
+            evictDisk();
+        }
+        writer = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "render-cache");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // From the command line's --cache, --cache-dir and --cache-disk, in megabytes;
+    // null when neither a memory size nor a directory was given
+    static RenderCache open(long memoryMegabytes, String dir, long diskMegabytes) throws IOException {
+        if (memoryMegabytes <= 0 && dir == null) return null;
+        long memory = (memoryMegabytes > 0 ? memoryMegabytes : 64) << 20;
+        return dir == null ? new RenderCache(memory) : new RenderCache(memory, Paths.get(dir), diskMegabytes << 20);
+    }
+
+    // === Rendering ===
+
+    // Runs the script on the turtle as ScriptExecutor would, in a fresh context,
+    // taking whatever it can from the cache. Turtles that are not drawing onto
+    // an ImageSurface, or are recording, are run uncached
+    public int execute(CompiledScript program, HeadlessTurtle turtle) {
+        ScriptContext context = new ScriptContext();
+        if (!cacheable(turtle)) return ScriptExecutor.execute(program, turtle, context);
+        BufferedImage image = turtle.getSurface().toImage();
+
+        // Boundaries worth a key, and the key of everything before each one
+        Hasher hasher = new Hasher();
+        seed(hasher, turtle, image);
+        int[] cuts = new int[program.statements.length + 1];
+        String[] keys = new String[cuts.length];
+        int n = 0, last = 0;
+        int[] statements = program.statements;
+        boolean files = false;
+        for (int i = 0; i < statements.length && !files; i++) {
+            int end = i + 1 < statements.length ? statements[i + 1] : program.length;
+            for (int pc = statements[i]; pc < end; pc += 1 + OPERANDS[program.code[pc]]) files |= hash(hasher, program, pc);
+            // Nothing after a file is read or written is cached: its contents are
+            // not part of the key, and a write skipped by a hit would be lost
+            if (!files && (end - last >= STRIDE || end == program.length)) {
+                cuts[n] = end;
+                keys[n++] = hasher.key();
+                last = end;
+            }
+        }
+
+        // The longest prefix already rendered
+        int from = 0, next = 0;
+        long failures = 0;
+        for (int c = n - 1; c >= 0; c--) {
+            Snapshot hit = find(keys[c]);
+            if (hit == null) continue;
+            restore(hit, turtle, image, context, program, cuts[c]);
+            from = cuts[c];
+            next = c + 1;
+            failures = hit.failures;
+            break;
+        }
+        if (from == program.length && n > 0) {
+            HITS.increment();
+            return (int) failures;
+        }
+        (from > 0 ? PREFIX_HITS : MISSES).increment();
+
+        // The rest, a boundary at a time, keeping snapshots along the way
+        long start = System.nanoTime(), lastSnapshot = start;
+        for (int c = next; c < n; c++) {
+            long result = ScriptExecutor.run(program, turtle, context, from, cuts[c]);
+            failures += (int) result;
+            from = cuts[c];
+            // A script that stopped early would not have run the rest uncached either
+            if ((result & ScriptExecutor.STOPPED) != 0 || Thread.currentThread().isInterrupted()) {
+                return (int) failures;
+            }
+            long now = System.nanoTime();
+            if ((from == program.length || now - lastSnapshot >= Math.max(MIN_SPACING, (now - start) / 4))
+                    && cacheable(turtle)) {
+                store(keys[c], capture(turtle, image, context, (int) failures));
+                lastSnapshot = now;
+            }
+        }
+        if (from < program.length) failures += ScriptExecutor.execute(program, turtle, context, from, program.length);
+        return (int) failures;
+    }
+
+    private static boolean cacheable(HeadlessTurtle turtle) {
+        return turtle.getSurface() instanceof ImageSurface && !turtle.isRecording()
+                && turtle.getObstacleIndex() instanceof GridIndex;
+    }
+
+    // === Keys ===
+
+    private static final class Hasher {
+        private final MessageDigest sha;
+        private final ByteBuffer buf = ByteBuffer.allocate(8192);
+
+        Hasher() {
+            try {
+                sha = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        void putInt(int v) {
+            if (buf.remaining() < 4) flush();
+            buf.putInt(v);
+        }
+
+        void put(byte[] bytes) {
+            putInt(bytes.length);
+            flush();
+            sha.update(bytes);
+        }
+
+        void flush() {
+            sha.update(buf.array(), 0, buf.position());
+            buf.clear();
+        }
+
+        // The hash so far; hashing carries on from here
+        String key() {
+            flush();
+            try {
+                return HexFormat.of().formatHex(((MessageDigest) sha.clone()).digest());
+            } catch (CloneNotSupportedException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private static void seed(Hasher h, HeadlessTurtle turtle, BufferedImage image) {
+        h.put(FORMAT);
+        h.putInt(image.getWidth());
+        h.putInt(image.getHeight());
+        h.putInt(image.getType());
+        for (int v : turtle.getState()) h.putInt(v);
+        DisplayList drawing = turtle.getDisplayList();
+        ByteBuffer encoded = ByteBuffer.allocate(drawing.encodedSize());
+        drawing.encode(encoded);
+        h.put(encoded.array());
+        SpatialIndex obstacles = turtle.getObstacleIndex();
+        h.putInt(obstacles.size());
+        for (int i = 0; i < obstacles.size(); i++) {
+            h.putInt(obstacles.x(i));
+            h.putInt(obstacles.y(i));
+        }
+        h.put(recordingBytes(turtle.getRecording()));
+    }
+
+    // Messages are hashed by their text and traces by their points, as the
+    // operands only index into the rest of the script. True for an
+    // instruction that reads or writes a file
+    private static boolean hash(Hasher h, CompiledScript program, int pc) {
+        int op = program.code[pc];
+        h.putInt(op);
+        for (int i = 1; i <= OPERANDS[op]; i++) h.putInt(program.code[pc + i]);
+        switch (op) {
+            case ERROR -> h.put(program.strings[program.code[pc + 1]].getBytes(StandardCharsets.UTF_8));
+            case TRACE -> {
+                for (int i = 0, offset = program.code[pc + 1]; i < program.code[pc + 2]; i++) {
+                    h.putInt(program.data[offset + i]);
+                }
+            }
+            case OBSTACLES, SAVERECORDING, LOADRECORDING, EXPORT, SAVESESSION, LOADSESSION -> {
+                return true;
+            }
+            default -> { }
+        }
+        return false;
+    }
+
+    // === Snapshots ===
+
+    private static final class Snapshot {
+        final int width, height, failures;
+        final int[] pixels, state, globals, obstacles;
+        final DisplayList drawing;
+        final byte[] recording;
+        final long bytes;
+
+        Snapshot(int width, int height, int failures, int[] pixels, int[] state, int[] globals,
+                 int[] obstacles, DisplayList drawing, byte[] recording) {
+            this.width = width; this.height = height; this.failures = failures;
+            this.pixels = pixels; this.state = state; this.globals = globals; this.obstacles = obstacles;
+            this.drawing = drawing; this.recording = recording;
+            bytes = 256 + pixels.length * 4L + globals.length * 4L + obstacles.length * 4L
+                    + drawing.encodedSize() + recording.length;
+        }
+    }
+
+    private static Snapshot capture(HeadlessTurtle turtle, BufferedImage image, ScriptContext context, int failures) {
+        SpatialIndex index = turtle.getObstacleIndex();
+        int[] obstacles = new int[index.size() * 2];
+        for (int i = 0; i < index.size(); i++) {
+            obstacles[i * 2] = index.x(i);
+            obstacles[i * 2 + 1] = index.y(i);
+        }
+        DisplayList drawing = turtle.getDisplayList();
+        return new Snapshot(image.getWidth(), image.getHeight(), failures, ImageExporter.snapshot(image),
+                turtle.getState(), context.saveVariables(), obstacles, drawing.copy(drawing.mark()),
+                recordingBytes(turtle.getRecording()));
+    }
+
+    private static byte[] recordingBytes(MovementBuffer recording) {
+        if (recording.size() == 0) return new byte[0];
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            recording.write(Channels.newChannel(out));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // cannot happen writing to memory
+        }
+        return out.toByteArray();
+    }
+
+    // Leaves the turtle and context as running the script up to cut would have
+    private static void restore(Snapshot s, HeadlessTurtle turtle, BufferedImage image, ScriptContext context,
+                                CompiledScript program, int cut) {
+        if (image.getRaster().getDataBuffer() instanceof DataBufferInt data
+                && data.getData().length == s.pixels.length && image.getRaster().getSampleModelTranslateX() == 0) {
+            System.arraycopy(s.pixels, 0, data.getData(), 0, s.pixels.length);
+        } else {
+            image.setRGB(0, 0, s.width, s.height, s.pixels, 0, s.width);
+        }
+
+        GridIndex obstacles = new GridIndex(Math.max(16, s.obstacles.length / 2));
+        for (int i = 0; i < s.obstacles.length; i += 2) obstacles.add(s.obstacles[i], s.obstacles[i + 1]);
+        MovementBuffer recording;
+        try {
+            recording = s.recording.length == 0 ? new MovementBuffer()
+                    : MovementBuffer.wrap(ByteBuffer.wrap(s.recording), "render cache");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        turtle.restoreState(s.state.clone(), s.drawing.copy(s.drawing.mark()), recording, obstacles);
+        context.restoreVariables(s.globals);
+
+        // Procedures are defined by top-level statements, and defining one runs nothing
+        for (int st : program.statements) {
+            if (st >= cut) break;
+            if (program.code[st] == DEFINE) ScriptExecutor.execute(program, turtle, context, st, st + 1 + OPERANDS[DEFINE]);
+        }
+    }
+
+    // === Tiers ===
+
+    private Snapshot find(String key) {
+        synchronized (this) {
+            Snapshot s = memory.get(key);
+            if (s != null || dir == null || !disk.containsKey(key)) return s;
+        }
+        Path file = dir.resolve(key + SUFFIX);
+        try {
+            Snapshot s = read(file);
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            DISK_READS.increment();
+            putMemory(key, s);
+            return s;
+        } catch (IOException | RuntimeException e) {
+            // Unreadable, or removed under us: forget it
+            synchronized (this) {
+                Long size = disk.remove(key);
+                if (size != null) diskBytes -= size;
+            }
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException ignored) { }
+            return null;
+        }
+    }
+
+    private void store(String key, Snapshot s) {
+        STORES.increment();
+        putMemory(key, s);
+        if (dir == null) return;
+        synchronized (this) {
+            if (disk.containsKey(key)) return;
+            disk.put(key, 0L); // claimed; sized once written
+        }
+        writer.execute(() -> {
+            Path file = dir.resolve(key + SUFFIX);
+            try {
+                long size = write(file, s);
+                synchronized (this) {
+                    if (disk.replace(key, size) != null) diskBytes += size;
+                    evictDisk();
+                }
+            } catch (IOException e) {
+                synchronized (this) {
+                    disk.remove(key);
+                }
+            }
+        });
+    }
+
+    private synchronized void putMemory(String key, Snapshot s) {
+        if (s.bytes > memoryLimit) return;
+        Snapshot old = memory.put(key, s);
+        if (old != null) memoryBytes -= old.bytes;
+        memoryBytes += s.bytes;
+        Iterator<Snapshot> it = memory.values().iterator();
+        while (memoryBytes > memoryLimit && it.hasNext()) {
+            memoryBytes -= it.next().bytes;
+            it.remove();
+            EVICTIONS.increment();
+        }
+    }
+
+    // Caller holds the lock
+    private void evictDisk() {
+        Iterator<Map.Entry<String, Long>> it = disk.entrySet().iterator();
+        while (diskBytes > diskLimit && it.hasNext()) {
+            Map.Entry<String, Long> e = it.next();
+            if (e.getValue() == 0) continue; // still being written
+            diskBytes -= e.getValue();
+            it.remove();
+            EVICTIONS.increment();
+            try {
+                Files.deleteIfExists(dir.resolve(e.getKey() + SUFFIX));
+            } catch (IOException ignored) { }
+        }
+    }
+
+    // === Disk format: deflated, ints little-endian ===
+
+    private static long write(Path file, Snapshot s) throws IOException {
+        Path partial = file.resolveSibling(file.getFileName() + ".part");
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new DeflaterOutputStream(Files.newOutputStream(partial), deflater, 1 << 16)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(s.width);
+            out.writeInt(s.height);
+            out.writeInt(s.failures);
+            writeInts(out, s.state);
+            writeInts(out, s.globals);
+            writeInts(out, s.obstacles);
+            writeInts(out, s.pixels);
+            ByteBuffer drawing = ByteBuffer.allocate(s.drawing.encodedSize());
+            s.drawing.encode(drawing);
+            out.writeInt(drawing.capacity());
+            out.write(drawing.array());
+            out.writeInt(s.recording.length);
+            out.write(s.recording);
+        } catch (IOException e) {
+            Files.deleteIfExists(partial);
+            throw e;
+        } finally {
+            deflater.end();
+        }
+        Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return Files.size(file);
+    }
+
+    private static Snapshot read(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new InflaterInputStream(Files.newInputStream(file)), 1 << 16))) {
+            if (in.readInt() != MAGIC) throw new IOException("Not a render cache file: " + file);
+            int width = in.readInt(), height = in.readInt(), failures = in.readInt();
+            int[] state = readInts(in), globals = readInts(in), obstacles = readInts(in), pixels = readInts(in);
+            if (state.length != HeadlessTurtle.STATE_SIZE || pixels.length != width * height) throw new IOException("Corrupt render cache file: " + file);
+            DisplayList drawing = DisplayList.decode(ByteBuffer.wrap(readBytes(in)));
+            byte[] recording = readBytes(in);
+            return new Snapshot(width, height, failures, pixels, state, globals, obstacles, drawing, recording);
+        }
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(values.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+        buf.asIntBuffer().put(values);
+        out.writeInt(values.length);
+        out.write(buf.array());
+    }
+
+    private static int[] readInts(DataInputStream in) throws IOException {
+        byte[] bytes = readBytes(in, 4);
+        int[] values = new int[bytes.length / 4];
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(values);
+        return values;
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        return readBytes(in, 1);
+    }
+
+    // A count of items of the given size, then the items
+    private static byte[] readBytes(DataInputStream in, int size) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || (long) count * size > Integer.MAX_VALUE - 8) throw new IOException("Corrupt render cache file");
+        byte[] bytes = new byte[count * size];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    // === Stats ===
+
+    public synchronized int getMemoryEntries() { return memory.size(); }
+    public synchronized long getMemoryBytes() { return memoryBytes; }
+    public synchronized int getDiskEntries() { return disk.size(); }
+    public synchronized long getDiskBytes() { return diskBytes; }
+
+    public String getStats() {
+        long hits = HITS.sum(), prefix = PREFIX_HITS.sum(), misses = MISSES.sum();
+        long total = Math.max(1, hits + prefix + misses);
+        return String.format("cache: %d hits, %d prefix hits, %d misses (%.0f%% reused), "
+                        + "memory %d entries %d KB, disk %d entries %d KB, %d evictions",
+                hits, prefix, misses, 100.0 * (hits + prefix) / total, getMemoryEntries(), getMemoryBytes() / 1024,
+                getDiskEntries(), getDiskBytes() / 1024, EVICTIONS.sum());
+    }
+
+    // Waits for snapshots still being written to disk
+    @Override
+    public void close() {
+        if (writer == null) return;
+        writer.shutdown();
+        try {
+            while (!writer.awaitTermination(1, TimeUnit.SECONDS)) { }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,368 @@
+package turtlegraphics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
+
+// Renders scripts for other processes over HTTP, without a window:
+//
+//   POST /render?size=800x400   script in the body, PNG streamed back
+//   GET  /status                queue depth, limits and totals as text
+//
+// Connections are handled on virtual threads, which spend their time waiting
+// on sockets; scripts run on a fixed pool of `workers` platform threads, as a
+// long loop would otherwise hold a carrier thread and starve the handlers.
+// Up to `queue` scripts wait for a worker, and beyond that requests are
+// turned away with 503 straight away. Each request has a time
+// limit from arrival to the last pixel drawn (504 when it runs out), and
+// scripts, canvases and the number of moves are capped. Canvases are pooled
+// by size and reused. Scripts cannot touch files.
+public class RenderServer implements AutoCloseable {
+    public static final int DEFAULT_PORT = 8765;
+
+    private static final LongAdder REQUESTS = Metrics.counter("server.requests");
+    private static final LongAdder REJECTED = Metrics.counter("server.rejected");
+    private static final LongAdder TIMEOUTS = Metrics.counter("server.timeouts");
+    private static final LongAdder REUSED = Metrics.counter("server.canvasReused");
+    private static final LatencyHistogram RENDER = Metrics.latency("server.render");
+
+    // Limits; set before start()
+    private int workers = Runtime.getRuntime().availableProcessors();
+    private int queue = 64;
+    private long timeoutMillis = 10_000;
+    private int maxScriptBytes = 1 << 20;
+    private int maxWidth = 4096, maxHeight = 4096;
+    private long maxMoves = 5_000_000;
+    private RenderCache cache;
+
+    private HttpServer server;
+    private ThreadPoolExecutor renderers;
+    private final LongAdder completed = new LongAdder();
+
+    // Free canvases by width and height, a few of each size
+    private final ConcurrentHashMap<Long, ArrayBlockingQueue<BufferedImage>> canvases = new ConcurrentHashMap<>();
+
+    public void setWorkers(int workers) { this.workers = (int) positive(workers, "Workers"); }
+    public void setQueue(int queue) { this.queue = Math.max(0, queue); }
+    public void setTimeoutMillis(long millis) { this.timeoutMillis = positive(millis, "Timeout"); }
+    public void setMaxScriptBytes(int bytes) { this.maxScriptBytes = (int) positive(bytes, "Script limit"); }
+    public void setMaxMoves(long moves) { this.maxMoves = positive(moves, "Move limit"); }
+
+    // Repeated scripts, and scripts sharing a start, reuse earlier renders
+    public void setCache(RenderCache cache) { this.cache = cache; }
+
+    public void setMaxSize(int width, int height) {
+        maxWidth = (int) positive(width, "Width");
+        maxHeight = (int) positive(height, "Height");
+    }
+
+    private static long positive(long value, String what) {
+        if (value <= 0) throw new IllegalArgumentException(what + " must be positive: " + value);
+        return value;
+    }
+
+    // === Lifecycle ===
+
+    // Port 0 picks a free one; see getPort()
+    public void start(InetAddress address, int port) throws IOException {
+        AtomicInteger threads = new AtomicInteger();
+        renderers = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+                queue > 0 ? new ArrayBlockingQueue<>(queue) : new SynchronousQueue<>(), r -> {
+                    Thread t = new Thread(r, "render-" + threads.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        server = HttpServer.create(new InetSocketAddress(address, port), 128);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/render", this::render);
+        server.createContext("/status", this::status);
+        server.start();
+    }
+
+    public int getPort() { return server.getAddress().getPort(); }
+
+    // Scripts waiting for a worker
+    public int getQueueDepth() { return renderers.getQueue().size(); }
+
+    @Override
+    public void close() {
+        if (server != null) server.stop(1);
+        if (renderers != null) renderers.shutdownNow();
+    }
+
+    // === Requests ===
+
+    private void render(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            REQUESTS.increment();
+            if (!exchange.getRequestMethod().equals("POST")) {
+                send(exchange, 405, "POST a script to /render");
+                return;
+            }
+            int width, height;
+            try {
+                String size = query(exchange.getRequestURI(), "size");
+                int[] wh = size != null ? HeadlessRenderer.parseSize(size)
+                        : new int[] {HeadlessTurtle.DEFAULT_WIDTH, HeadlessTurtle.DEFAULT_HEIGHT};
+                width = wh[0];
+                height = wh[1];
+            } catch (IllegalArgumentException e) {
+                send(exchange, 400, e.getMessage());
+                return;
+            }
+            if (width > maxWidth || height > maxHeight) {
+                send(exchange, 413, "Canvas is limited to " + maxWidth + "x" + maxHeight);
+                return;
+            }
+            byte[] script = readLimited(exchange.getRequestBody(), maxScriptBytes);
+            if (script == null) {
+                send(exchange, 413, "Script is limited to " + maxScriptBytes + " bytes");
+                return;
+            }
+
+            FutureTask<Rendered> task = new FutureTask<>(() -> draw(script, width, height));
+            try {
+                renderers.execute(task);
+            } catch (RejectedExecutionException e) {
+                REJECTED.increment();
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                send(exchange, 503, "Server busy: " + getQueueDepth() + " scripts queued");
+                return;
+            }
+            Rendered result;
+            try {
+                result = task.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                cancel(task);
+                TIMEOUTS.increment();
+                send(exchange, 504, "Render took longer than " + timeoutMillis + " ms");
+                return;
+            } catch (InterruptedException | ExecutionException e) {
+                cancel(task);
+                send(exchange, 500, "Render failed: " + e.getMessage());
+                return;
+            }
+            stream(exchange, result);
+        }
+    }
+
+    // Interrupts a running script, which stops at its next loop or call, and
+    // frees a queued one's place
+    private void cancel(FutureTask<Rendered> task) {
+        task.cancel(true);
+        renderers.remove(task);
+    }
+
+    private record Rendered(SandboxTurtle turtle, BufferedImage canvas, int errors, long nanos) { }
+
+    private Rendered draw(byte[] script, int width, int height) throws IOException {
+        long start = System.nanoTime();
+        BufferedImage canvas = acquire(width, height);
+        try {
+            SandboxTurtle turtle = new SandboxTurtle(new ImageSurface(canvas), maxMoves);
+            CompiledScript program = ScriptCompiler.compile(new ByteArrayInputStream(script));
+            int errors = cache != null ? cache.execute(program, turtle) : ScriptExecutor.execute(program, turtle);
+            long nanos = System.nanoTime() - start;
+            RENDER.record(nanos);
+            completed.increment();
+            return new Rendered(turtle, canvas, errors, nanos);
+        } catch (Throwable e) {
+            release(canvas);
+            throw e;
+        }
+    }
+
+    // The PNG is encoded row by row straight into the response
+    private void stream(HttpExchange exchange, Rendered result) throws IOException {
+        try {
+            var headers = exchange.getResponseHeaders();
+            headers.set("Content-Type", "image/png");
+            headers.set("X-Script-Errors", Integer.toString(result.errors));
+            headers.set("X-Render-Millis", Long.toString(TimeUnit.NANOSECONDS.toMillis(result.nanos)));
+            headers.set("X-Queue-Depth", Integer.toString(getQueueDepth()));
+            if (result.turtle.stopped) headers.set("X-Move-Limit", Long.toString(maxMoves));
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream body = exchange.getResponseBody()) {
+                result.turtle.getSurface().writePng(body, Deflater.BEST_SPEED, PngWriter.FILTER_ADAPTIVE);
+            }
+        } finally {
+            result.turtle.getSurface().dispose();
+            release(result.canvas);
+        }
+    }
+
+    private void status(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            int pooled = 0;
+            for (ArrayBlockingQueue<BufferedImage> free : canvases.values()) pooled += free.size();
+            send(exchange, 200, "queued " + getQueueDepth() + "\n"
+                    + "rendering " + renderers.getActiveCount() + "\n"
+                    + "workers " + workers + "\n"
+                    + "queueLimit " + queue + "\n"
+                    + "completed " + completed.sum() + "\n"
+                    + "rejected " + REJECTED.sum() + "\n"
+                    + "timeouts " + TIMEOUTS.sum() + "\n"
+                    + "pooledCanvases " + pooled + "\n"
+                    + (cache != null ? cache.getStats() + "\n" : ""));
+        }
+    }
+
+    private static void send(HttpExchange exchange, int code, String text) throws IOException {
+        byte[] bytes = (text + (text.endsWith("\n") ? "" : "\n")).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(code, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    private static String query(URI uri, String name) {
+        String query = uri.getRawQuery();
+        if (query == null) return null;
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0 && pair.substring(0, eq).equals(name)) return pair.substring(eq + 1);
+        }
+        return null;
+    }
+
+    // Null when the body is longer than limit
+    private static byte[] readLimited(InputStream in, int limit) throws IOException {
+        byte[] body = in.readNBytes(limit);
+        return in.read() < 0 ? body : null;
+    }
+
+    // === Canvas pool ===
+
+    private BufferedImage acquire(int width, int height) {
+        ArrayBlockingQueue<BufferedImage> free = canvases.get(key(width, height));
+        BufferedImage canvas = free != null ? free.poll() : null;
+        if (canvas == null) return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        REUSED.increment();
+        return canvas;
+    }
+
+    // Keeps at most one canvas per worker for each size; the turtle clears it on reuse
+    private void release(BufferedImage canvas) {
+        canvases.computeIfAbsent(key(canvas.getWidth(), canvas.getHeight()), k -> new ArrayBlockingQueue<>(workers))
+                .offer(canvas);
+    }
+
+    private static long key(int width, int height) {
+        return (long) width << 32 | height;
+    }
+
+    // === Sandbox ===
+
+    // A headless turtle that cannot reach the file system and stops its script
+    // after maxMoves moves, so a request cannot fill the heap before its time is up
+    private static class SandboxTurtle extends HeadlessTurtle {
+        private static final int MAX_MESSAGES = 100;
+        private final long maxMoves;
+        private long moves;
+        private int messages;
+        volatile boolean stopped;
+
+        SandboxTurtle(DrawingSurface surface, long maxMoves) {
+            super(surface);
+            this.maxMoves = maxMoves;
+        }
+
+        @Override
+        public void moveTo(int newX, int newY) {
+            count(1);
+            super.moveTo(newX, newY);
+        }
+
+        // A circle costs about a move per few pixels of its circumference
+        @Override
+        public void drawCircle(int radius) {
+            if (radius > getSurface().getWidth() + getSurface().getHeight()) {
+                throw new IllegalArgumentException("Circle larger than the canvas");
+            }
+            count(1 + Math.max(0, radius) / 16);
+            super.drawCircle(radius);
+        }
+
+        private void count(long cost) {
+            moves += cost;
+            if (moves > maxMoves) {
+                stopped = true;
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("More than " + maxMoves + " moves");
+            }
+        }
+
+        @Override
+        public void displayMessage(String message) {
+            if (messages++ < MAX_MESSAGES) super.displayMessage(message);
+        }
+
+        public void saveRecording(Path file) { throw noFiles(); }
+        public void loadRecording(Path file) { throw noFiles(); }
+        public void loadObstacles(Path file) { throw noFiles(); }
+        public void exportDrawing(Path file, int scale) { throw noFiles(); }
+
+        private static UnsupportedOperationException noFiles() {
+            return new UnsupportedOperationException("Files are not available on the render server");
+        }
+    }
+
+    // === Command line ===
+
+    public static void run(String[] args) throws IOException {
+        RenderServer server = new RenderServer();
+        InetAddress address = InetAddress.getLoopbackAddress();
+        int port = DEFAULT_PORT;
+        List<String> positional = new ArrayList<>();
+        long cacheMegabytes = 0, cacheDiskMegabytes = 256;
+        String cacheDir = null;
+        for (int i = 0; i < args.length; i++) {
+            boolean hasValue = i + 1 < args.length;
+            if (args[i].equals("--workers") && hasValue) server.setWorkers(Integer.parseInt(args[++i]));
+            else if (args[i].equals("--queue") && hasValue) server.setQueue(Integer.parseInt(args[++i]));
+            else if (args[i].equals("--timeout") && hasValue) server.setTimeoutMillis(Long.parseLong(args[++i]));
+            else if (args[i].equals("--max-script") && hasValue) server.setMaxScriptBytes(Integer.parseInt(args[++i]));
+            else if (args[i].equals("--max-moves") && hasValue) server.setMaxMoves(Long.parseLong(args[++i]));
+            else if (args[i].equals("--cache") && hasValue) cacheMegabytes = Long.parseLong(args[++i]);
+            else if (args[i].equals("--cache-dir") && hasValue) cacheDir = args[++i];
+            else if (args[i].equals("--cache-disk") && hasValue) cacheDiskMegabytes = Long.parseLong(args[++i]);
+            else if (args[i].equals("--max-size") && hasValue) {
+                int[] size = HeadlessRenderer.parseSize(args[++i]);
+                server.setMaxSize(size[0], size[1]);
+            } else if (args[i].equals("--bind") && hasValue) address = InetAddress.getByName(args[++i]);
+            else positional.add(args[i]);
+        }
+        if (positional.size() > 1) {
+            System.err.println("Usage: --serve [port] [--bind address] [--workers N] [--queue N] [--timeout ms]"
+                    + " [--max-script bytes] [--max-size WxH] [--max-moves N]"
+                    + " [--cache MB] [--cache-dir DIR] [--cache-disk MB]");
+            return;
+        }
+        if (!positional.isEmpty()) port = Integer.parseInt(positional.get(0));
+        RenderCache cache = RenderCache.open(cacheMegabytes, cacheDir, cacheDiskMegabytes);
+        server.setCache(cache);
+
+        server.start(address, port);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            if (cache != null) cache.close();
+        }));
+        System.out.println("Rendering on http://" + address.getHostAddress() + ":" + server.getPort() + "/render");
+    }
+}
@@ -0,0 +1,812 @@
+package turtlegraphics;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static turtlegraphics.CompiledScript.*;
+
+// One command per line at the top level, as always. On top of that:
+//   repeat <n> [ ... ]     if <condition> [ ... ]     make <name> <value>
+//   to <name> :a :b ... end, then called as <name> <a> <b>
+// Inside [ ] and procedure bodies commands may share lines or span several.
+// Operands are integer expressions over :variables with + - * / % and the
+// comparisons < > = <= >= <>, written without spaces or in parentheses;
+// the count of a repeat and the condition of an if may contain spaces.
+// Constant operands compile to the plain instructions; a repeat whose body is
+// only constant moves and turns is folded into one TRACE of its path.
+public class ScriptCompiler {
+    static final String[] COLOUR_NAMES = {"black", "red", "green", "white"};
+    private static final int[] COLOUR_VALUES = {
+            Color.BLACK.getRGB(), Color.RED.getRGB(), Color.GREEN.getRGB(), Color.WHITE.getRGB()
+    };
+    private static final String[] KEYWORDS = {"repeat", "if", "make", "to", "end", "stop", "reverse", "exportscaled"};
+    private static final int[] PATH_OPS = {OBSTACLES, SAVERECORDING, LOADRECORDING, EXPORT, SAVESESSION, LOADSESSION};
+
+    // Nested folds are expanded up to this many ints of path, then kept as loops
+    private static final int MAX_FOLDED = 4096;
+
+    private final char[] buf;
+    private final int limit;
+    private int pos, lineStart, lineEnd, tokStart, tokEnd;
+
+    private int[] code;
+    private int pc;
+    private final ArrayList<String> strings = new ArrayList<>();
+    private int[] data = new int[0];
+    private int dataLength;
+    private int errors, lines, lineBase;
+
+    private ScriptContext context = new ScriptContext();
+    // Open [ ] blocks and procedure bodies
+    private int depth;
+    // Parameters of the procedure being compiled, null at the top level
+    private HashMap<String, Integer> params;
+    private int localTop, localMax, mainLocals;
+    private int[] statements = new int[16];
+    private int statementCount;
+
+    private ScriptCompiler(char[] buf, int offset, int length) {
+        this.buf = buf;
+        this.pos = offset;
+        this.limit = offset + length;
+    }
+
+    // === Entry points ===
+
+    public static CompiledScript compile(char[] buf, int offset, int length) {
+        return new ScriptCompiler(buf, offset, length).finish();
+    }
+
+    private CompiledScript finish() {
+        code = new int[Math.max(64, (limit - pos) / 3)];
+        run();
+        return new CompiledScript(code, pc, strings.toArray(new String[0]), Arrays.copyOf(data, dataLength),
+                errors, lines, mainLocals, Arrays.copyOf(statements, statementCount));
+    }
+
+    public static CompiledScript compile(CharSequence script) {
+        return compile(script, 1);
+    }
+
+    // firstLine numbers error messages when the script is one chunk of a larger file
+    public static CompiledScript compile(CharSequence script, int firstLine) {
+        return compile(script, firstLine, new ScriptContext());
+    }
+
+    // Variables and procedures are looked up in, and added to, the shared context
+    public static CompiledScript compile(CharSequence script, int firstLine, ScriptContext context) {
+        char[] chars = script.toString().toCharArray();
+        ScriptCompiler c = new ScriptCompiler(chars, 0, chars.length);
+        c.lineBase = firstLine - 1;
+        c.context = context;
+        return c.finish();
+    }
+
+    public static CompiledScript compile(InputStream in) throws IOException {
+        return compile(in.readAllBytes());
+    }
+
+    public static CompiledScript compile(Path script) throws IOException {
+        return compile(Files.readAllBytes(script));
+    }
+
+    private static CompiledScript compile(byte[] bytes) {
+        CharBuffer chars = StandardCharsets.UTF_8.decode(ByteBuffer.wrap(bytes));
+        return compile(chars.array(), chars.arrayOffset(), chars.remaining());
+    }
+
+    // Reuses the .tgc next to the script when its size and timestamp still match
+    public static CompiledScript compileCached(Path script) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(script, BasicFileAttributes.class);
+        long size = attrs.size(), modified = attrs.lastModifiedTime().toMillis();
+        Path cache = CompiledScript.cachePathFor(script);
+
+        if (Files.isRegularFile(cache)) {
+            try {
+                CompiledScript cached = CompiledScript.read(cache, size, modified);
+                if (cached != null) return cached;
+            } catch (IOException e) {
+                // Stale or truncated cache, fall through and recompile
+            }
+        }
+
+        CompiledScript program = compile(script);
+        try {
+            program.write(cache, size, modified);
+        } catch (IOException e) {
+            Files.deleteIfExists(cache);
+        }
+        return program;
+    }
+
+    // How far a line opens (positive) or closes (negative) blocks, so callers
+    // feeding lines one at a time can keep a block together
+    public static int nesting(CharSequence line) {
+        String s = line.toString().trim();
+        int space = 0;
+        while (space < s.length() && s.charAt(space) > ' ' && s.charAt(space) != '[') space++;
+        String first = s.substring(0, space).toLowerCase();
+        if (first.equals("exportscaled")) return 0;
+        for (int op : PATH_OPS) {
+            if (first.equals(NAMES[op])) return 0;
+        }
+        int n = first.equals("to") ? 1 : first.equals("end") ? -1 : 0;
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) == '[') n++;
+            else if (s.charAt(i) == ']') n--;
+        }
+        return n;
+    }
+
+    // === Statements ===
+
+    private void run() {
+        while (nextLine()) {
+            // Whatever follows a top-level command on its line is ignored, as it always was
+            if (!nextToken()) continue;
+            int start = pc;
+            statement();
+            // Statements that compiled to nothing (a folded empty repeat) are not recorded
+            if (pc > start) {
+                statements = CompiledScript.grow(statements, statementCount + 1);
+                statements[statementCount++] = start;
+            }
+        }
+        mainLocals = localMax;
+    }
+
+    private void statement() {
+        if (matches("repeat")) { compileRepeat(); return; }
+        if (matches("if")) { compileIf(); return; }
+        if (matches("make")) { compileMake(); return; }
+        if (matches("to")) { compileProcedure(); return; }
+        if (matches("stop")) {
+            if (params == null) error("stop outside a procedure");
+            else emit(RETURN);
+            return;
+        }
+        if (matches("]") || matches("end")) { error("Unexpected " + token()); return; }
+
+        boolean reverse = matches("reverse");
+        if (matches("exportscaled")) { compileExport(true); return; }
+        int op = reverse ? MOVE : lookup();
+        if (op < 0) {
+            int colour = lookupColour();
+            if (colour >= 0) { emit(COLOUR, COLOUR_VALUES[colour]); return; }
+            int[] procedure = context.procedure(token().toLowerCase());
+            if (procedure == null) { error("Unknown command"); return; }
+            compileCall(procedure);
+            return;
+        }
+
+        switch (op) {
+            case LEFT, RIGHT, MOVE, SQUARE, TRIANGLE, CIRCLE, SPEED -> {
+                Expr v = operand("Missing parameter", "Expected a positive integer");
+                if (v == null) return;
+                if (v.constant()) {
+                    if (v.value <= 0) { error("Expected a positive integer"); return; }
+                    emit(op, reverse ? -v.value : v.value);
+                } else {
+                    emitExpr(v);
+                    emit(APPLY, reverse ? REVERSE : op, 1);
+                }
+            }
+            case RECTANGLE, OBSTACLE -> {
+                Expr a = operand("Missing parameter", "Expected a positive integer");
+                if (a == null) return;
+                Expr b = operand("Missing parameter", "Expected a positive integer");
+                if (b == null) return;
+                if (a.constant() && b.constant()) {
+                    if (a.value <= 0 || b.value <= 0) { error("Expected a positive integer"); return; }
+                    emit(op, a.value, b.value);
+                } else {
+                    emitExpr(a);
+                    emitExpr(b);
+                    emit(APPLY, op, 2);
+                }
+            }
+            case SEEK -> {
+                Expr v = operand("Missing movement index", "Expected a movement index");
+                if (v == null) return;
+                if (!v.constant()) {
+                    emitExpr(v);
+                    emit(APPLY, op, 1);
+                } else if (v.value < 0) {
+                    error("Expected a movement index");
+                } else {
+                    emit(op, v.value);
+                }
+            }
+            case COLOUR -> compileColour();
+            case OBSTACLES, SAVERECORDING, LOADRECORDING, SAVESESSION, LOADSESSION -> compilePath(op);
+            case EXPORT -> compileExport(false);
+            case POLICY -> {
+                if (!nextToken()) { error("Missing collision policy"); return; }
+                CollisionPolicy policy = CollisionPolicy.parse(token());
+                if (policy == null) { error("Expected stop, clip or report"); return; }
+                emit(POLICY, policy.ordinal());
+            }
+            default -> emit(op);
+        }
+    }
+
+    // Statements up to the closing token, which may be lines further on; a
+    // statement with an error is skipped to the end of its line
+    private boolean block(String closer, int openLineStart, int openLineEnd, int openLine) {
+        depth++;
+        try {
+            while (true) {
+                if (!nextStatementToken()) {
+                    errorAt("Missing " + closer, openLine, openLineStart, openLineEnd);
+                    return false;
+                }
+                if (matches(closer)) return true;
+                int before = errors;
+                statement();
+                if (errors > before) skipToBlockEnd();
+            }
+        } finally {
+            depth--;
+        }
+    }
+
+    private void skipToBlockEnd() {
+        while (nextToken()) {
+            if (matches("]")) {
+                tokEnd = tokStart;
+                return;
+            }
+        }
+    }
+
+    // The operand of repeat and if runs up to the [ that opens the block, so
+    // it may contain spaces; the [ is consumed
+    private Expr operandToBracket(String missing, String malformed) {
+        int start = tokEnd, p = start, parens = 0;
+        while (p < lineEnd && (parens > 0 || buf[p] != '[')) {
+            if (buf[p] == '(') parens++;
+            else if (buf[p] == ')') parens--;
+            p++;
+        }
+        if (p == lineEnd) { error("Expected ["); return null; }
+        tokEnd = p + 1;
+        int end = p;
+        while (start < end && buf[start] <= ' ') start++;
+        if (start == end) { error(missing); return null; }
+        return expression(start, end, malformed);
+    }
+
+    private void compileRepeat() {
+        int start = pc, dataMark = dataLength, before = errors;
+        int openStart = lineStart, openEnd = lineEnd, openLine = lines;
+        Expr count = operandToBracket("Missing repeat count", "Expected a repeat count");
+        if (count == null) return;
+
+        int slot = localTop++;
+        localMax = Math.max(localMax, localTop);
+        emitExpr(count);
+        emit(REPEAT, slot, 0);
+        int body = pc;
+        boolean closed = block("]", openStart, openEnd, openLine);
+        int bodyEnd = pc;
+        emit(LOOP, slot, body);
+        code[body - 1] = pc;
+        localTop--;
+
+        if (!closed || errors > before) keepErrors(start);
+        else if (count.constant() && count.value <= 0) pc = start;
+        else if (count.constant()) fold(start, body, bodyEnd, count.value, dataMark);
+    }
+
+    private void compileIf() {
+        int start = pc, before = errors;
+        int openStart = lineStart, openEnd = lineEnd, openLine = lines;
+        Expr condition = operandToBracket("Missing condition", "Expected a condition");
+        if (condition == null) return;
+
+        int jump = -1;
+        if (!condition.constant()) {
+            emitExpr(condition);
+            emit(JUMPZERO, 0);
+            jump = pc - 1;
+        }
+        boolean closed = block("]", openStart, openEnd, openLine);
+        if (jump >= 0) code[jump] = pc;
+
+        if (!closed || errors > before) keepErrors(start);
+        else if (condition.constant() && condition.value == 0) pc = start;
+    }
+
+    private void compileMake() {
+        if (!nextToken()) { error("Missing variable name"); return; }
+        int from = tokStart;
+        if (buf[from] == '"' || buf[from] == ':') from++;
+        String name = identifier(from, tokEnd);
+        if (name == null) { error("Expected a variable name"); return; }
+        Expr v = operand("Missing value", "Expected a value");
+        if (v == null) return;
+
+        emitExpr(v);
+        Integer local = params != null ? params.get(name) : null;
+        if (local != null) emit(SETLOCAL, local);
+        else emit(SET, context.defineGlobal(name));
+    }
+
+    // to <name> :a :b, the body on the following lines, then end
+    private void compileProcedure() {
+        if (depth > 0) { error("Procedures must be defined at the top level"); return; }
+        int start = pc, before = errors;
+        int openStart = lineStart, openEnd = lineEnd, openLine = lines;
+        if (!nextToken()) { error("Missing procedure name"); return; }
+        String name = identifier(tokStart, tokEnd);
+        if (name == null) { error("Expected a procedure name"); return; }
+        if (lookup() >= 0 || lookupColour() >= 0 || Arrays.asList(KEYWORDS).contains(name)) {
+            error("Cannot redefine " + name);
+            return;
+        }
+
+        HashMap<String, Integer> names = new HashMap<>();
+        while (nextToken()) {
+            String param = buf[tokStart] == ':' ? identifier(tokStart + 1, tokEnd) : null;
+            if (param == null) { error("Expected :parameter"); return; }
+            if (names.putIfAbsent(param, names.size()) != null) { error("Duplicate parameter :" + param); return; }
+        }
+
+        // Registered before the body so it can call itself
+        int[] procedure = context.defineProcedure(name, names.size());
+        emit(DEFINE, procedure[0], names.size(), 0, 0);
+        int define = pc - 5;
+
+        int outerTop = localTop, outerMax = localMax;
+        params = names;
+        localTop = localMax = names.size();
+        boolean closed;
+        try {
+            closed = block("end", openStart, openEnd, openLine);
+            emit(RETURN);
+            code[define + 3] = localMax;
+            code[define + 4] = pc;
+        } finally {
+            params = null;
+            localTop = outerTop;
+            localMax = outerMax;
+        }
+        if (!closed || errors > before) keepErrors(start);
+    }
+
+    private void compileCall(int[] procedure) {
+        int arity = procedure[1];
+        for (int i = 0; i < arity; i++) {
+            Expr arg = operand("Missing parameter", "Expected a value");
+            if (arg == null) return;
+            emitExpr(arg);
+        }
+        emit(CALL, procedure[0], arity);
+    }
+
+    // A statement that failed to compile runs none of its parts, only its errors
+    private void keepErrors(int start) {
+        ArrayList<Integer> messages = new ArrayList<>();
+        for (int p = start; p < pc; p += 1 + OPERANDS[code[p]]) {
+            if (code[p] == ERROR) messages.add(code[p + 1]);
+        }
+        pc = start;
+        for (int m : messages) emit(ERROR, m);
+    }
+
+    // === Folding ===
+
+    // Replaces a constant repeat of moves and turns with one TRACE; turns
+    // between moves are summed, so each step is a turn and a move
+    private void fold(int start, int body, int bodyEnd, int times, int dataMark) {
+        int[] path = new int[16];
+        int n = 0, turn = 0;
+        for (int p = body; p < bodyEnd; p += 1 + OPERANDS[code[p]]) {
+            switch (code[p]) {
+                case LEFT -> turn -= code[p + 1];
+                case RIGHT -> turn += code[p + 1];
+                case MOVE -> {
+                    path = CompiledScript.grow(path, n + 2);
+                    path[n++] = normalise(turn);
+                    path[n++] = code[p + 1];
+                    turn = 0;
+                }
+                case TRACE -> {
+                    int offset = code[p + 1], length = code[p + 2], repeat = code[p + 3];
+                    if ((long) length * repeat + n > MAX_FOLDED) return;
+                    for (int r = 0; r < repeat; r++) {
+                        for (int i = offset; i < offset + length; i += 2) {
+                            turn += data[i];
+                            if (data[i + 1] == 0) continue;
+                            path = CompiledScript.grow(path, n + 2);
+                            path[n++] = normalise(turn);
+                            path[n++] = data[i + 1];
+                            turn = 0;
+                        }
+                    }
+                }
+                default -> { return; }
+            }
+        }
+        if (normalise(turn) != 0) {
+            path = CompiledScript.grow(path, n + 2);
+            path[n++] = normalise(turn);
+            path[n++] = 0;
+        }
+
+        // Paths of folded inner loops were read above and are no longer needed
+        pc = start;
+        dataLength = dataMark;
+        if (n == 0) return;
+        data = CompiledScript.grow(data, dataLength + n);
+        System.arraycopy(path, 0, data, dataLength, n);
+        emit(TRACE, dataLength, n, times);
+        dataLength += n;
+    }
+
+    // Degrees in (-180, 180], positive turning right
+    private static int normalise(int turn) {
+        int t = Math.floorMod(turn, 360);
+        return t > 180 ? t - 360 : t;
+    }
+
+    // === Operands ===
+
+    private int lookup() {
+        for (int op = 0; op < NAMES.length; op++) {
+            if (op == ERROR) op = REVERSE + 1; // instructions, not commands
+            if (matches(NAMES[op])) return op;
+        }
+        return -1;
+    }
+
+    private int lookupColour() {
+        for (int i = 0; i < COLOUR_NAMES.length; i++) {
+            if (matches(COLOUR_NAMES[i])) return i;
+        }
+        return -1;
+    }
+
+    private boolean matches(String name) {
+        if (tokEnd - tokStart != name.length()) return false;
+        for (int i = 0; i < name.length(); i++) {
+            if (Character.toLowerCase(buf[tokStart + i]) != name.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private String token() { return new String(buf, tokStart, tokEnd - tokStart); }
+
+    private String identifier(int start, int end) {
+        if (start >= end || !Character.isLetter(buf[start])) return null;
+        for (int i = start; i < end; i++) {
+            if (!Character.isLetterOrDigit(buf[i]) && buf[i] != '_') return null;
+        }
+        return new String(buf, start, end - start).toLowerCase();
+    }
+
+    // The next token on this line as an expression
+    private Expr operand(String missing, String malformed) {
+        if (!nextToken()) { error(missing); return null; }
+        return expression(tokStart, tokEnd, malformed);
+    }
+
+    private void compileColour() {
+        if (!nextToken()) { error("Missing RGB values"); return; }
+        Expr[] channels = new Expr[3];
+        int start = tokStart, end = tokEnd, parens = 0, channel = 0;
+        for (int i = start; i <= end; i++) {
+            if (i < end && buf[i] == '(') parens++;
+            else if (i < end && buf[i] == ')') parens--;
+            else if (i == end || (buf[i] == ',' && parens == 0)) {
+                if (channel == 3) { error("Need 3 comma-separated RGB values"); return; }
+                channels[channel] = expression(start, i, "Invalid colour value");
+                if (channels[channel++] == null) return;
+                start = i + 1;
+            }
+        }
+        if (channel != 3) { error("Need 3 comma-separated RGB values"); return; }
+
+        if (channels[0].constant() && channels[1].constant() && channels[2].constant()) {
+            int argb = 0xFF000000;
+            for (int c = 0; c < 3; c++) {
+                int v = channels[c].value;
+                if (v <= 0 || v > 255) { error("Invalid colour value"); return; }
+                argb |= v << (16 - c * 8);
+            }
+            emit(COLOUR, argb);
+        } else {
+            for (Expr c : channels) emitExpr(c);
+            emit(APPLY, COLOUR, 3);
+        }
+    }
+
+    // File name operands run to the end of the line so they may contain spaces
+    private void compilePath(int op) {
+        String path = restOfLine();
+        if (path != null) emit(op, intern(path));
+    }
+
+    // export <file> or exportscaled <scale> <file>; both compile to EXPORT file, scale
+    private void compileExport(boolean scaled) {
+        int scale = 1;
+        if (scaled) {
+            Expr v = operand("Missing parameter", "Expected a positive integer");
+            if (v == null) return;
+            if (!v.constant() || v.value <= 0) { error("Expected a positive integer"); return; }
+            scale = v.value;
+        }
+        String path = restOfLine();
+        if (path != null) emit(EXPORT, intern(path), scale);
+    }
+
+    // Inside a block a closing ] at the end of the line is not part of the name
+    private String restOfLine() {
+        int start = tokEnd, end = lineEnd;
+        while (start < end && buf[start] <= ' ') start++;
+        while (end > start && buf[end - 1] <= ' ') end--;
+        tokEnd = lineEnd;
+        if (depth > 0 && end > start && buf[end - 1] == ']') {
+            tokEnd = --end;
+            while (end > start && buf[end - 1] <= ' ') end--;
+        }
+        if (start == end) { error("Missing file name"); return null; }
+        return new String(buf, start, end - start);
+    }
+
+    // === Expressions ===
+
+    // A constant, a variable, or an operator over one or two operands
+    private static final class Expr {
+        static final int CONSTANT = -1, GLOBAL = -2, LOCAL = -3;
+
+        final int kind, value;
+        final Expr a, b;
+
+        Expr(int kind, int value, Expr a, Expr b) {
+            this.kind = kind;
+            this.value = value;
+            this.a = a;
+            this.b = b;
+        }
+
+        boolean constant() { return kind == CONSTANT; }
+    }
+
+    private int ep, eEnd;
+    private String exprError;
+
+    private Expr expression(int start, int end, String malformed) {
+        ep = start;
+        eEnd = end;
+        exprError = null;
+        Expr e = comparison();
+        skipSpaces();
+        if (e == null || ep != eEnd) {
+            error(exprError != null ? exprError : malformed);
+            return null;
+        }
+        return e;
+    }
+
+    private Expr comparison() {
+        Expr a = sum();
+        if (a == null) return null;
+        skipSpaces();
+        int op = -1;
+        if (peek("<=")) op = LE;
+        else if (peek(">=")) op = GE;
+        else if (peek("<>")) op = NE;
+        else if (peek("<")) op = LT;
+        else if (peek(">")) op = GT;
+        else if (peek("=")) op = EQ;
+        if (op < 0) return a;
+        ep += op == LE || op == GE || op == NE ? 2 : 1;
+        Expr b = sum();
+        return b == null ? null : binary(op, a, b);
+    }
+
+    private Expr sum() {
+        Expr a = term();
+        while (a != null) {
+            skipSpaces();
+            if (peek("+")) { ep++; Expr b = term(); a = b == null ? null : binary(ADD, a, b); }
+            else if (peek("-")) { ep++; Expr b = term(); a = b == null ? null : binary(SUB, a, b); }
+            else break;
+        }
+        return a;
+    }
+
+    private Expr term() {
+        Expr a = unary();
+        while (a != null) {
+            skipSpaces();
+            int op = peek("*") ? MUL : peek("/") ? DIV : peek("%") ? MOD : -1;
+            if (op < 0) break;
+            ep++;
+            Expr b = unary();
+            a = b == null ? null : binary(op, a, b);
+        }
+        return a;
+    }
+
+    private Expr unary() {
+        skipSpaces();
+        if (ep >= eEnd) return null;
+        char c = buf[ep];
+        if (c == '-' || c == '+') {
+            ep++;
+            Expr a = unary();
+            if (a == null || c == '+') return a;
+            return a.constant() ? new Expr(Expr.CONSTANT, -a.value, null, null) : new Expr(NEG, 0, a, null);
+        }
+        if (c == '(') {
+            ep++;
+            Expr e = comparison();
+            skipSpaces();
+            if (e == null || !peek(")")) return null;
+            ep++;
+            return e;
+        }
+        if (c == ':') {
+            int start = ++ep;
+            while (ep < eEnd && (Character.isLetterOrDigit(buf[ep]) || buf[ep] == '_')) ep++;
+            String name = identifier(start, ep);
+            if (name == null) return null;
+            Integer local = params != null ? params.get(name) : null;
+            if (local != null) return new Expr(Expr.LOCAL, local, null, null);
+            int slot = context.globalSlot(name);
+            if (slot < 0) { exprError = "Unknown variable :" + name; return null; }
+            return new Expr(Expr.GLOBAL, slot, null, null);
+        }
+        long v = 0;
+        int start = ep;
+        while (ep < eEnd && buf[ep] >= '0' && buf[ep] <= '9') {
+            v = v * 10 + (buf[ep++] - '0');
+            if (v > Integer.MAX_VALUE) return null;
+        }
+        return ep == start ? null : new Expr(Expr.CONSTANT, (int) v, null, null);
+    }
+
+    // Folds constants, except a division by zero, which is left to fail when run
+    private static Expr binary(int op, Expr a, Expr b) {
+        if (a.constant() && b.constant() && !((op == DIV || op == MOD) && b.value == 0)) {
+            return new Expr(Expr.CONSTANT, ScriptExecutor.arith(op, a.value, b.value), null, null);
+        }
+        return new Expr(op, 0, a, b);
+    }
+
+    private boolean peek(String s) {
+        if (ep + s.length() > eEnd) return false;
+        for (int i = 0; i < s.length(); i++) {
+            if (buf[ep + i] != s.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private void skipSpaces() {
+        while (ep < eEnd && buf[ep] <= ' ') ep++;
+    }
+
+    private void emitExpr(Expr e) {
+        switch (e.kind) {
+            case Expr.CONSTANT -> emit(PUSH, e.value);
+            case Expr.GLOBAL -> emit(GET, e.value);
+            case Expr.LOCAL -> emit(GETLOCAL, e.value);
+            case NEG -> {
+                emitExpr(e.a);
+                emit(ARITH, NEG);
+            }
+            default -> {
+                emitExpr(e.a);
+                emitExpr(e.b);
+                emit(ARITH, e.kind);
+            }
+        }
+    }
+
+    // === Tokenizer ===
+
+    private boolean nextLine() {
+        if (pos >= limit) return false;
+        lineStart = pos;
+        while (pos < limit && buf[pos] != '\n' && buf[pos] != '\r') pos++;
+        lineEnd = pos;
+        if (pos < limit) {
+            pos += buf[pos] == '\r' && pos + 1 < limit && buf[pos + 1] == '\n' ? 2 : 1;
+        }
+        lines++;
+        tokEnd = lineStart;
+        return true;
+    }
+
+    // Brackets are tokens of their own; parentheses may hold spaces
+    private boolean nextToken() {
+        int p = tokEnd;
+        while (p < lineEnd && buf[p] <= ' ') p++;
+        if (p >= lineEnd) return false;
+        tokStart = p;
+        if (buf[p] == '[' || buf[p] == ']') {
+            tokEnd = p + 1;
+            return true;
+        }
+        int parens = 0;
+        while (p < lineEnd && (parens > 0 || (buf[p] > ' ' && buf[p] != '[' && buf[p] != ']'))) {
+            if (buf[p] == '(') parens++;
+            else if (buf[p] == ')') parens--;
+            p++;
+        }
+        tokEnd = p;
+        return true;
+    }
+
+    // Inside blocks, statements carry on across lines
+    private boolean nextStatementToken() {
+        while (!nextToken()) {
+            if (!nextLine()) return false;
+        }
+        return true;
+    }
+
+    // === Emitter ===
+
+    private void emit(int op) {
+        code = grow(code, pc + 1);
+        code[pc++] = op;
+    }
+
+    private void emit(int op, int a) {
+        code = grow(code, pc + 2);
+        code[pc++] = op;
+        code[pc++] = a;
+    }
+
+    private void emit(int op, int a, int b) {
+        code = grow(code, pc + 3);
+        code[pc++] = op;
+        code[pc++] = a;
+        code[pc++] = b;
+    }
+
+    private void emit(int op, int a, int b, int c) {
+        code = grow(code, pc + 4);
+        code[pc++] = op;
+        code[pc++] = a;
+        code[pc++] = b;
+        code[pc++] = c;
+    }
+
+    private void emit(int op, int a, int b, int c, int d) {
+        code = grow(code, pc + 5);
+        code[pc++] = op;
+        code[pc++] = a;
+        code[pc++] = b;
+        code[pc++] = c;
+        code[pc++] = d;
+    }
+
+    private void error(String reason) {
+        errorAt(reason, lines, lineStart, lineEnd);
+    }
+
+    private void errorAt(String reason, int line, int start, int end) {
+        String source = new String(buf, start, end - start).trim();
+        emit(ERROR, intern("Line " + (lineBase + line) + ": " + reason + ": " + source));
+        errors++;
+    }
+
+    private int intern(String s) {
+        strings.add(s);
+        return strings.size() - 1;
+    }
+}
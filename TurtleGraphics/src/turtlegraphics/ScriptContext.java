@@ -0,0 +1,88 @@
+package turtlegraphics;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+// Variables and procedures that outlive one compiled script: the chunks of a
+// loaded file, or the lines typed one at a time, share one context. Names are
+// given slots when compiled; values and procedure bodies are filled in when
+// the code runs, so a script compiled against one context runs in a fresh one.
+public class ScriptContext {
+    // === Compile time ===
+    private final HashMap<String, Integer> globalSlots = new HashMap<>();
+    private final HashMap<String, int[]> procedureSlots = new HashMap<>(); // name -> {index, arity}
+
+    // === Run time ===
+    private int[] globals = new int[16];
+    private CompiledScript[] bodies = new CompiledScript[8];
+    private int[] entries = new int[8], arities = new int[8], locals = new int[8];
+
+    int globalSlot(String name) {
+        Integer slot = globalSlots.get(name);
+        return slot != null ? slot : -1;
+    }
+
+    int defineGlobal(String name) {
+        return globalSlots.computeIfAbsent(name, n -> globalSlots.size());
+    }
+
+    // {index, arity}, or null when no such procedure has been compiled
+    int[] procedure(String name) { return procedureSlots.get(name); }
+
+    int[] defineProcedure(String name, int arity) {
+        int[] p = procedureSlots.get(name);
+        if (p == null) procedureSlots.put(name, p = new int[] {procedureSlots.size(), arity});
+        p[1] = arity;
+        return p;
+    }
+
+    public boolean isProcedure(String name) { return procedureSlots.containsKey(name.toLowerCase()); }
+
+    // === Values ===
+
+    int get(int slot) { return slot < globals.length ? globals[slot] : 0; }
+
+    void set(int slot, int value) {
+        if (slot >= globals.length) globals = Arrays.copyOf(globals, Math.max(slot + 1, globals.length * 2));
+        globals[slot] = value;
+    }
+
+    public int getVariable(String name) {
+        int slot = globalSlot(name.toLowerCase());
+        if (slot < 0) throw new IllegalArgumentException("Unknown variable " + name);
+        return get(slot);
+    }
+
+    // Values only; procedures are left as they are, which is what undo wants
+    public int[] saveVariables() { return globals.clone(); }
+    public void restoreVariables(int[] saved) { globals = saved.clone(); }
+
+    // === Procedures ===
+
+    void define(int index, CompiledScript body, int entry, int arity, int localCount) {
+        if (index >= bodies.length) {
+            int n = Math.max(index + 1, bodies.length * 2);
+            bodies = Arrays.copyOf(bodies, n);
+            entries = Arrays.copyOf(entries, n);
+            arities = Arrays.copyOf(arities, n);
+            locals = Arrays.copyOf(locals, n);
+        }
+        bodies[index] = body;
+        entries[index] = entry;
+        arities[index] = arity;
+        locals[index] = localCount;
+    }
+
+    String procedureName(int index) {
+        for (var e : procedureSlots.entrySet()) {
+            if (e.getValue()[0] == index) return e.getKey();
+        }
+        return "procedure " + index;
+    }
+
+    boolean isDefined(int index) { return index < bodies.length && bodies[index] != null; }
+    CompiledScript body(int index) { return bodies[index]; }
+    int entry(int index) { return entries[index]; }
+    int arity(int index) { return arities[index]; }
+    int localCount(int index) { return locals[index]; }
+}
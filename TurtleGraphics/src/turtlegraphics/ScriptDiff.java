@@ -0,0 +1,59 @@
+package turtlegraphics;
+
+import java.util.List;
+
+// Where an edited script differs from the one run before: its lines from
+// start to newEnd took the place of the old lines from start to oldEnd, and
+// everything before start or after the two ends is the same. Both ends of
+// the change fall between top-level statements, never inside a repeat or a
+// procedure, so the lines either side of it can be run on their own.
+public final class ScriptDiff {
+    public final int start, oldEnd, newEnd;
+
+    private ScriptDiff(int start, int oldEnd, int newEnd) {
+        this.start = start;
+        this.oldEnd = oldEnd;
+        this.newEnd = newEnd;
+    }
+
+    public static ScriptDiff of(List<String> before, List<String> after) {
+        int n = before.size(), m = after.size();
+
+        // The common prefix, cut back to the last top-level boundary in it
+        int start = 0, depth = 0;
+        for (int i = 0; i < Math.min(n, m) && before.get(i).equals(after.get(i)); i++) {
+            depth = Math.max(0, depth + ScriptCompiler.nesting(before.get(i)));
+            if (depth == 0) start = i + 1;
+        }
+
+        // The common suffix, never reaching back into the prefix
+        int same = 0;
+        while (same < Math.min(n, m) - start && before.get(n - 1 - same).equals(after.get(m - 1 - same))) same++;
+        int oldEnd = n - same, newEnd = m - same;
+
+        // The same lines follow both ends, so they move on together until
+        // both are back at the top level, or run out of script
+        int oldDepth = depth(before, start, oldEnd), newDepth = depth(after, start, newEnd);
+        while ((oldDepth != 0 || newDepth != 0) && oldEnd < n) {
+            oldDepth = Math.max(0, oldDepth + ScriptCompiler.nesting(before.get(oldEnd++)));
+            newDepth = Math.max(0, newDepth + ScriptCompiler.nesting(after.get(newEnd++)));
+        }
+        return new ScriptDiff(start, oldEnd, newEnd);
+    }
+
+    private static int depth(List<String> lines, int from, int to) {
+        int depth = 0;
+        for (int i = from; i < to; i++) depth = Math.max(0, depth + ScriptCompiler.nesting(lines.get(i)));
+        return depth;
+    }
+
+    public boolean isEmpty() { return oldEnd == start && newEnd == start; }
+
+    public int getRemoved() { return oldEnd - start; }
+    public int getAdded() { return newEnd - start; }
+
+    @Override
+    public String toString() {
+        return "lines " + (start + 1) + "-" + oldEnd + " replaced by " + getAdded();
+    }
+}
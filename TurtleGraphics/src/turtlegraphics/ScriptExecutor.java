@@ -0,0 +1,269 @@
+package turtlegraphics;
+
+import java.awt.Color;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import static turtlegraphics.CompiledScript.*;
+
+public class ScriptExecutor {
+    // Deep enough for recursive curves, shallow enough to stop a runaway recursion
+    public static final int MAX_DEPTH = 10_000;
+
+    private ScriptExecutor() { }
+
+    public static int execute(CompiledScript program, Turtle turtle) {
+        return execute(program, turtle, new ScriptContext());
+    }
+
+    public static int execute(CompiledScript program, Turtle turtle, ScriptContext context) {
+        return execute(program, turtle, context, 0, program.length);
+    }
+
+    public static int execute(CompiledScript program, Turtle turtle, int from, int to) {
+        return execute(program, turtle, new ScriptContext(), from, to);
+    }
+
+    // Runs [from, to) of the code array; returns the number of failed instructions
+    public static int execute(CompiledScript program, Turtle turtle, ScriptContext context, int from, int to) {
+        return (int) run(program, turtle, context, from, to);
+    }
+
+    // Set in run()'s result when the script stopped before reaching the end
+    static final long STOPPED = 1L << 32;
+
+    // The failure count, with STOPPED when the code ran away or was interrupted,
+    // for callers running a script in pieces
+    static long run(CompiledScript program, Turtle turtle, ScriptContext context, int from, int to) {
+        CompiledScript script = program;
+        int[] code = program.code;
+        Color colour = null;
+        int failures = 0;
+
+        int[] stack = new int[16];
+        int sp = 0;
+        int[] locals = new int[Math.max(16, program.mainLocals)];
+        int fp = 0, top = program.mainLocals;
+        // Callers' script, return address, frame pointer and locals top
+        CompiledScript[] callers = new CompiledScript[16];
+        int[] frames = new int[16 * 3];
+        int depth = 0;
+
+        int pc = from;
+        while (depth > 0 || pc < to) {
+            int op = code[pc], next = pc + 1 + OPERANDS[op];
+            if (sp + 1 >= stack.length) stack = Arrays.copyOf(stack, stack.length * 2);
+            try {
+                switch (op) {
+                    case ABOUT -> turtle.about();
+                    case PENUP -> turtle.setPenState(false);
+                    case PENDOWN -> turtle.setPenState(true);
+                    case RESET -> turtle.reset();
+                    case CLEAR -> turtle.clear();
+                    case SAVE -> turtle.saveCurrentState();
+                    case LOAD -> turtle.loadState();
+                    case EXIT -> turtle.exitApplication();
+                    case LEFT -> turtle.left(code[pc + 1]);
+                    case RIGHT -> turtle.right(code[pc + 1]);
+                    case MOVE -> turtle.forward(code[pc + 1]);
+                    case COLOUR -> {
+                        if (colour == null || colour.getRGB() != code[pc + 1]) {
+                            colour = new Color(code[pc + 1], true);
+                        }
+                        turtle.setPenColour(colour);
+                    }
+                    case SQUARE -> turtle.drawSquare(code[pc + 1]);
+                    case TRIANGLE -> turtle.drawTriangle(code[pc + 1]);
+                    case CIRCLE -> turtle.drawCircle(code[pc + 1]);
+                    case RECTANGLE -> turtle.drawRectangle(code[pc + 1], code[pc + 2]);
+                    case RECORD -> turtle.startRecording();
+                    case STOPRECORD -> turtle.stopRecording();
+                    case PLAY -> turtle.playRecording();
+                    case SPEED -> turtle.setTurtleSpeed(code[pc + 1]);
+                    case PAUSE -> turtle.pausePlayback();
+                    case RESUME -> turtle.resumePlayback();
+                    case STOPPLAY -> turtle.stopPlayback();
+                    case SEEK -> turtle.seekPlayback(code[pc + 1]);
+                    case INSTANT -> turtle.setInstantPlayback(true);
+                    case PACED -> turtle.setInstantPlayback(false);
+                    case OBSTACLE -> turtle.addObstacle(code[pc + 1], code[pc + 2]);
+                    case COLLISION -> turtle.enableCollisionDetection(true);
+                    case NOCOLLISION -> turtle.enableCollisionDetection(false);
+                    case LINECOLLISION -> turtle.enableLineCollision(true);
+                    case NOLINECOLLISION -> turtle.enableLineCollision(false);
+                    case POLICY -> turtle.setCollisionPolicy(CollisionPolicy.values()[code[pc + 1]]);
+                    case ROHAN -> turtle.drawRohan();
+                    case OBSTACLES -> turtle.loadObstacles(Paths.get(script.strings[code[pc + 1]]));
+                    case SAVERECORDING -> turtle.saveRecording(Paths.get(script.strings[code[pc + 1]]));
+                    case LOADRECORDING -> turtle.loadRecording(Paths.get(script.strings[code[pc + 1]]));
+                    case EXPORT -> turtle.exportDrawing(Paths.get(script.strings[code[pc + 1]]), code[pc + 2]);
+                    case SAVESESSION -> turtle.saveSession(Paths.get(script.strings[code[pc + 1]]));
+                    case LOADSESSION -> turtle.loadSession(Paths.get(script.strings[code[pc + 1]]));
+                    case ERROR -> {
+                        turtle.displayMessage(script.strings[code[pc + 1]]);
+                        failures++;
+                    }
+
+                    // === Expressions and variables ===
+                    case PUSH -> stack[sp++] = code[pc + 1];
+                    case GET -> stack[sp++] = context.get(code[pc + 1]);
+                    case SET -> context.set(code[pc + 1], stack[--sp]);
+                    case GETLOCAL -> stack[sp++] = locals[fp + code[pc + 1]];
+                    case SETLOCAL -> locals[fp + code[pc + 1]] = stack[--sp];
+                    case ARITH -> {
+                        int kind = code[pc + 1];
+                        if (kind == NEG) {
+                            stack[sp - 1] = -stack[sp - 1];
+                        } else {
+                            int b = stack[--sp], a = stack[sp - 1];
+                            if ((kind == DIV || kind == MOD) && b == 0) {
+                                turtle.displayMessage("Error: Division by zero");
+                                failures++;
+                                stack[sp - 1] = 0;
+                            } else {
+                                stack[sp - 1] = arith(kind, a, b);
+                            }
+                        }
+                    }
+                    case APPLY -> {
+                        sp -= code[pc + 2];
+                        if (!apply(code[pc + 1], stack, sp, turtle)) failures++;
+                    }
+
+                    // === Control flow ===
+                    case REPEAT -> {
+                        int times = stack[--sp];
+                        if (times <= 0) next = code[pc + 2];
+                        else locals[fp + code[pc + 1]] = times;
+                    }
+                    case LOOP -> {
+                        if (--locals[fp + code[pc + 1]] > 0) next = code[pc + 2];
+                    }
+                    case JUMP -> next = code[pc + 1];
+                    case JUMPZERO -> {
+                        if (stack[--sp] == 0) next = code[pc + 1];
+                    }
+                    case TRACE -> turtle.trace(script.data, code[pc + 1], code[pc + 2], code[pc + 3]);
+
+                    // === Procedures ===
+                    case DEFINE -> {
+                        context.define(code[pc + 1], script, pc + 5, code[pc + 2], code[pc + 3]);
+                        next = code[pc + 4];
+                    }
+                    case CALL -> {
+                        int index = code[pc + 1], argc = code[pc + 2];
+                        sp -= argc;
+                        if (!context.isDefined(index) || context.arity(index) != argc) {
+                            turtle.displayMessage("Error: " + context.procedureName(index) + " is not defined"
+                                    + (context.isDefined(index) ? " with " + argc + " inputs" : ""));
+                            failures++;
+                            break;
+                        }
+                        if (depth == MAX_DEPTH) {
+                            turtle.displayMessage("Error: Procedures nested more than " + MAX_DEPTH + " deep, stopping");
+                            return failures + 1 | STOPPED;
+                        }
+                        if (depth == callers.length) {
+                            callers = Arrays.copyOf(callers, depth * 2);
+                            frames = Arrays.copyOf(frames, depth * 6);
+                        }
+                        callers[depth] = script;
+                        frames[depth * 3] = next;
+                        frames[depth * 3 + 1] = fp;
+                        frames[depth * 3 + 2] = top;
+                        depth++;
+
+                        fp = top;
+                        top = fp + context.localCount(index);
+                        if (top > locals.length) locals = Arrays.copyOf(locals, Math.max(top, locals.length * 2));
+                        System.arraycopy(stack, sp, locals, fp, argc);
+                        script = context.body(index);
+                        code = script.code;
+                        next = context.entry(index);
+                    }
+                    case RETURN -> {
+                        depth--;
+                        script = callers[depth];
+                        callers[depth] = null;
+                        code = script.code;
+                        next = frames[depth * 3];
+                        fp = frames[depth * 3 + 1];
+                        top = frames[depth * 3 + 2];
+                    }
+                }
+            } catch (Exception e) {
+                turtle.displayMessage("Error: " + e.getMessage());
+                failures++;
+            }
+            // Loops and calls are where a script can run indefinitely, so an
+            // interrupt (a time limit, a cancelled render) is honoured there
+            if ((next <= pc || op == CALL) && Thread.currentThread().isInterrupted()) {
+                turtle.displayMessage("Error: Interrupted, stopping");
+                return failures + 1 | STOPPED;
+            }
+            pc = next;
+        }
+        return failures;
+    }
+
+    static int arith(int kind, int a, int b) {
+        return switch (kind) {
+            case ADD -> a + b;
+            case SUB -> a - b;
+            case MUL -> a * b;
+            case DIV -> a / b;
+            case MOD -> a % b;
+            case LT -> a < b ? 1 : 0;
+            case GT -> a > b ? 1 : 0;
+            case EQ -> a == b ? 1 : 0;
+            case LE -> a <= b ? 1 : 0;
+            case GE -> a >= b ? 1 : 0;
+            case NE -> a != b ? 1 : 0;
+            default -> throw new IllegalArgumentException("Unknown operator " + kind);
+        };
+    }
+
+    // A command whose operands were computed; checked as the compiler checks constants
+    private static boolean apply(int op, int[] args, int at, Turtle turtle) {
+        int v = args[at];
+        switch (op) {
+            case LEFT, RIGHT, MOVE, REVERSE, SQUARE, TRIANGLE, CIRCLE, SPEED -> {
+                if (v <= 0) return reject(turtle, op, "a positive integer", v);
+                switch (op) {
+                    case LEFT -> turtle.left(v);
+                    case RIGHT -> turtle.right(v);
+                    case MOVE -> turtle.forward(v);
+                    case REVERSE -> turtle.forward(-v);
+                    case SQUARE -> turtle.drawSquare(v);
+                    case TRIANGLE -> turtle.drawTriangle(v);
+                    case CIRCLE -> turtle.drawCircle(v);
+                    default -> turtle.setTurtleSpeed(v);
+                }
+            }
+            case RECTANGLE, OBSTACLE -> {
+                int w = args[at + 1];
+                if (v <= 0) return reject(turtle, op, "a positive integer", v);
+                if (w <= 0) return reject(turtle, op, "a positive integer", w);
+                if (op == RECTANGLE) turtle.drawRectangle(v, w);
+                else turtle.addObstacle(v, w);
+            }
+            case SEEK -> {
+                if (v < 0) return reject(turtle, op, "a movement index", v);
+                turtle.seekPlayback(v);
+            }
+            case COLOUR -> {
+                for (int c = 0; c < 3; c++) {
+                    if (args[at + c] <= 0 || args[at + c] > 255) return reject(turtle, op, "a colour value", args[at + c]);
+                }
+                turtle.setPenColour(new Color(v, args[at + 1], args[at + 2]));
+            }
+            default -> throw new IllegalArgumentException("Cannot apply " + nameOf(op));
+        }
+        return true;
+    }
+
+    private static boolean reject(Turtle turtle, int op, String expected, int value) {
+        turtle.displayMessage("Error: " + nameOf(op) + " expected " + expected + ", got " + value);
+        return false;
+    }
+}
@@ -0,0 +1,295 @@
+package turtlegraphics;
+
+import java.awt.Polygon;
+import java.util.Arrays;
+
+// Every line drawn so far, hashed into a uniform grid so a move only tests the
+// lines in the cells it passes through. A line is entered in each cell it
+// touches, edges and corners included, so a crossing on a cell edge is found
+// from either side; cells are visited along the move in order, so the first
+// crossing is usually found without looking much past where it lies. Lines
+// are only ever added, one at a time as they are drawn, or in bulk from a
+// display list.
+//
+// Crossings are exact integer tests. Touching the move's start point does not
+// count, so the line just drawn, which ends where the next move begins, is
+// never a crossing; neither is running on along a line from a point on it.
+public class SegmentIndex {
+    private static final int CELL = 16;
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    // Open-addressed cell table; each cell heads a list of entries threaded through entryNext[]
+    private long[] keys;
+    private int[] heads;
+    private int cells;
+
+    private int[] x0s = new int[256], y0s = new int[256], x1s = new int[256], y1s = new int[256];
+    private int count;
+
+    private int[] entrySegment = new int[512], entryNext = new int[512];
+    private long[] entryKey = new long[512];
+    private int entries;
+
+    // Segments already tested by the current query
+    private int[] seen = new int[256];
+    private int query;
+
+    public SegmentIndex() {
+        allocateTable(1024);
+    }
+
+    // The polylines and circles of a drawing, circles as the polygons they are drawn with
+    public static SegmentIndex of(DisplayList drawing) {
+        SegmentIndex index = new SegmentIndex();
+        for (int i = 0; i < drawing.size(); i++) {
+            if (drawing.kind(i) == DisplayList.CIRCLE) {
+                int r = drawing.radius(i);
+                index.addCircle(drawing.x(i, 0), drawing.y(i, 0), r);
+            } else {
+                int points = drawing.points(i);
+                if (points == 1) index.add(drawing.x(i, 0), drawing.y(i, 0), drawing.x(i, 0), drawing.y(i, 0));
+                for (int p = 1; p < points; p++) {
+                    index.add(drawing.x(i, p - 1), drawing.y(i, p - 1), drawing.x(i, p), drawing.y(i, p));
+                }
+            }
+        }
+        return index;
+    }
+
+    // === Building ===
+
+    public void add(int x0, int y0, int x1, int y1) {
+        if (count == x0s.length) {
+            x0s = Arrays.copyOf(x0s, count * 2);
+            y0s = Arrays.copyOf(y0s, count * 2);
+            x1s = Arrays.copyOf(x1s, count * 2);
+            y1s = Arrays.copyOf(y1s, count * 2);
+            seen = Arrays.copyOf(seen, count * 2);
+        }
+        x0s[count] = x0;
+        y0s[count] = y0;
+        x1s[count] = x1;
+        y1s[count] = y1;
+
+        for (Cover cover = new Cover(x0, y0, x1, y1, true); cover.next(); ) {
+            for (int c = cover.from; c <= cover.to; c++) enter(count, cover.key(c));
+        }
+        count++;
+    }
+
+    public void addCircle(int cx, int cy, int radius) {
+        Polygon p = DrawingSurface.ovalPolygon(cx - radius, cy - radius, radius * 2, radius * 2);
+        for (int i = 0; i < p.npoints; i++) {
+            int j = (i + 1) % p.npoints;
+            add(p.xpoints[i], p.ypoints[i], p.xpoints[j], p.ypoints[j]);
+        }
+    }
+
+    public int size() { return count; }
+
+    public void clear() {
+        count = 0;
+        entries = 0;
+        allocateTable(1024);
+    }
+
+    // === Queries ===
+
+    // The fraction of the way from (x0, y0) to (x1, y1) at which it first
+    // crosses or touches a line, in (0, 1], or SpatialIndex.NO_HIT
+    public double firstHit(int x0, int y0, int x1, int y1) {
+        if (count == 0 || x0 == x1 && y0 == y1) return SpatialIndex.NO_HIT;
+        if (++query == 0) {
+            Arrays.fill(seen, 0);
+            query = 1;
+        }
+        long dx = x1 - x0, dy = y1 - y0;
+        double best = SpatialIndex.NO_HIT;
+        // Each point of the move is in one cell, and every line through that
+        // point is entered there however it touches the cell
+        for (Cover cover = new Cover(x0, y0, x1, y1, false); cover.next(); ) {
+            for (int k = 0; k <= cover.to - cover.from; k++) {
+                int c = cover.cell(k);
+                for (int e = head(cover.key(c)); e >= 0; e = entryNext[e]) {
+                    int seg = entrySegment[e];
+                    if (seen[seg] == query) continue;
+                    seen[seg] = query;
+                    double t = crossing(x0, y0, dx, dy, x0s[seg], y0s[seg], x1s[seg], y1s[seg]);
+                    if (t < best) best = t;
+                }
+                // Crossings in later cells are further along
+                if (best <= cover.exit(c)) return best;
+            }
+        }
+        return best;
+    }
+
+    public boolean crosses(int x0, int y0, int x1, int y1) {
+        return firstHit(x0, y0, x1, y1) <= 1;
+    }
+
+    // Where along p + t(dx, dy), 0 < t <= 1, the move meets segment a-b
+    static double crossing(int px, int py, long dx, long dy, int ax, int ay, int bx, int by) {
+        long sx = bx - ax, sy = by - ay, qx = ax - px, qy = ay - py;
+        long denom = dx * sy - dy * sx;
+        if (denom != 0) {
+            long tn = qx * sy - qy * sx, un = qx * dy - qy * dx;
+            if (denom < 0) {
+                denom = -denom;
+                tn = -tn;
+                un = -un;
+            }
+            return tn > 0 && tn <= denom && un >= 0 && un <= denom ? (double) tn / denom : SpatialIndex.NO_HIT;
+        }
+        if (qx * dy - qy * dx != 0) return SpatialIndex.NO_HIT; // parallel
+        // On the same line: where the move first runs onto the segment
+        double rr = dx * dx + dy * dy;
+        double ta = (qx * dx + qy * dy) / rr, tb = ((bx - px) * dx + (by - py) * dy) / rr;
+        double lo = Math.max(0, Math.min(ta, tb)), hi = Math.min(1, Math.max(ta, tb));
+        return lo > 0 && lo <= hi ? lo : SpatialIndex.NO_HIT;
+    }
+
+    // The cells a segment touches, a slab of cells at a time across its longer
+    // axis in the direction it runs. Closed, a cell's edges and corners count
+    // as part of it, so a segment along an edge or through a corner is in the
+    // cells on both sides; open, a point on an edge is only in the cell it
+    // rounds down to. Everything is whole integers, so no cell depends on
+    // which way a tie is broken
+    private static final class Cover {
+        // u is the longer axis, v the other
+        private final boolean alongX, closed;
+        private final long u0, v0, du, dv, uMin, uMax, vMin, vMax;
+        private final int step, last;
+        private int slab;
+        private boolean started;
+        // Cells across the current slab, inclusive
+        int from, to;
+
+        Cover(int x0, int y0, int x1, int y1, boolean closed) {
+            this.closed = closed;
+            alongX = Math.abs(x1 - x0) >= Math.abs(y1 - y0);
+            u0 = alongX ? x0 : y0;
+            v0 = alongX ? y0 : x0;
+            du = (alongX ? x1 : y1) - u0;
+            dv = (alongX ? y1 : x1) - v0;
+            uMin = Math.min(u0, u0 + du);
+            uMax = Math.max(u0, u0 + du);
+            vMin = Math.min(v0, v0 + dv);
+            vMax = Math.max(v0, v0 + dv);
+            int first = lowest(uMin), end = (int) Math.floorDiv(uMax, CELL);
+            step = du >= 0 ? 1 : -1;
+            slab = du >= 0 ? first : end;
+            last = du >= 0 ? end : first;
+        }
+
+        boolean next() {
+            if (started) {
+                if (slab == last) return false;
+                slab += step;
+            }
+            started = true;
+            long lo, hi;
+            if (du == 0) {
+                lo = vMin;
+                hi = vMax;
+            } else {
+                // v where the segment enters and leaves the slab, widened to whole units
+                long ua = Math.max(uMin, (long) slab * CELL), ub = Math.min(uMax, (long) (slab + 1) * CELL);
+                long sign = du > 0 ? 1 : -1, d = du * sign;
+                long na = (v0 * du + dv * (ua - u0)) * sign, nb = (v0 * du + dv * (ub - u0)) * sign;
+                lo = Math.floorDiv(Math.min(na, nb), d);
+                hi = -Math.floorDiv(-Math.max(na, nb), d);
+            }
+            from = lowest(lo);
+            to = (int) Math.floorDiv(hi, CELL);
+            return true;
+        }
+
+        // The first cell holding coordinate c
+        private int lowest(long c) {
+            return (int) (closed ? Math.floorDiv(c + CELL - 1, CELL) - 1 : Math.floorDiv(c, CELL));
+        }
+
+        // The k-th cell across the current slab, in the direction the segment runs
+        int cell(int k) { return dv >= 0 ? from + k : to - k; }
+
+        // How far along the segment it is when it leaves the current slab or
+        // passes the given cell across it; every point before that is in a
+        // cell already given
+        double exit(int cell) {
+            return Math.min(leaves(slab, u0, du), leaves(cell, v0, dv));
+        }
+
+        private static double leaves(int cell, long start, long delta) {
+            if (delta == 0) return Double.POSITIVE_INFINITY;
+            long edge = (long) (delta > 0 ? cell + 1 : cell) * CELL;
+            return (double) (edge - start) / delta;
+        }
+
+        long key(int cell) {
+            return alongX ? SegmentIndex.key(slab, cell) : SegmentIndex.key(cell, slab);
+        }
+    }
+
+    // === Cell table ===
+
+    private void enter(int segment, long key) {
+        if (entries == entrySegment.length) {
+            entrySegment = Arrays.copyOf(entrySegment, entries * 2);
+            entryNext = Arrays.copyOf(entryNext, entries * 2);
+            entryKey = Arrays.copyOf(entryKey, entries * 2);
+        }
+        int slot = slotFor(key);
+        entrySegment[entries] = segment;
+        entryKey[entries] = key;
+        entryNext[entries] = heads[slot];
+        heads[slot] = entries++;
+        if (cells * 2 > keys.length) rehash();
+    }
+
+    private static long key(int cx, int cy) {
+        return ((long) cx << 32) | (cy & 0xFFFFFFFFL);
+    }
+
+    private static int hash(long key) {
+        key *= 0x9E3779B97F4A7C15L;
+        return (int) (key ^ (key >>> 32));
+    }
+
+    private int head(long key) {
+        int mask = keys.length - 1;
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            if (keys[i] == key) return heads[i];
+            if (keys[i] == EMPTY) return -1;
+        }
+    }
+
+    private int slotFor(long key) {
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        while (keys[i] != EMPTY && keys[i] != key) i = (i + 1) & mask;
+        if (keys[i] == EMPTY) {
+            keys[i] = key;
+            cells++;
+        }
+        return i;
+    }
+
+    private void allocateTable(int size) {
+        keys = new long[size];
+        heads = new int[size];
+        Arrays.fill(keys, EMPTY);
+        Arrays.fill(heads, -1);
+        cells = 0;
+    }
+
+    // Entries keep their order within each cell
+    private void rehash() {
+        allocateTable(keys.length * 2);
+        for (int e = 0; e < entries; e++) {
+            int slot = slotFor(entryKey[e]);
+            entryNext[e] = heads[slot];
+            heads[slot] = e;
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package turtlegraphics;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Everything needed to carry on where a session left off, in one binary file:
+// the canvas pixels (raw or deflated), turtle and pen state, obstacles, the
+// movement recording, the command log and the display list. It is written
+// through a FileChannel and read back from a memory map, so loading costs
+// about as much as the file is long, however many commands drew it.
+//
+// Layout, little-endian: a 16 byte header (magic, version, section count,
+// zero), then sections of tag, encoding and payload length (16 bytes) followed
+// by the payload. Unknown sections are skipped.
+public final class SessionFile {
+    public static final String EXTENSION = "tgs";
+
+    private static final int MAGIC = 0x54475331; // "TGS1"
+    // 2: the exact turtle position follows the state ints
+    private static final int VERSION = 2;
+    private static final int HEADER = 16;
+    private static final int STATE = 1, CANVAS = 2, OBSTACLES = 3, RECORDING = 4, HISTORY = 5, DRAWING = 6;
+    private static final int SECTIONS = 6;
+    private static final int RAW = 0, DEFLATED = 1;
+    private static final int CHUNK = 1 << 16;
+
+    private SessionFile() { }
+
+    // What a session file holds, decoded; the recording still refers to the mapped file
+    public static final class Session {
+        public double x, y;
+        public int direction, stroke, speed;
+        public boolean penDown, collision, lineCollision;
+        public CollisionPolicy policy = CollisionPolicy.STOP;
+        public Color penColour, background;
+        public BufferedImage image;
+        public GridIndex obstacles = new GridIndex();
+        public MovementBuffer recording = new MovementBuffer();
+        public DisplayList drawing = new DisplayList();
+        // The command log as CommandHistory.write laid it out
+        ByteBuffer history;
+
+        public void readHistory(CommandHistory into) {
+            if (history != null) into.read(history.duplicate());
+        }
+    }
+
+    // === Saving ===
+
+    // Returns the number of bytes written. The file is replaced only once the
+    // new one is complete
+    public static long save(TurtleGraphics turtle, Path file, boolean compress) throws IOException {
+        Path partial = file.resolveSibling(file.getFileName() + ".part");
+        long bytes;
+        try (FileChannel ch = FileChannel.open(partial, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ch.position(HEADER);
+
+            ByteBuffer state = buffer(56);
+            state.putInt(turtle.getxPos()).putInt(turtle.getyPos()).putInt(turtle.getDirection())
+                    .putInt(turtle.getPenState() ? 1 : 0).putInt(turtle.getPenColour().getRGB())
+                    .putInt((int) turtle.getStroke()).putInt(turtle.isCollisionDetection() ? 1 : 0)
+                    .putInt(turtle.getAnimationSpeed()).putInt(turtle.getCanvasBackground().getRGB())
+                    .putInt((turtle.isLineCollision() ? 1 : 0) | turtle.getCollisionPolicy().ordinal() << 1)
+                    .putDouble(turtle.getGeometry().getExactX()).putDouble(turtle.getGeometry().getExactY());
+            section(ch, STATE, RAW, state.flip());
+
+            writeCanvas(ch, turtle.getCurrentImage(), compress);
+
+            SpatialIndex obstacles = turtle.getObstacleIndex();
+            ByteBuffer points = buffer(4 + obstacles.size() * 8);
+            points.putInt(obstacles.size());
+            for (int i = 0; i < obstacles.size(); i++) points.putInt(obstacles.x(i)).putInt(obstacles.y(i));
+            section(ch, OBSTACLES, RAW, points.flip());
+
+            long start = begin(ch, RECORDING, RAW);
+            turtle.getRecording().write(ch);
+            end(ch, start);
+
+            start = begin(ch, HISTORY, RAW);
+            turtle.getCommandHistory().write(ch);
+            end(ch, start);
+
+            DisplayList drawing = turtle.getDisplayList();
+            ByteBuffer list = buffer(drawing.encodedSize());
+            drawing.encode(list);
+            section(ch, DRAWING, RAW, list.flip());
+
+            ByteBuffer header = buffer(HEADER).putInt(MAGIC).putInt(VERSION).putInt(SECTIONS).putInt(0).flip();
+            while (header.hasRemaining()) ch.write(header, header.position());
+            bytes = ch.size();
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(partial);
+            throw e;
+        }
+        Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return bytes;
+    }
+
+    // Width, height and image type, then ARGB pixels row by row
+    private static void writeCanvas(FileChannel ch, BufferedImage image, boolean compress) throws IOException {
+        int width = image.getWidth(), height = image.getHeight();
+        ByteBuffer pixels = ByteBuffer.allocateDirect(Math.multiplyExact(Math.multiplyExact(width, height), 4)).order(ByteOrder.LITTLE_ENDIAN);
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            pixels.asIntBuffer().put(image.getRGB(0, y, width, 1, row, 0, width));
+            pixels.position(pixels.position() + width * 4);
+        }
+        pixels.flip();
+
+        long start = begin(ch, CANVAS, compress ? DEFLATED : RAW);
+        writeFully(ch, buffer(12).putInt(width).putInt(height).putInt(image.getType()).flip());
+        if (!compress) {
+            writeFully(ch, pixels);
+        } else {
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try {
+                deflater.setInput(pixels);
+                deflater.finish();
+                ByteBuffer out = ByteBuffer.allocateDirect(CHUNK);
+                while (!deflater.finished()) {
+                    deflater.deflate(out);
+                    writeFully(ch, out.flip());
+                    out.clear();
+                }
+            } finally {
+                deflater.end();
+            }
+        }
+        end(ch, start);
+    }
+
+    private static void section(FileChannel ch, int tag, int encoding, ByteBuffer payload) throws IOException {
+        long start = begin(ch, tag, encoding);
+        writeFully(ch, payload);
+        end(ch, start);
+    }
+
+    // Leaves room for the section header; end() fills it in once the length is known
+    private static long begin(FileChannel ch, int tag, int encoding) throws IOException {
+        long start = ch.position();
+        writeFully(ch, buffer(16).putInt(tag).putInt(encoding).putLong(0).flip());
+        return start;
+    }
+
+    private static void end(FileChannel ch, long start) throws IOException {
+        ByteBuffer length = buffer(8).putLong(ch.position() - start - 16).flip();
+        while (length.hasRemaining()) ch.write(length, start + 8 + length.position());
+    }
+
+    private static ByteBuffer buffer(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) ch.write(buf);
+    }
+
+    // === Loading ===
+
+    public static Session read(Path file) throws IOException {
+        ByteBuffer mapped;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            mapped = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        try {
+            if (mapped.remaining() < HEADER || mapped.getInt(0) != MAGIC) {
+                throw new IOException("Not a session file: " + file);
+            }
+            if (mapped.getInt(4) > VERSION) throw new IOException("Session file is from a newer version: " + file);
+
+            Session session = new Session();
+            boolean hasState = false;
+            int sections = mapped.getInt(8);
+            mapped.position(HEADER);
+            for (int i = 0; i < sections; i++) {
+                int tag = mapped.getInt(), encoding = mapped.getInt();
+                long length = mapped.getLong();
+                if (length < 0 || length > mapped.remaining()) throw new IOException("Truncated session file: " + file);
+                ByteBuffer payload = mapped.slice(mapped.position(), (int) length).order(ByteOrder.LITTLE_ENDIAN);
+                mapped.position(mapped.position() + (int) length);
+
+                switch (tag) {
+                    case STATE -> {
+                        readState(payload, session);
+                        hasState = true;
+                    }
+                    case CANVAS -> session.image = readCanvas(payload, encoding);
+                    case OBSTACLES -> {
+                        int count = payload.getInt();
+                        if (count < 0 || count > payload.remaining() / 8) throw new IOException("Bad obstacle count " + count);
+                        session.obstacles = new GridIndex(count);
+                        for (int p = 0; p < count; p++) session.obstacles.add(payload.getInt(), payload.getInt());
+                    }
+                    case RECORDING -> session.recording = MovementBuffer.wrap(payload, file.toString());
+                    case HISTORY -> session.history = payload;
+                    case DRAWING -> session.drawing = DisplayList.decode(payload);
+                    default -> { } // from a later version
+                }
+            }
+            if (!hasState || session.image == null) throw new IOException("Session file has no canvas: " + file);
+            return session;
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new IOException("Corrupt session file " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static void readState(ByteBuffer in, Session s) {
+        s.x = in.getInt();
+        s.y = in.getInt();
+        s.direction = in.getInt();
+        s.penDown = in.getInt() != 0;
+        s.penColour = new Color(in.getInt(), true);
+        s.stroke = in.getInt();
+        s.collision = in.getInt() != 0;
+        s.speed = in.getInt();
+        s.background = new Color(in.getInt());
+        // Written as zero before line collision existed
+        int collision = in.getInt();
+        s.lineCollision = (collision & 1) != 0;
+        s.policy = CollisionPolicy.values()[Math.min(collision >> 1 & 3, CollisionPolicy.values().length - 1)];
+        // Version 1 kept only the pixel
+        if (in.remaining() >= 16) {
+            s.x = in.getDouble();
+            s.y = in.getDouble();
+        }
+    }
+
+    // Pixels go straight from the map (or the inflater) into the image's own array
+    private static BufferedImage readCanvas(ByteBuffer in, int encoding) throws IOException {
+        int width = in.getInt(), height = in.getInt(), type = in.getInt();
+        if (width <= 0 || height <= 0 || (long) width * height * 4 > Integer.MAX_VALUE) {
+            throw new IOException("Bad canvas size " + width + "x" + height);
+        }
+        BufferedImage image = new BufferedImage(width, height,
+                type == BufferedImage.TYPE_INT_ARGB ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        ByteBuffer raw = in.slice().order(ByteOrder.LITTLE_ENDIAN);
+
+        if (encoding == DEFLATED) {
+            raw = ByteBuffer.allocate(pixels.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(in.slice());
+                while (raw.hasRemaining() && !inflater.finished()) {
+                    if (inflater.inflate(raw) == 0 && inflater.needsInput()) break;
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Bad canvas data: " + e.getMessage());
+            } finally {
+                inflater.end();
+            }
+            raw.flip();
+        } else if (encoding != RAW) {
+            throw new IOException("Unknown canvas encoding " + encoding);
+        }
+        if (raw.remaining() < pixels.length * 4) throw new IOException("Canvas data is truncated");
+        raw.asIntBuffer().get(pixels);
+        return image;
+    }
+}
@@ -0,0 +1,119 @@
+package turtlegraphics;
+
+// The walks behind the shapes, shared by the app's turtle and the headless
+// one so both put a shape in the same place. Every shape leaves the turtle
+// where it found it, between pixels as it was, facing the same way with the
+// pen down.
+final class Shapes {
+    private Shapes() { }
+
+    // What a shape needs from a turtle
+    interface Walker {
+        TurtleGeometry getGeometry();
+        void reset();
+        void setPenState(boolean down);
+        void forward(int distance);
+        void left(int degrees);
+        void right(int degrees);
+        void pointTurtle(int degrees);
+        // A straight move to a pixel, through the collision policy
+        void moveTo(int x, int y);
+        // The circle itself, centred on (x, y): drawn, and kept in the display
+        // list and the line index
+        void circleAt(int x, int y, int radius);
+    }
+
+    static void square(Walker turtle, int size) {
+        if (size > 0) outline(turtle, 4, size, size, 90);
+    }
+
+    static void triangle(Walker turtle, int size) {
+        if (size > 0) outline(turtle, 3, size, size, 120);
+    }
+
+    static void rectangle(Walker turtle, int width, int height) {
+        if (width > 0 && height > 0) outline(turtle, 4, width, height, 90);
+    }
+
+    // Centred radius ahead along heading 0, whichever way the turtle faces
+    static void circle(Walker turtle, int radius) {
+        if (radius <= 0) return;
+        TurtleGeometry geometry = turtle.getGeometry();
+        double startX = geometry.getExactX(), startY = geometry.getExactY();
+        int dir = geometry.getDirection();
+        turtle.setPenState(false);
+        turtle.pointTurtle(0);
+        turtle.forward(radius);
+        turtle.setPenState(true);
+        turtle.circleAt(geometry.getX(), geometry.getY(), radius);
+        returnTo(turtle, startX, startY, dir);
+    }
+
+    // ROHAN in a horizontal line from the middle of the canvas
+    static void rohan(Walker turtle) {
+        turtle.reset();
+        turtle.setPenState(true);
+        turtle.pointTurtle(0); // Face right
+        int x = turtle.getGeometry().getX(), y = turtle.getGeometry().getY();
+
+        // === R ===
+        turtle.moveTo(x, y);
+        turtle.pointTurtle(90);
+        turtle.forward(50); turtle.right(90); turtle.forward(30); turtle.right(90); turtle.forward(50);
+        turtle.left(135); turtle.forward(45);
+
+        // === O ===
+        x += 60;
+        turtle.moveTo(x, y);
+        turtle.pointTurtle(0);
+        turtle.setPenState(true);
+        turtle.forward(30); turtle.right(90); turtle.forward(50); turtle.right(90);
+        turtle.forward(30); turtle.right(90); turtle.forward(50);
+
+        // === H ===
+        x += 60;
+        turtle.moveTo(x, y);
+        turtle.pointTurtle(90);
+        turtle.forward(50); turtle.setPenState(false); turtle.forward(-25); turtle.setPenState(true);
+        turtle.pointTurtle(0); turtle.forward(30);
+        turtle.setPenState(false); turtle.pointTurtle(90); turtle.forward(-25); turtle.setPenState(true);
+        turtle.forward(50);
+
+        // === A ===
+        x += 60;
+        turtle.moveTo(x, y);
+        turtle.pointTurtle(90);
+        turtle.forward(50); turtle.right(135); turtle.forward(60);
+        turtle.setPenState(false); turtle.forward(-30); turtle.left(90);
+        turtle.setPenState(true); turtle.forward(30);
+
+        // === N ===
+        x += 60;
+        turtle.moveTo(x, y);
+        turtle.pointTurtle(90);
+        turtle.forward(50); turtle.right(135); turtle.forward(70); turtle.left(135); turtle.forward(50);
+    }
+
+    // Sides alternately a and b long, pen down, turning right after each
+    private static void outline(Walker turtle, int sides, int a, int b, int turn) {
+        TurtleGeometry geometry = turtle.getGeometry();
+        double startX = geometry.getExactX(), startY = geometry.getExactY();
+        int dir = geometry.getDirection();
+        turtle.setPenState(true);
+        for (int i = 0; i < sides; i++) {
+            turtle.forward(i % 2 == 0 ? a : b);
+            turtle.right(turn);
+        }
+        returnTo(turtle, startX, startY, dir);
+    }
+
+    // Back to a position saved from the geometry, pen up
+    private static void returnTo(Walker turtle, double x, double y, int direction) {
+        TurtleGeometry geometry = turtle.getGeometry();
+        turtle.setPenState(false);
+        geometry.aimAt(x, y);
+        turtle.moveTo(geometry.getTargetX(), geometry.getTargetY());
+        turtle.pointTurtle(direction);
+        turtle.setPenState(true);
+    }
+}
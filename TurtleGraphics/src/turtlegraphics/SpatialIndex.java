@@ -0,0 +1,53 @@
+package turtlegraphics;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public interface SpatialIndex {
+    // Half-width of the square collision box around every obstacle
+    int COLLISION_RADIUS = 10;
+
+    // What firstHit returns for a move that hits nothing
+    double NO_HIT = Double.POSITIVE_INFINITY;
+
+    void add(int x, int y);
+    boolean hits(int x, int y);
+    boolean intersects(int x0, int y0, int x1, int y1);
+
+    // The fraction of the way along the move at which it first enters an
+    // obstacle's box, 0 to 1, or NO_HIT. Indexes that cannot tell say the start
+    default double firstHit(int x0, int y0, int x1, int y1) {
+        return intersects(x0, y0, x1, y1) ? 0 : NO_HIT;
+    }
+
+    int size();
+    void clear();
+
+    // Obstacle i in the order added, 0 <= i < size()
+    int x(int i);
+    int y(int i);
+
+    // Reads "x y" or "x,y" pairs, one per line; blank lines and # comments are skipped
+    default int addAll(Path file) throws IOException {
+        int count = 0, lineNo = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNo++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                String[] parts = line.split("[\\s,]+");
+                if (parts.length < 2) throw new IOException("Line " + lineNo + ": expected x and y");
+                try {
+                    add(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
+                } catch (NumberFormatException e) {
+                    throw new IOException("Line " + lineNo + ": " + e.getMessage());
+                }
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,295 @@
+package turtlegraphics;
+
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Canvas split into fixed-size tiles that are allocated on first touch.
+// At most maxResident tiles live on the heap; the least recently used one is
+// written to a raw spill file (one fixed slot per tile, row-major 0xRRGGBB)
+// and read back when it is touched again. Tiles never drawn on stay as the
+// background colour and cost nothing.
+public class TiledCanvas implements DrawingSurface {
+    public static final int DEFAULT_TILE_SIZE = 256;
+    public static final int DEFAULT_MAX_RESIDENT = 256;
+
+    private static final int NOT_SPILLED = -1;
+
+    private final int width, height, tileSize, tilesAcross, tilesDown, maxResident;
+    private final LinkedHashMap<Integer, Tile> resident;
+    private final int[] spillSlot;
+    private int nextSlot;
+    private Path spillFile;
+    private FileChannel spill;
+    private final ByteBuffer tileBuffer, rowBuffer;
+    private Color background = Color.BLACK;
+    private Tile spare;
+    private int loads, evictions;
+
+    private static class Tile {
+        int index;
+        final BufferedImage image;
+        final int[] pixels;
+        final Graphics2D g;
+        boolean dirty;
+        Color colour;
+        int stroke;
+
+        Tile(int size) {
+            image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+            pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            g = image.createGraphics();
+        }
+    }
+
+    public TiledCanvas(int width, int height) {
+        this(width, height, DEFAULT_TILE_SIZE, DEFAULT_MAX_RESIDENT);
+    }
+
+    public TiledCanvas(int width, int height, int tileSize, int maxResident) {
+        if (width <= 0 || height <= 0) throw new IllegalArgumentException("Canvas size must be positive");
+        if (tileSize <= 0 || maxResident <= 0) throw new IllegalArgumentException("Tile size and resident count must be positive");
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+        this.maxResident = maxResident;
+        tilesAcross = (width + tileSize - 1) / tileSize;
+        tilesDown = (height + tileSize - 1) / tileSize;
+        if ((long) tilesAcross * tilesDown > Integer.MAX_VALUE) throw new IllegalArgumentException("Canvas has too many tiles");
+
+        resident = new LinkedHashMap<>(Math.min(maxResident, 1024) * 2, 0.75f, true);
+        spillSlot = new int[tilesAcross * tilesDown];
+        Arrays.fill(spillSlot, NOT_SPILLED);
+        tileBuffer = ByteBuffer.allocateDirect(tileSize * tileSize * 4);
+        rowBuffer = ByteBuffer.allocateDirect(tileSize * 4);
+    }
+
+    public int getWidth() { return width; }
+    public int getHeight() { return height; }
+    public int getTileSize() { return tileSize; }
+    public int getResidentCount() { return resident.size(); }
+    public int getSpilledCount() { return nextSlot; }
+    public int getLoadCount() { return loads; }
+    public int getEvictionCount() { return evictions; }
+
+    // === Drawing ===
+
+    public void clear(Color background) {
+        this.background = background;
+        for (Tile tile : resident.values()) tile.g.dispose();
+        resident.clear();
+        spare = null;
+        Arrays.fill(spillSlot, NOT_SPILLED);
+        nextSlot = 0;
+        try {
+            if (spill != null) spill.truncate(0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public void drawLine(int x1, int y1, int x2, int y2, Color colour, int stroke) {
+        int pad = stroke / 2 + 2;
+        int tx0 = tileX(Math.min(x1, x2) - pad), tx1 = tileX(Math.max(x1, x2) + pad);
+        int ty0 = tileY(Math.min(y1, y2) - pad), ty1 = tileY(Math.max(y1, y2) + pad);
+        Rectangle bounds = new Rectangle();
+        for (int ty = ty0; ty <= ty1; ty++) {
+            for (int tx = tx0; tx <= tx1; tx++) {
+                // Long diagonals cross few of the tiles in their bounding box
+                bounds.setBounds(tx * tileSize - pad, ty * tileSize - pad, tileSize + 2 * pad, tileSize + 2 * pad);
+                if (!bounds.intersectsLine(x1, y1, x2, y2)) continue;
+                Tile tile = touch(tx, ty, colour, stroke);
+                tile.g.drawLine(x1, y1, x2, y2);
+            }
+        }
+    }
+
+    public void drawOval(int x, int y, int width, int height, Color colour, int stroke) {
+        int pad = stroke / 2 + 2;
+        int tx0 = tileX(x - pad), tx1 = tileX(x + width + pad);
+        int ty0 = tileY(y - pad), ty1 = tileY(y + height + pad);
+        Polygon polygon = DrawingSurface.ovalPolygon(x, y, width, height);
+        for (int ty = ty0; ty <= ty1; ty++) {
+            for (int tx = tx0; tx <= tx1; tx++) {
+                touch(tx, ty, colour, stroke).g.drawPolygon(polygon);
+            }
+        }
+    }
+
+    private int tileX(int x) { return Math.max(0, Math.min(tilesAcross - 1, Math.floorDiv(x, tileSize))); }
+    private int tileY(int y) { return Math.max(0, Math.min(tilesDown - 1, Math.floorDiv(y, tileSize))); }
+
+    private Tile touch(int tx, int ty, Color colour, int stroke) {
+        Tile tile = tile(ty * tilesAcross + tx);
+        tile.dirty = true;
+        if (!colour.equals(tile.colour)) {
+            tile.colour = colour;
+            tile.g.setColor(colour);
+        }
+        if (stroke != tile.stroke) {
+            tile.stroke = stroke;
+            tile.g.setStroke(new BasicStroke(stroke));
+        }
+        return tile;
+    }
+
+    // === Tile cache ===
+
+    private Tile tile(int index) {
+        Tile tile = resident.get(index);
+        if (tile != null) return tile;
+
+        if (resident.size() >= maxResident) evictEldest();
+        tile = spare != null ? spare : new Tile(tileSize);
+        spare = null;
+        tile.index = index;
+        tile.dirty = false;
+
+        if (spillSlot[index] != NOT_SPILLED) {
+            readTile(spillSlot[index], tile.pixels);
+            loads++;
+        } else {
+            Arrays.fill(tile.pixels, background.getRGB() & 0xFFFFFF);
+        }
+
+        // Drawing is done in canvas coordinates
+        tile.g.setTransform(new AffineTransform());
+        tile.g.translate(-(index % tilesAcross) * tileSize, -(index / tilesAcross) * tileSize);
+        resident.put(index, tile);
+        return tile;
+    }
+
+    private void evictEldest() {
+        Iterator<Map.Entry<Integer, Tile>> it = resident.entrySet().iterator();
+        Tile eldest = it.next().getValue();
+        it.remove();
+        if (eldest.dirty) {
+            if (spillSlot[eldest.index] == NOT_SPILLED) spillSlot[eldest.index] = nextSlot++;
+            writeTile(spillSlot[eldest.index], eldest.pixels);
+        }
+        evictions++;
+        spare = eldest;
+    }
+
+    private FileChannel spill() throws IOException {
+        if (spill == null) {
+            spillFile = Files.createTempFile("turtle-tiles", ".raw");
+            spillFile.toFile().deleteOnExit();
+            spill = FileChannel.open(spillFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        return spill;
+    }
+
+    private void writeTile(int slot, int[] pixels) {
+        tileBuffer.clear();
+        tileBuffer.asIntBuffer().put(pixels);
+        try {
+            FileChannel channel = spill();
+            long position = (long) slot * tileBuffer.capacity();
+            while (tileBuffer.hasRemaining()) {
+                position += channel.write(tileBuffer, position);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void readTile(int slot, int[] pixels) {
+        read(tileBuffer, (long) slot * tileBuffer.capacity());
+        tileBuffer.flip();
+        tileBuffer.asIntBuffer().get(pixels);
+    }
+
+    private void read(ByteBuffer buffer, long position) {
+        buffer.clear();
+        try {
+            while (buffer.hasRemaining()) {
+                int n = spill.read(buffer, position);
+                if (n < 0) throw new IOException("Tile spill file is truncated");
+                position += n;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // === Reading ===
+
+    // Reads straight from resident tiles or the spill file without making
+    // anything resident, so a full-canvas export does not churn the cache
+    public void readRow(int y, int[] dst) {
+        int ty = y / tileSize, inner = y % tileSize;
+        int bg = background.getRGB() & 0xFFFFFF;
+        for (int tx = 0; tx < tilesAcross; tx++) {
+            int index = ty * tilesAcross + tx;
+            int x = tx * tileSize, n = Math.min(tileSize, width - x);
+            Tile tile = resident.get(index);
+            if (tile != null) {
+                System.arraycopy(tile.pixels, inner * tileSize, dst, x, n);
+            } else if (spillSlot[index] != NOT_SPILLED) {
+                read(rowBuffer, (long) spillSlot[index] * tileBuffer.capacity() + (long) inner * rowBuffer.capacity());
+                rowBuffer.flip();
+                rowBuffer.asIntBuffer().get(dst, x, n);
+            } else {
+                Arrays.fill(dst, x, x + n, bg);
+            }
+        }
+    }
+
+    public BufferedImage toImage() {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            readRow(y, row);
+            image.setRGB(0, y, width, 1, row, 0, width);
+        }
+        return image;
+    }
+
+    // Paints only the tiles that intersect the clip; tiles never drawn on are
+    // filled with the background instead of being allocated
+    public void paint(Graphics g, Rectangle clip) {
+        int tx0 = tileX(clip.x), tx1 = tileX(clip.x + clip.width - 1);
+        int ty0 = tileY(clip.y), ty1 = tileY(clip.y + clip.height - 1);
+        for (int ty = ty0; ty <= ty1; ty++) {
+            for (int tx = tx0; tx <= tx1; tx++) {
+                int index = ty * tilesAcross + tx;
+                int x = tx * tileSize, y = ty * tileSize;
+                if (resident.containsKey(index) || spillSlot[index] != NOT_SPILLED) {
+                    g.drawImage(tile(index).image, x, y, null);
+                } else {
+                    g.setColor(background);
+                    g.fillRect(x, y, tileSize, tileSize);
+                }
+            }
+        }
+    }
+
+    public void dispose() {
+        for (Tile tile : resident.values()) tile.g.dispose();
+        resident.clear();
+        spare = null;
+        try {
+            if (spill != null) {
+                spill.close();
+                Files.deleteIfExists(spillFile);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            spill = null;
+        }
+    }
+}
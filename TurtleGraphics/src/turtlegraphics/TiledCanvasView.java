@@ -0,0 +1,83 @@
+package turtlegraphics;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+// Scrollable viewport over a TiledCanvas; each repaint composites only the
+// tiles under the clip, so the canvas can be far larger than the heap
+public class TiledCanvasView extends JComponent implements Scrollable {
+    private final TiledCanvas canvas;
+
+    public TiledCanvasView(TiledCanvas canvas) {
+        this.canvas = canvas;
+        setOpaque(true);
+    }
+
+    public TiledCanvas getCanvas() { return canvas; }
+
+    @Override
+    public Dimension getPreferredSize() {
+        return new Dimension(canvas.getWidth(), canvas.getHeight());
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) clip = new Rectangle(0, 0, getWidth(), getHeight());
+        canvas.paint(g, clip);
+    }
+
+    // === Scrollable ===
+
+    public Dimension getPreferredScrollableViewportSize() {
+        return new Dimension(Math.min(canvas.getWidth(), 1024), Math.min(canvas.getHeight(), 768));
+    }
+
+    public int getScrollableUnitIncrement(Rectangle visible, int orientation, int direction) {
+        return canvas.getTileSize() / 8;
+    }
+
+    public int getScrollableBlockIncrement(Rectangle visible, int orientation, int direction) {
+        return orientation == SwingConstants.VERTICAL ? visible.height : visible.width;
+    }
+
+    public boolean getScrollableTracksViewportWidth() { return false; }
+    public boolean getScrollableTracksViewportHeight() { return false; }
+
+    // === Command line ===
+
+    // --view <script.txt> [WxH]: renders the script onto a tiled canvas and opens it
+    public static void run(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: --view <script.txt> [WxH]");
+            return;
+        }
+        Path script = Paths.get(args[0]);
+        int[] size = args.length > 1 ? HeadlessRenderer.parseSize(args[1])
+                : new int[] {HeadlessTurtle.DEFAULT_WIDTH, HeadlessTurtle.DEFAULT_HEIGHT};
+
+        TiledCanvas canvas = new TiledCanvas(size[0], size[1]);
+        HeadlessTurtle turtle = new HeadlessTurtle(canvas);
+        int errors = ScriptExecutor.execute(ScriptCompiler.compile(script), turtle);
+
+        SwingUtilities.invokeLater(() -> {
+            JFrame frame = new JFrame("Turtle Graphics - " + script.getFileName()
+                    + (errors > 0 ? " (" + errors + " errors)" : ""));
+            frame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+            frame.add(new JScrollPane(new TiledCanvasView(canvas)));
+            frame.addWindowListener(new WindowAdapter() {
+                @Override
+                public void windowClosed(WindowEvent e) {
+                    canvas.dispose();
+                }
+            });
+            frame.pack();
+            frame.setVisible(true);
+        });
+    }
+}
@@ -0,0 +1,624 @@
+package turtlegraphics;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.WritableRaster;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Undo, redo and time travel over the command history. Every few commands the
+// canvas is checkpointed as 64x64 tiles, each kept either as one colour or as
+// its deflated pixels, and tiles unchanged since the previous checkpoint are
+// shared with it. Going to a command restores the nearest checkpoint at or
+// before it and replays only the commands in between. When the tiles pass the
+// memory budget, the checkpoints closest to their neighbours are dropped.
+//
+// A command file loaded from the floor can be reloaded after an edit: the
+// history is rewound to the first changed line and only the rest is run, or,
+// when the edit leaves the turtle as it was, spliced in with just the canvas
+// under it redrawn.
+public class Timeline {
+    public static final int DEFAULT_INTERVAL = 64;
+    public static final long DEFAULT_BUDGET = 32L << 20;
+    private static final int TILE = 64;
+
+    // Files, dialogs, recordings and obstacles are left alone when replaying;
+    // everything else, procedures and variables included, is run again
+    private static final Set<String> SKIPPED = Set.of(
+            "about", "save", "load", "exit", "record", "stoprecord", "play", "saverecording",
+            "loadrecording", "speed", "pause", "resume", "stopplay", "seek", "instant", "paced",
+            "addobstacle", "addobstacles", "export", "exportscaled", "savesession", "loadsession");
+
+    // What an edit must leave out for the lines after it to be kept as they
+    // are: besides the above, procedure definitions, which later lines may
+    // call, and anything that wipes the canvas
+    private static final Set<String> UNSETTLING = Set.of("to", "end", "clear", "reset");
+
+    private final TurtleGraphics turtle;
+    private final CommandHistory history;
+    private final CommandParser parser;
+    private final int interval;
+    private final long budget;
+
+    private final ArrayList<Checkpoint> checkpoints = new ArrayList<>();
+    private int position;
+    private long tileBytes;
+    private boolean replaying;
+    // The command file the floor was taken for, if any
+    private Path source;
+
+    // Latest checkpoint at or before the position, and its pixels (when known)
+    // to find the tiles that changed since
+    private Checkpoint current;
+    private int[] reference;
+    private int width, height, across, down;
+    private final byte[] tileBytesBuffer = new byte[TILE * TILE * 4];
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final Inflater inflater = new Inflater();
+
+    public Timeline(TurtleGraphics turtle, CommandHistory history, CommandParser parser) {
+        this(turtle, history, parser, DEFAULT_INTERVAL, DEFAULT_BUDGET);
+    }
+
+    public Timeline(TurtleGraphics turtle, CommandHistory history, CommandParser parser, int interval, long budget) {
+        if (interval <= 0 || budget <= 0) throw new IllegalArgumentException("Interval and budget must be positive");
+        this.turtle = turtle;
+        this.history = history;
+        this.parser = parser;
+        this.interval = interval;
+        this.budget = budget;
+        rebase();
+    }
+
+    // === Tracking ===
+
+    public int getPosition() { return position; }
+    public int getCheckpointCount() { return checkpoints.size(); }
+    public long getCheckpointBytes() { return tileBytes; }
+    public boolean isReplaying() { return replaying; }
+
+    // Earliest command that can be gone back to
+    public int getFloor() { return checkpoints.get(0).position; }
+
+    // Called before a new command is added; an undone tail can no longer be redone
+    public void beforeCommand() {
+        if (position < history.size()) {
+            history.truncate(position);
+            dropAfter(position);
+        }
+    }
+
+    // Called once commands have been applied and added to the history
+    public void afterCommands() {
+        if (replaying) return;
+        position = history.size();
+        if (position - current.position >= interval && !parser.isPending()) checkpoint();
+    }
+
+    // Forgets every checkpoint and takes the current canvas as the new floor,
+    // for changes that replaying the history cannot reproduce (a loaded image,
+    // a replaced history, a reset before loading a command file)
+    public void rebase() {
+        source = null;
+        for (Checkpoint c : checkpoints) c.release();
+        checkpoints.clear();
+        current = null;
+        reference = null;
+        position = history.size();
+        checkpoint();
+    }
+
+    public Path getSource() { return source; }
+    public void setSource(Path file) { source = file; }
+
+    // === Travel ===
+
+    public boolean undo() { return travelTo(position - 1); }
+    public boolean redo() { return travelTo(position + 1); }
+
+    public boolean travelTo(int target) {
+        return travelTo(target, false);
+    }
+
+    // Afresh, the canvas and turtle are restored even when already at the
+    // target, for when they have been run past it and the position not moved
+    private boolean travelTo(int target, boolean afresh) {
+        if (target < getFloor() || target > history.size()) return false;
+        if (target == position && !afresh) return true;
+
+        Checkpoint from = checkpoints.get(0);
+        for (Checkpoint c : checkpoints) {
+            if (c.position <= target) from = c;
+        }
+        // Replaying on from here is cheaper than restoring an older checkpoint
+        boolean resume = !afresh && position < target && position >= from.position;
+
+        turtle.stopPlayback();
+        turtle.beginBatch();
+        replaying = true;
+        try {
+            if (!resume) restore(from);
+            for (int i = resume ? position : from.position; i < target; i++) {
+                String command = history.get(i);
+                String[] parts = command.trim().split("\\s+", 2);
+                if (parser.isPending() || !SKIPPED.contains(parts[0].toLowerCase())) parser.parseAndExecute(command);
+                position = i + 1;
+
+                // Passing a checkpoint kept from before, or filling in a gap between two
+                int next = checkpoints.indexOf(current) + 1;
+                if (next < checkpoints.size() && checkpoints.get(next).position == position) {
+                    current = checkpoints.get(next);
+                    reference = capture();
+                } else if (position - current.position >= interval && !parser.isPending()) {
+                    checkpoint();
+                }
+            }
+        } finally {
+            replaying = false;
+            turtle.markDirty(0, 0, width, height);
+            turtle.endBatch();
+        }
+        return true;
+    }
+
+    // === Reloading ===
+
+    // Goes back to a command and forgets everything after it
+    public void rewind(int target) {
+        travelTo(target);
+        history.truncate(position);
+        dropAfter(position);
+    }
+
+    // Whether an edit can be spliced in: neither the old nor the new lines may
+    // hold a command that outlasts the turtle's state, and nothing in the
+    // script may use line collision, under which every later move depends on
+    // what was drawn before it
+    public static boolean isLocal(List<String> removed, List<String> added, List<String> script) {
+        for (List<String> lines : List.of(removed, added)) {
+            for (String line : lines) {
+                if (!settles(line)) return false;
+            }
+        }
+        for (String line : script) {
+            if (mentions(line, "linecollision")) return false;
+        }
+        return true;
+    }
+
+    // Cheaper than splitting every line of a long script into words
+    private static boolean mentions(String line, String word) {
+        for (int i = line.length() - word.length(); i >= 0; i--) {
+            if (line.regionMatches(true, i, word, 0, word.length())) return true;
+        }
+        return false;
+    }
+
+    private static boolean settles(String line) {
+        for (String word : words(line)) {
+            if (SKIPPED.contains(word) || UNSETTLING.contains(word)) return false;
+        }
+        return true;
+    }
+
+    private static String[] words(String line) {
+        return line.toLowerCase().replace('[', ' ').replace(']', ' ').trim().split("\\s+");
+    }
+
+    // Runs lines in place of the commands from..to, keeping those after to.
+    // Once the new lines leave the turtle exactly as the old ones did, every
+    // later command would draw just what it drew before: those commands,
+    // their drawing and the state they ended in are kept, and only the part
+    // of the canvas the old or new lines drew on is redrawn. An edit often
+    // settles a little after its last line (a colour changed until the next
+    // one), so the commands after it are followed for up to an interval to
+    // find where. If it never settles, the history ends after what was run,
+    // the position says where the caller is to carry on, and false is
+    // returned. The edit must be local.
+    public boolean splice(int from, int to, List<String> lines) {
+        int end = history.size();
+        BufferedImage image = turtle.getCurrentImage();
+        int w = image.getWidth(), h = image.getHeight();
+        Checkpoint last = new Checkpoint(end, turtle);
+        DisplayList finished = turtle.getDisplayList();
+        int[] pixels = read(image, 0, 0, w, h);
+
+        turtle.stopPlayback();
+        turtle.beginBatch();
+        try {
+            // The old lines and those after them, with the state at each top-level boundary
+            travelTo(from);
+            DisplayList before = turtle.getDisplayList();
+            long start = before.mark();
+            run(history.asList().subList(from, to));
+            ArrayList<String> after = new ArrayList<>();
+            ArrayList<Checkpoint> states = new ArrayList<>();
+            while (true) {
+                states.add(parser.isPending() ? null : new Checkpoint(to + after.size(), turtle));
+                int next = to + after.size();
+                if (after.size() == interval || next == end || !settles(history.get(next))) break;
+                after.add(history.get(next));
+                run(after.subList(after.size() - 1, after.size()));
+            }
+            // Back to the last top-level boundary, so nothing is left to resume inside a block
+            while (states.size() > 1 && states.get(states.size() - 1) == null) {
+                states.remove(states.size() - 1);
+                after.remove(after.size() - 1);
+            }
+            position = to + after.size();
+            boolean drawn = turtle.getDisplayList() == before && finished.startsWith(before, before.mark());
+
+            // The new lines from the same place, until they meet one of those states;
+            // the old pass may have ended back at from with its drawing kept or a
+            // block left half read, so from is restored whatever the position
+            travelTo(from, true);
+            DisplayList drawing = turtle.getDisplayList();
+            run(lines);
+            int ran = 0, met = -1;
+            while (drawn && turtle.getDisplayList() == drawing) {
+                Checkpoint state = states.get(ran);
+                if (state != null && !parser.isPending() && state.sameTurtle(new Checkpoint(0, turtle))) {
+                    met = ran;
+                    break;
+                }
+                if (ran == after.size()) break;
+                run(after.subList(ran, ++ran));
+            }
+            while (met < 0 && parser.isPending() && ran < after.size()) run(after.subList(ran, ++ran));
+            boolean kept = met >= 0 && image == turtle.getCurrentImage() && w == image.getWidth() && h == image.getHeight()
+                    && w == width && h == height;
+
+            if (!kept) {
+                dropAfter(from);
+                ArrayList<String> done = new ArrayList<>(lines);
+                done.addAll(after.subList(0, ran));
+                history.splice(from, end, done);
+                position = history.size();
+                return false;
+            }
+            int settled = to + met, shift = lines.size() - (to - from);
+            long oldMark = states.get(met).mark, newMark = drawing.mark();
+            Rectangle area = before.bounds(start, oldMark);
+            area.add(drawing.bounds(start, newMark));
+            area = area.intersection(new Rectangle(0, 0, w, h));
+            // Outside the area the canvas is as the old commands left it; inside,
+            // it is as the new ones left it, with the kept commands drawn over
+            int[] under = area.isEmpty() ? null : read(image, area.x, area.y, area.width, area.height);
+            write(image, 0, 0, w, h, pixels);
+            drawing.append(finished, oldMark);
+            long moved = drawing.mark() - finished.mark();
+            ImageSurface surface = new ImageSurface(image);
+            surface.clip(area);
+            if (under != null) write(image, area.x, area.y, area.width, area.height, under);
+
+            // Later checkpoints hold once moved past the edit and given the new
+            // drawing, except under the area: drawing the kept commands a
+            // checkpoint at a time gives each its pixels there
+            long at = newMark;
+            for (int i = checkpoints.size() - 1; i >= 0; i--) {
+                Checkpoint c = checkpoints.get(i);
+                if (c.position > from && c.position <= settled) checkpoints.remove(i).release();
+            }
+            for (Checkpoint c : checkpoints) {
+                if (c.position <= settled) continue;
+                // Both lists hold the same commands from here, one primitive on or
+                // back if only one of them joined the first to what came before
+                long mark = c.mark == oldMark ? newMark : c.mark + moved;
+                if (under != null) {
+                    drawing.replay(surface, at, mark, area);
+                    patch(c, image, area);
+                }
+                at = mark;
+                c.position += shift;
+                c.drawing = drawing;
+                c.mark = mark;
+            }
+            if (under != null) drawing.replay(surface, at, drawing.mark(), area);
+            surface.dispose();
+
+            last.applyTurtle(turtle);
+            history.splice(from, to, lines);
+            position = history.size();
+            current = newest();
+            reference = null;
+            if (current.position == position) reference = capture();
+            else checkpoint();
+            trim();
+            return true;
+        } finally {
+            turtle.markDirty(0, 0, width, height);
+            turtle.endBatch();
+        }
+    }
+
+    private void run(List<String> lines) {
+        replaying = true;
+        try {
+            for (String line : lines) parser.parseAndExecute(line);
+        } finally {
+            replaying = false;
+        }
+    }
+
+    // === Checkpoints ===
+
+    private Checkpoint newest() { return checkpoints.get(checkpoints.size() - 1); }
+
+    private int[] capture() {
+        return read(turtle.getCurrentImage(), 0, 0, width, height);
+    }
+
+    // Pixels as the canvas holds them: copied straight from an int raster, so
+    // a capture costs a copy rather than a colour conversion per pixel
+    private static int[] read(BufferedImage image, int x, int y, int w, int h) {
+        WritableRaster raster = image.getRaster();
+        if (packed(raster)) return (int[]) raster.getDataElements(x, y, w, h, null);
+        return image.getRGB(x, y, w, h, null, 0, w);
+    }
+
+    private static void write(BufferedImage image, int x, int y, int w, int h, int[] pixels) {
+        WritableRaster raster = image.getRaster();
+        if (packed(raster)) raster.setDataElements(x, y, w, h, pixels);
+        else image.setRGB(x, y, w, h, pixels, 0, w);
+    }
+
+    private static boolean packed(WritableRaster raster) {
+        return raster.getTransferType() == DataBuffer.TYPE_INT && raster.getNumDataElements() == 1;
+    }
+
+    // Inserted right after the current checkpoint, which is older than the position
+    private void checkpoint() {
+        BufferedImage image = turtle.getCurrentImage();
+        if (image.getWidth() != width || image.getHeight() != height) {
+            width = image.getWidth();
+            height = image.getHeight();
+            across = (width + TILE - 1) / TILE;
+            down = (height + TILE - 1) / TILE;
+            reference = null;
+        }
+
+        Checkpoint c = new Checkpoint(position, turtle);
+        int[] pixels = capture();
+        for (int t = 0; t < c.tiles.length; t++) {
+            if (reference == null || changed(pixels, t)) {
+                c.tiles[t] = encode(pixels, t);
+            } else {
+                c.tiles[t] = current.tiles[t];
+                c.tiles[t].refs++;
+            }
+        }
+        checkpoints.add(current == null ? 0 : checkpoints.indexOf(current) + 1, c);
+        current = c;
+        reference = pixels;
+        trim();
+    }
+
+    private boolean changed(int[] pixels, int tile) {
+        int x0 = (tile % across) * TILE, y0 = (tile / across) * TILE;
+        int w = Math.min(TILE, width - x0), h = Math.min(TILE, height - y0);
+        for (int y = 0; y < h; y++) {
+            int row = (y0 + y) * width + x0;
+            if (!Arrays.equals(pixels, row, row + w, reference, row, row + w)) return true;
+        }
+        return false;
+    }
+
+    private Tile encode(int[] pixels, int tile) {
+        int x0 = (tile % across) * TILE, y0 = (tile / across) * TILE;
+        int w = Math.min(TILE, width - x0), h = Math.min(TILE, height - y0);
+        int first = pixels[y0 * width + x0];
+        boolean uniform = true;
+        int n = 0;
+        for (int y = 0; y < h; y++) {
+            int row = (y0 + y) * width + x0;
+            for (int x = 0; x < w; x++) {
+                int p = pixels[row + x];
+                uniform &= p == first;
+                n = put(n, p);
+            }
+        }
+        return uniform ? new Tile(first, null) : pack(n);
+    }
+
+    private int put(int n, int p) {
+        tileBytesBuffer[n++] = (byte) (p >>> 24);
+        tileBytesBuffer[n++] = (byte) (p >>> 16);
+        tileBytesBuffer[n++] = (byte) (p >>> 8);
+        tileBytesBuffer[n++] = (byte) p;
+        return n;
+    }
+
+    // Gives a checkpoint the canvas's pixels under the area in each tile the
+    // area touches; a patched tile is no longer shared
+    private void patch(Checkpoint c, BufferedImage image, Rectangle area) {
+        for (int ty = area.y / TILE; ty <= (area.y + area.height - 1) / TILE; ty++) {
+            for (int tx = area.x / TILE; tx <= (area.x + area.width - 1) / TILE; tx++) {
+                int t = ty * across + tx, x0 = tx * TILE, y0 = ty * TILE;
+                int w = Math.min(TILE, width - x0), h = Math.min(TILE, height - y0);
+                Tile tile = c.tiles[t];
+                if (tile.data == null) {
+                    for (int n = 0; n < w * h * 4; ) n = put(n, tile.colour);
+                } else {
+                    inflate(tile.data, w * h * 4);
+                }
+                Rectangle r = area.intersection(new Rectangle(x0, y0, w, h));
+                int[] fresh = read(image, r.x, r.y, r.width, r.height);
+                for (int y = 0; y < r.height; y++) {
+                    for (int x = 0, n = ((r.y - y0 + y) * w + r.x - x0) * 4; x < r.width; x++) {
+                        n = put(n, fresh[y * r.width + x]);
+                    }
+                }
+                c.tiles[t] = pack(w * h * 4);
+                if (--tile.refs == 0 && tile.data != null) tileBytes -= tile.data.length;
+            }
+        }
+    }
+
+    // A tile from the bytes in the buffer: one colour if they are all the same
+    private Tile pack(int n) {
+        boolean uniform = true;
+        for (int i = 4; i < n && uniform; i++) uniform = tileBytesBuffer[i] == tileBytesBuffer[i & 3];
+        if (uniform) {
+            return new Tile((tileBytesBuffer[0] & 0xFF) << 24 | (tileBytesBuffer[1] & 0xFF) << 16
+                    | (tileBytesBuffer[2] & 0xFF) << 8 | (tileBytesBuffer[3] & 0xFF), null);
+        }
+        deflater.reset();
+        deflater.setInput(tileBytesBuffer, 0, n);
+        deflater.finish();
+        byte[] out = new byte[n / 4 + 64];
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == out.length) out = Arrays.copyOf(out, out.length * 2);
+            length += deflater.deflate(out, length, out.length - length);
+        }
+        Tile t = new Tile(0, Arrays.copyOf(out, length));
+        tileBytes += length;
+        return t;
+    }
+
+    private void restore(Checkpoint c) {
+        BufferedImage image = turtle.getCurrentImage();
+        int[] pixels = new int[width * height];
+        for (int t = 0; t < c.tiles.length; t++) {
+            int x0 = (t % across) * TILE, y0 = (t / across) * TILE;
+            int w = Math.min(TILE, width - x0), h = Math.min(TILE, height - y0);
+            Tile tile = c.tiles[t];
+            if (tile.data == null) {
+                for (int y = 0; y < h; y++) {
+                    int row = (y0 + y) * width + x0;
+                    Arrays.fill(pixels, row, row + w, tile.colour);
+                }
+                continue;
+            }
+            inflate(tile.data, w * h * 4);
+            for (int y = 0, n = 0; y < h; y++) {
+                int row = (y0 + y) * width + x0;
+                for (int x = 0; x < w; x++, n += 4) {
+                    pixels[row + x] = (tileBytesBuffer[n] & 0xFF) << 24 | (tileBytesBuffer[n + 1] & 0xFF) << 16
+                            | (tileBytesBuffer[n + 2] & 0xFF) << 8 | (tileBytesBuffer[n + 3] & 0xFF);
+                }
+            }
+        }
+        write(image, 0, 0, width, height, pixels);
+        c.apply(turtle);
+        position = c.position;
+        // Later checkpoints stay: replaying the same commands gets back to them
+        current = c;
+        reference = pixels;
+    }
+
+    private void inflate(byte[] data, int length) {
+        inflater.reset();
+        inflater.setInput(data);
+        try {
+            int n = 0;
+            while (n < length && !inflater.finished()) n += inflater.inflate(tileBytesBuffer, n, length - n);
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt checkpoint tile", e);
+        }
+    }
+
+    private void dropAfter(int index) {
+        while (checkpoints.size() > 1 && newest().position > index) {
+            checkpoints.remove(checkpoints.size() - 1).release();
+        }
+    }
+
+    // Keeps the floor, the newest and the current checkpoint; otherwise drops
+    // whichever leaves the smallest gap, so the survivors thin out evenly
+    private void trim() {
+        while (tileBytes > budget && checkpoints.size() > 3) {
+            int best = -1, gap = Integer.MAX_VALUE;
+            for (int i = 1; i < checkpoints.size() - 1; i++) {
+                if (checkpoints.get(i) == current) continue;
+                int g = checkpoints.get(i + 1).position - checkpoints.get(i - 1).position;
+                if (g < gap) {
+                    gap = g;
+                    best = i;
+                }
+            }
+            checkpoints.remove(best).release();
+        }
+    }
+
+    // A canvas tile, shared by every checkpoint in which it did not change
+    private static class Tile {
+        final int colour;
+        final byte[] data;
+        int refs = 1;
+
+        Tile(int colour, byte[] data) {
+            this.colour = colour;
+            this.data = data;
+        }
+    }
+
+    private class Checkpoint {
+        // Moved on, with the drawing, when an edit before them is spliced in
+        int position;
+        final Tile[] tiles = new Tile[across * down];
+        final double x, y;
+        final int direction, stroke;
+        final boolean pen, collision, lineCollision;
+        final CollisionPolicy policy;
+        final Color colour;
+        DisplayList drawing;
+        long mark;
+        final int[] variables;
+
+        Checkpoint(int position, TurtleGraphics t) {
+            this.position = position;
+            x = t.getGeometry().getExactX();
+            y = t.getGeometry().getExactY();
+            direction = t.getDirection();
+            stroke = (int) t.getStroke();
+            pen = t.getPenState();
+            collision = t.isCollisionDetection();
+            lineCollision = t.isLineCollision();
+            policy = t.getCollisionPolicy();
+            colour = t.getPenColour();
+            drawing = t.getDisplayList();
+            mark = drawing.mark();
+            variables = parser.getContext().saveVariables();
+        }
+
+        void apply(TurtleGraphics t) {
+            applyTurtle(t);
+            t.setDisplayList(drawing.copy(mark));
+        }
+
+        // Everything but the drawing
+        void applyTurtle(TurtleGraphics t) {
+            t.setPosition(x, y);
+            t.pointTurtle(direction);
+            t.setStroke(stroke);
+            t.setPenState(pen);
+            t.setPenColour(colour);
+            t.enableCollisionDetection(collision);
+            t.enableLineCollision(lineCollision);
+            t.setCollisionPolicy(policy);
+            parser.discardPending();
+            parser.getContext().restoreVariables(variables);
+        }
+
+        boolean sameTurtle(Checkpoint c) {
+            return x == c.x && y == c.y && direction == c.direction && stroke == c.stroke && pen == c.pen
+                    && collision == c.collision && lineCollision == c.lineCollision && policy == c.policy
+                    && colour.equals(c.colour) && Arrays.equals(variables, c.variables);
+        }
+
+        void release() {
+            for (Tile tile : tiles) {
+                if (tile != null && --tile.refs == 0 && tile.data != null) tileBytes -= tile.data.length;
+            }
+        }
+    }
+}
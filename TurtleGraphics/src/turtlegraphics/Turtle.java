@@ -0,0 +1,73 @@
+package turtlegraphics;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.nio.file.Path;
+
+public interface Turtle {
+    // === Basic ===
+    void about();
+    void reset();
+    void clear();
+    void displayMessage(String message);
+    void saveCurrentState();
+    void loadState();
+    void exitApplication();
+    // One binary file with the canvas, turtle, obstacles, recording and command log
+    void saveSession(Path file) throws IOException;
+    void loadSession(Path file) throws IOException;
+
+    // === Pen and movement ===
+    void setPenState(boolean down);
+    boolean getPenState();
+    void setPenColour(Color colour);
+    void forward(int distance);
+    void left(int degrees);
+    void right(int degrees);
+
+    // A folded run of moves: (turn, distance) pairs, turning right for a
+    // positive turn, the whole path repeated the given number of times. Like
+    // the executor's loops, it stops early once the thread is interrupted
+    default void trace(int[] path, int offset, int length, int times) {
+        for (int t = 0; t < times && !Thread.currentThread().isInterrupted(); t++) {
+            for (int i = offset; i < offset + length; i += 2) {
+                int turn = path[i], distance = path[i + 1];
+                if (turn > 0) right(turn);
+                else if (turn < 0) left(-turn);
+                if (distance != 0) forward(distance);
+            }
+        }
+    }
+
+    // === Shapes ===
+    void drawSquare(int size);
+    void drawTriangle(int size);
+    void drawRectangle(int width, int height);
+    void drawCircle(int radius);
+    void drawRohan();
+
+    // === Display list ===
+    DisplayList getDisplayList();
+    void exportDrawing(Path file, int scale) throws IOException;
+
+    // === Animation ===
+    void startRecording();
+    void stopRecording();
+    void playRecording();
+    void pausePlayback();
+    void resumePlayback();
+    void stopPlayback();
+    void seekPlayback(int index);
+    void setInstantPlayback(boolean instant);
+    void saveRecording(Path file) throws IOException;
+    void loadRecording(Path file) throws IOException;
+    void setTurtleSpeed(int speed);
+
+    // === Collision ===
+    void addObstacle(int x, int y);
+    void loadObstacles(Path file) throws IOException;
+    void enableCollisionDetection(boolean enable);
+    // Also counts crossing or touching anything already drawn as a hit
+    void enableLineCollision(boolean enable);
+    void setCollisionPolicy(CollisionPolicy policy);
+}
@@ -0,0 +1,86 @@
+package turtlegraphics;
+
+// Where a turtle is and which way it faces, kept between pixels. Positions are
+// doubles and only rounded when a line is drawn, so a long run of moves lands
+// where the exact sum of its steps says rather than gathering a rounding error
+// per step. Directions are whole degrees, 0 facing +x and 90 facing +y (down),
+// so sin and cos come from a table instead of being worked out every move.
+//
+// A move is aimed first and committed once the turtle has actually moved, so
+// a collision or an override of moveTo can still refuse it; nothing here
+// allocates.
+public final class TurtleGeometry {
+    private static final double[] SIN = new double[360], COS = new double[360];
+
+    // Built from the first quadrant by symmetry, so quarter turns are exact and
+    // opposite directions cancel exactly
+    static {
+        for (int d = 0; d <= 90; d++) {
+            double s = d == 90 ? 1 : Math.sin(Math.toRadians(d));
+            SIN[d] = s;
+            SIN[(180 - d) % 360] = s;
+            SIN[(180 + d) % 360] = -s;
+            SIN[(360 - d) % 360] = -s;
+        }
+        SIN[0] = SIN[180] = 0;
+        for (int d = 0; d < 360; d++) COS[d] = SIN[(d + 90) % 360];
+    }
+
+    private double x, y, nextX, nextY;
+    private int direction;
+
+    public static double sin(int degrees) { return SIN[Math.floorMod(degrees, 360)]; }
+    public static double cos(int degrees) { return COS[Math.floorMod(degrees, 360)]; }
+
+    // === Position ===
+
+    public int getX() { return round(x); }
+    public int getY() { return round(y); }
+    public double getExactX() { return x; }
+    public double getExactY() { return y; }
+    public int getDirection() { return direction; }
+
+    public void setPosition(double x, double y) {
+        this.x = nextX = x;
+        this.y = nextY = y;
+    }
+
+    public void setX(int x) { setPosition(x, y); }
+    public void setY(int y) { setPosition(x, y); }
+
+    public void point(int degrees) { direction = Math.floorMod(degrees, 360); }
+
+    // Clockwise on screen for positive degrees
+    public void turn(int degrees) { point(direction + degrees); }
+
+    // === Moving ===
+
+    public void aim(int distance) {
+        nextX = x + distance * COS[direction];
+        nextY = y + distance * SIN[direction];
+    }
+
+    public void aimAt(double x, double y) {
+        nextX = x;
+        nextY = y;
+    }
+
+    // The pixel the aimed move ends on
+    public int getTargetX() { return round(nextX); }
+    public int getTargetY() { return round(nextY); }
+
+    // Moves to (px, py): to the aimed point if that is the pixel it rounds to,
+    // otherwise exactly onto the pixel
+    public void moveTo(int px, int py) {
+        if (px == round(nextX) && py == round(nextY)) setPosition(nextX, nextY);
+        else setPosition(px, py);
+    }
+
+    // Drops an aimed move that did not happen
+    public void cancel() {
+        nextX = x;
+        nextY = y;
+    }
+
+    private static int round(double v) { return (int) Math.floor(v + 0.5); }
+}
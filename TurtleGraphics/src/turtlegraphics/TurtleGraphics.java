@@ -5,44 +5,65 @@ import java.awt.*;
 import java.util.*;
 import javax.swing.*;
 import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
 
-public class TurtleGraphics extends LBUGraphics {
+public class TurtleGraphics extends LBUGraphics implements Turtle, Shapes.Walker {
     private CommandParser commandParser;
     private FileHandler fileHandler;
-    private ArrayList<String> commandHistory;
-    private JTextArea historyArea;
+    private CommandHistory commandHistory;
+    private JList<String> historyList;
     private JPanel historyPanel;
     private boolean savedState = true;
 
-    private ArrayList<Movement> movementHistory = new ArrayList<>();
+    private MovementBuffer movementHistory = new MovementBuffer();
     private boolean isRecording = false;
     private int animationSpeed = 100;
     private Color trailColor = null;
-    private ArrayList<Point> obstacles = new ArrayList<>();
+    private Playback playbackState = new Playback();
+    private PlaybackEngine playback = new PlaybackEngine(playbackState);
+    private SpatialIndex obstacles = new GridIndex();
     private boolean collisionDetection = false;
-
-    private class Movement {
-        int x, y; boolean penDown; Color color; int width;
-        Movement(int x, int y, boolean penDown, Color color, int width) {
-            this.x = x; this.y = y; this.penDown = penDown;
-            this.color = color; this.width = width;
-        }
-    }
+    private boolean lineCollision = false;
+    private CollisionPolicy collisionPolicy = CollisionPolicy.STOP;
+    // What has been drawn, for line collision; built when first needed
+    private SegmentIndex lines;
+    private int endX, endY;
+    private DisplayList displayList = new DisplayList();
+    private Color canvasBackground;
+    private Timeline timeline;
+    private final ImageExporter imageExporter = new ImageExporter();
+    private final TurtleGeometry geometry = new TurtleGeometry();
+    private BasicStroke penStroke = new BasicStroke(1);
+
+    private static final int TURTLE_MARGIN = 32;
+    private int batchDepth = 0;
+    private Rectangle dirty;
+    private Graphics2D batchGraphics;
 
     public TurtleGraphics() {
         super();
         commandParser = new CommandParser(this);
         fileHandler = new FileHandler(this);
-        commandHistory = new ArrayList<>();
+        commandHistory = new CommandHistory();
         setupHistoryPanel();
         reset();
+        sampleBackground();
+        timeline = new Timeline(this, commandHistory, commandParser);
     }
 
     private void setupHistoryPanel() {
         historyPanel = new JPanel(new BorderLayout());
-        historyArea = new JTextArea(10, 20);
-        historyArea.setEditable(false);
-        historyPanel.add(new JScrollPane(historyArea), BorderLayout.CENTER);
+        HistoryListModel model = new HistoryListModel(commandHistory);
+        historyList = new JList<>(model);
+        historyList.setVisibleRowCount(10);
+        // Fixed row metrics so the list never measures rows that are off screen
+        historyList.setPrototypeCellValue("pencolour 255,255,255" + HistoryListModel.SUFFIX);
+        model.setOnGrow(() -> historyList.ensureIndexIsVisible(model.getSize() - 1));
+        historyPanel.add(new JScrollPane(historyList), BorderLayout.CENTER);
         historyPanel.add(new JLabel("Command History:"), BorderLayout.NORTH);
     }
 
@@ -54,195 +75,548 @@ public class TurtleGraphics extends LBUGraphics {
 
     @Override
     public void processCommand(String command) {
-        String fullCommand = command + " [Rohan Raj K C]";
-        commandHistory.add(fullCommand);
-        historyArea.append(fullCommand + "\n");
+        // Travelling through the history is not itself part of it
+        if (travel(command.trim().split("\\s+"))) return;
+
+        timeline.beforeCommand();
+        commandHistory.add(command);
         savedState = false;
 
         if (!commandParser.parseAndExecute(command)) {
             displayMessage("Invalid command: " + command);
         }
+        timeline.afterCommands();
+    }
+
+    // === Undo and time travel ===
+
+    private boolean travel(String[] parts) {
+        switch (parts[0].toLowerCase()) {
+            case "undo":
+                if (!timeline.undo()) displayMessage("Nothing to undo");
+                break;
+            case "redo":
+                if (!timeline.redo()) displayMessage("Nothing to redo");
+                break;
+            case "goto":
+                try {
+                    int target = Integer.parseInt(parts[1]);
+                    if (!timeline.travelTo(target)) {
+                        displayMessage("Command must be between " + timeline.getFloor() + " and " + commandHistory.size());
+                        return true;
+                    }
+                } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+                    displayMessage("Usage: goto <command number>");
+                    return true;
+                }
+                break;
+            default:
+                return false;
+        }
+        savedState = false;
+        showPosition();
+        return true;
+    }
+
+    // Highlights the last command still applied
+    private void showPosition() {
+        int last = timeline.getPosition() - 1;
+        if (last < 0) historyList.clearSelection();
+        else {
+            historyList.setSelectedIndex(last);
+            historyList.ensureIndexIsVisible(last);
+        }
     }
 
+    public Timeline getTimeline() { return timeline; }
+
     // === Drawing Shapes and ROHAN horizontally ===
 
     public void drawRohan() {
-        reset();
-        setPenState(true);
-        pointTurtle(0); // Face right
-        int x = getxPos(), y = getyPos();
-
-        // === R ===
-        moveTo(x, y);
-        pointTurtle(90);
-        forward(50); right(90); forward(30); right(90); forward(50);
-        left(135); forward(45);
-
-        // === O ===
-        x += 60;
-        moveTo(x, y);
-        pointTurtle(0);
-        setPenState(true);
-        forward(30); right(90); forward(50); right(90); forward(30); right(90); forward(50);
-
-        // === H ===
-        x += 60;
-        moveTo(x, y);
-        pointTurtle(90);
-        forward(50); setPenState(false); forward(-25); setPenState(true); pointTurtle(0); forward(30);
-        setPenState(false); pointTurtle(90); forward(-25); setPenState(true); forward(50);
-
-        // === A ===
-        x += 60;
-        moveTo(x, y);
-        pointTurtle(90);
-        forward(50); right(135); forward(60);
-        setPenState(false); forward(-30); left(90);
-        setPenState(true); forward(30);
-
-        // === N ===
-        x += 60;
-        moveTo(x, y);
-        pointTurtle(90);
-        forward(50); right(135); forward(70); left(135); forward(50);
-
+        shape("rohan", 0, () -> Shapes.rohan(this));
         displayMessage("ROHAN drawn in a horizontal straight line.");
     }
 
     // === Other Drawing Methods (shapes, etc.) ===
 
     public void drawSquare(int size) {
-        if (size <= 0) return;
-        int startX = getxPos(), startY = getyPos(), dir = getDirection();
-        setPenState(true);
-        for (int i = 0; i < 4; i++) {
-            forward(size);
-            right(90);
-        }
-        setPenState(false);
-        moveTo(startX, startY);
-        pointTurtle(dir);
-        setPenState(true);
+        if (size > 0) shape("square", size, () -> Shapes.square(this, size));
     }
 
     public void drawTriangle(int size) {
-        if (size <= 0) return;
-        int startX = getxPos(), startY = getyPos(), dir = getDirection();
-        setPenState(true);
-        for (int i = 0; i < 3; i++) {
-            forward(size);
-            right(120);
-        }
-        setPenState(false);
-        moveTo(startX, startY);
-        pointTurtle(dir);
-        setPenState(true);
+        if (size > 0) shape("triangle", size, () -> Shapes.triangle(this, size));
     }
 
     public void drawRectangle(int width, int height) {
-        if (width <= 0 || height <= 0) return;
-        int startX = getxPos(), startY = getyPos(), dir = getDirection();
-        setPenState(true);
-        for (int i = 0; i < 2; i++) {
-            forward(width);
-            right(90);
-            forward(height);
-            right(90);
-        }
-        setPenState(false);
-        moveTo(startX, startY);
-        pointTurtle(dir);
-        setPenState(true);
+        if (width > 0 && height > 0) shape("rectangle", width, () -> Shapes.rectangle(this, width, height));
     }
 
     public void drawCircle(int radius) {
-        if (radius <= 0) return;
-        int startX = getxPos(), startY = getyPos(), dir = getDirection();
-        setPenState(false);
-        pointTurtle(0);
-        forward(radius);
-        setPenState(true);
-        drawCircle(radius, getxPos(), getyPos());
-        setPenState(false);
-        moveTo(startX, startY);
-        pointTurtle(dir);
-        setPenState(true);
+        if (radius > 0) shape("circle", radius, () -> Shapes.circle(this, radius));
+    }
+
+    // The same polygon a DrawingSurface draws, so redrawing from the display
+    // list gives back these pixels
+    public void circleAt(int x, int y, int radius) {
+        pen().drawPolygon(DrawingSurface.ovalPolygon(x - radius, y - radius, radius * 2, radius * 2));
+        markDirty(x - radius, y - radius, x + radius, y + radius);
+        displayList.addCircle(x, y, radius, getPenColour().getRGB(), (int) getStroke());
+        if (lines != null) lines.addCircle(x, y, radius);
+    }
+
+    // One batch and one shape event per shape
+    private void shape(String name, int size, Runnable walk) {
+        Metrics.ShapeEvent event = Metrics.shape();
+        beginBatch();
+        try {
+            walk.run();
+        } finally {
+            endBatch();
+            Metrics.shapeDone(event, name, size);
+        }
     }
 
     // === Animation ===
 
     public void startRecording() {
-        movementHistory.clear();
+        // The buffer about to be cleared may be the one playing
+        playback.cancel();
+        if (movementHistory.isReadOnly()) movementHistory = new MovementBuffer();
+        else movementHistory.clear();
         isRecording = true;
         displayMessage("Recording started");
     }
 
     public void stopRecording() {
         isRecording = false;
-        displayMessage("Recording stopped. " + movementHistory.size() + " movements captured");
+        String dropped = movementHistory.dropped() > 0
+                ? " (" + movementHistory.dropped() + " dropped at capacity)" : "";
+        displayMessage("Recording stopped. " + movementHistory.size() + " movements captured" + dropped);
     }
 
     public void playRecording() {
-        new Thread(() -> {
-            Color originalColor = getPenColour();
-            int originalWidth = (int) getStroke();
-
-            for (Movement m : movementHistory) {
-                setPenColour(m.color);
-                setStroke(m.width);
-                setPenState(m.penDown);
-                moveTo(m.x, m.y);
-
-                if (trailColor != null) {
-                    Graphics2D g = (Graphics2D) getBufferedImage().getGraphics();
-                    g.setColor(trailColor);
-                    g.fillOval(m.x - 2, m.y - 2, 4, 4);
-                    repaint();
-                }
+        playback.cancel();
+        playbackState.begin(movementHistory);
+        playback.start(movementHistory.size(), animationSpeed);
+    }
 
-                try { Thread.sleep(animationSpeed); }
-                catch (InterruptedException e) {}
+    public void pausePlayback() { playback.pause(); }
+    public void resumePlayback() { playback.resume(); }
+    public void stopPlayback() { playback.cancel(); }
+    public void seekPlayback(int index) { playback.seek(index); }
+    public void setInstantPlayback(boolean instant) { playback.setInstant(instant); }
+    public PlaybackEngine getPlayback() { return playback; }
+
+    @Override
+    public void setTurtleSpeed(int speed) {
+        super.setTurtleSpeed(speed);
+        animationSpeed = speed;
+        playback.setDelay(speed);
+    }
+
+    // Applies recorded movements frame by frame on the EDT; one repaint per frame
+    private class Playback implements PlaybackEngine.Listener {
+        private MovementBuffer moves;
+        private Color originalColor, colour;
+        private int originalWidth;
+        private BufferedImage startImage;
+        private double startX, startY;
+        private int startDirection;
+        private boolean startPen;
+        private long startMark;
+        private Metrics.PlaybackEvent event;
+
+        void begin(MovementBuffer moves) {
+            this.moves = moves;
+            originalColor = getPenColour();
+            originalWidth = (int) getStroke();
+            startImage = copyOf(getBufferedImage());
+            startX = geometry.getExactX();
+            startY = geometry.getExactY();
+            startDirection = getDirection();
+            startPen = getPenState();
+            startMark = displayList.mark();
+            colour = null;
+            event = Metrics.playback();
+        }
+
+        public void beforeFrame() {
+            beginBatch();
+        }
+
+        public void step(int i) {
+            int argb = moves.argb(i), x = moves.x(i), y = moves.y(i);
+            if (colour == null || colour.getRGB() != argb) colour = new Color(argb, true);
+            setPenColour(colour);
+            setStroke(moves.width(i));
+            setPenState(moves.penDown(i));
+            moveTo(x, y);
+            if (trailColor != null) {
+                Graphics2D g = batchGraphics();
+                g.setColor(trailColor);
+                g.fillOval(x - 2, y - 2, 4, 4);
             }
+        }
 
+        public void afterFrame() {
+            endBatch();
+            Metrics.PLAYBACK_FRAMES.increment();
+        }
+
+        public void rewind() {
+            Graphics2D g = getBufferedImage().createGraphics();
+            g.drawImage(startImage, 0, 0, null);
+            g.dispose();
+            setPosition(startX, startY);
+            pointTurtle(startDirection);
+            setPenState(startPen);
+            displayList.truncate(startMark);
+            lines = null;
+            colour = null;
+        }
+
+        public void finished(boolean cancelled) {
             setPenColour(originalColor);
             setStroke(originalWidth);
-        }).start();
+            startImage = null;
+            repaint();
+            if (event != null) Metrics.playbackDone(event, moves.size(), cancelled);
+            event = null;
+            displayMessage(cancelled ? "Playback cancelled" : "Playback finished");
+        }
     }
 
-    protected void moveTo(int newX, int newY) {
-        if (collisionDetection) {
-            for (Point p : obstacles) {
-                if (Math.abs(newX - p.x) < 10 && Math.abs(newY - p.y) < 10) {
-                    displayMessage("Collision detected!");
-                    return;
-                }
+    static BufferedImage copyOf(BufferedImage image) {
+        int type = image.getType() == BufferedImage.TYPE_CUSTOM ? BufferedImage.TYPE_INT_ARGB : image.getType();
+        BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(), type);
+        Graphics2D g = copy.createGraphics();
+        g.drawImage(image, 0, 0, null);
+        g.dispose();
+        return copy;
+    }
+
+    public void moveTo(int newX, int newY) {
+        Metrics.MOVES.increment();
+        if (!collide(newX, newY)) return;
+        newX = endX;
+        newY = endY;
+
+        // Not while playing: the moves would go into the buffer being played,
+        // and in ring mode overwrite moves not yet played
+        if (isRecording && !playback.isRunning()) {
+            movementHistory.add(newX, newY, getPenState(),
+                    getPenColour().getRGB(), (int) getStroke());
+        }
+
+        step(newX, newY, newX != getxPos() || newY != getyPos());
+    }
+
+    @Override
+    public void forward(int distance) {
+        geometry.aim(distance);
+        if (collide(geometry.getTargetX(), geometry.getTargetY())) step(endX, endY, distance != 0);
+    }
+
+    // Applies the collision policy to a move towards (x, y): false when the
+    // move is refused, otherwise it ends at (endX, endY)
+    private boolean collide(int x, int y) {
+        endX = x;
+        endY = y;
+        if (!collisionDetection && !lineCollision) return true;
+        if (lineCollision && lines == null) lines = SegmentIndex.of(displayList);
+        Collision hit = Collision.check(getxPos(), getyPos(), x, y,
+                collisionDetection ? obstacles : null, lineCollision ? lines : null, collisionPolicy);
+        if (hit == null) return true;
+        displayMessage(hit.message);
+        if (hit.refused) {
+            geometry.cancel();
+            return false;
+        }
+        endX = hit.x;
+        endY = hit.y;
+        return true;
+    }
+
+    // One batch, so a folded loop repaints once and lands in the display list
+    // as a single polyline
+    @Override
+    public void trace(int[] path, int offset, int length, int times) {
+        beginBatch();
+        try {
+            Turtle.super.trace(path, offset, length, times);
+        } finally {
+            endBatch();
+        }
+    }
+
+    // Lines are drawn here rather than by LBUGraphics, which is only told where
+    // the turtle ended up; a standalone move is a batch of one
+    private void step(int x, int y, boolean draw) {
+        int x0 = getxPos(), y0 = getyPos();
+        beginBatch();
+        try {
+            if (getPenState() && draw) {
+                pen().drawLine(x0, y0, x, y);
+                displayList.addLine(x0, y0, x, y, getPenColour().getRGB(), (int) getStroke());
+                if (lines != null) lines.add(x0, y0, x, y);
             }
+            geometry.moveTo(x, y);
+            super.setxPos(x);
+            super.setyPos(y);
+            markDirty(x0, y0, x, y);
+        } finally {
+            endBatch();
         }
+    }
+
+    // The batch's graphics in the pen's colour and stroke
+    private Graphics2D pen() {
+        Graphics2D g = batchGraphics();
+        g.setColor(getPenColour());
+        if (penStroke.getLineWidth() != getStroke()) penStroke = new BasicStroke(getStroke());
+        g.setStroke(penStroke);
+        return g;
+    }
+
+    // === Geometry ===
 
-        if (isRecording) {
-            movementHistory.add(new Movement(
-                    newX, newY, getPenState(),
-                    getPenColour(), (int) getStroke()));
+    // The exact position and direction live in the geometry; LBUGraphics keeps
+    // the pixel it rounds to for drawing the turtle. LBUGraphics may call these
+    // from its own constructor, before the geometry exists
+    public TurtleGeometry getGeometry() { return geometry; }
+
+    @Override
+    public void pointTurtle(int degrees) {
+        if (geometry != null) {
+            geometry.point(degrees);
+            degrees = geometry.getDirection();
         }
+        super.pointTurtle(degrees);
+    }
+
+    @Override
+    public void left(int degrees) { pointTurtle(getDirection() - degrees); }
+
+    @Override
+    public void right(int degrees) { pointTurtle(getDirection() + degrees); }
 
-        super.forward((int) Math.hypot(newX - getxPos(), newY - getyPos()));
+    @Override
+    public void setxPos(int x) {
+        super.setxPos(x);
+        if (geometry != null) geometry.setX(x);
+    }
+
+    @Override
+    public void setyPos(int y) {
+        super.setyPos(y);
+        if (geometry != null) geometry.setY(y);
+    }
+
+    // Between pixels, as a Timeline checkpoint or playback rewind saved it
+    void setPosition(double x, double y) {
+        geometry.setPosition(x, y);
+        super.setxPos(geometry.getX());
+        super.setyPos(geometry.getY());
+    }
+
+    // === Batched drawing ===
+
+    // Nestable; repaints are held back until the outermost endBatch, which
+    // repaints only the union of what was drawn plus the turtle at both ends
+    public void beginBatch() {
+        if (batchDepth++ == 0) {
+            dirty = null;
+            extendDirty(getxPos(), getyPos(), getxPos(), getyPos());
+        }
+    }
+
+    public void endBatch() {
+        if (batchDepth == 0 || --batchDepth > 0) return;
+        extendDirty(getxPos(), getyPos(), getxPos(), getyPos());
+        if (batchGraphics != null) {
+            batchGraphics.dispose();
+            batchGraphics = null;
+        }
+        Rectangle r = dirty;
+        dirty = null;
+        if (r != null) repaint(r);
+    }
+
+    public boolean isBatching() { return batchDepth > 0; }
+
+    // Shared by everything drawn inside one batch; disposed by endBatch, not the caller
+    Graphics2D batchGraphics() {
+        if (batchDepth == 0) throw new IllegalStateException("Not inside a batch");
+        if (batchGraphics == null) batchGraphics = getBufferedImage().createGraphics();
+        return batchGraphics;
+    }
+
+    void markDirty(int x0, int y0, int x1, int y1) {
+        if (batchDepth > 0) extendDirty(x0, y0, x1, y1);
+    }
+
+    private void extendDirty(int x0, int y0, int x1, int y1) {
+        int pad = (int) Math.ceil(getStroke() / 2) + TURTLE_MARGIN;
+        if (dirty == null) dirty = new Rectangle(Math.min(x0, x1) - pad, Math.min(y0, y1) - pad, 0, 0);
+        dirty.add(Math.min(x0, x1) - pad, Math.min(y0, y1) - pad);
+        dirty.add(Math.max(x0, x1) + pad, Math.max(y0, y1) + pad);
+    }
+
+    @Override
+    public void repaint(long tm, int x, int y, int width, int height) {
+        if (batchDepth > 0) return;
+        Metrics.REPAINTS.increment();
+        super.repaint(tm, x, y, width, height);
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        // LBUGraphics may clear from its own constructor, before our fields exist.
+        // A fresh list rather than clear(), as checkpoints still refer to the old one
+        if (displayList != null) displayList = new DisplayList();
+        lines = null;
+        sampleBackground();
+        markDirty(0, 0, getWidth(), getHeight());
+    }
+
+    // A freshly cleared canvas is uniform, so any pixel gives the background
+    private void sampleBackground() {
+        BufferedImage image = getBufferedImage();
+        canvasBackground = image != null ? new Color(image.getRGB(0, 0)) : Color.BLACK;
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        if (geometry != null) {
+            geometry.setPosition(super.getxPos(), super.getyPos());
+            pointTurtle(super.getDirection());
+        }
+        markDirty(0, 0, getWidth(), getHeight());
+    }
+
+    public void saveRecording(Path file) throws IOException {
+        Metrics.FileEvent event = Metrics.file();
+        long bytes = -1;
+        try {
+            movementHistory.write(file);
+            bytes = Files.size(file);
+        } finally {
+            Metrics.fileDone(event, "saveRecording", file.toString(), bytes, true);
+        }
+        displayMessage(movementHistory.size() + " movements saved to " + file.getFileName());
+    }
+
+    public void loadRecording(Path file) throws IOException {
+        isRecording = false;
+        movementHistory = MovementBuffer.map(file);
+        displayMessage(movementHistory.size() + " movements loaded from " + file.getFileName());
+    }
+
+    public MovementBuffer getRecording() { return movementHistory; }
+    public void setRecordingBuffer(MovementBuffer buffer) { this.movementHistory = buffer; }
+
+    // === Display list ===
+
+    public DisplayList getDisplayList() { return displayList; }
+    void setDisplayList(DisplayList list) {
+        this.displayList = list;
+        lines = null;
+    }
+
+    public void exportDrawing(Path file, int scale) throws IOException {
+        BufferedImage image = getBufferedImage();
+        Metrics.FileEvent event = Metrics.file();
+        long bytes = -1;
+        try {
+            displayList.export(file, image.getWidth(), image.getHeight(), canvasBackground, scale);
+            bytes = Files.size(file);
+        } finally {
+            Metrics.fileDone(event, "export", file.toString(), bytes, true);
+        }
+        displayMessage(displayList.getSegmentCount() + " segments exported to " + file.getFileName()
+                + (scale != 1 ? " at " + scale + "x" : ""));
     }
 
     // === Misc ===
 
     public JPanel getHistoryPanel() { return historyPanel; }
-    public ArrayList<String> getCommandHistory() { return commandHistory; }
+    public CommandHistory getCommandHistory() { return commandHistory; }
+    public CommandParser getCommandParser() { return commandParser; }
 
-    public void setCommandHistory(ArrayList<String> history) {
-        this.commandHistory = history;
-        updateHistoryDisplay();
+    public void setCommandHistory(java.util.List<String> history) {
+        commandHistory.clear();
+        commandHistory.addAll(history);
+        timeline.rebase();
     }
 
+    public ImageExporter getImageExporter() { return imageExporter; }
+
     public boolean isSavedState() { return savedState; }
     public void setSavedState(boolean saved) { this.savedState = saved; }
 
     public BufferedImage getCurrentImage() { return getBufferedImage(); }
-    public void setCurrentImage(BufferedImage image) { setBufferedImage(image); }
+    public void setCurrentImage(BufferedImage image) {
+        setBufferedImage(image);
+        timeline.rebase();
+    }
+
+    // === Sessions ===
+
+    public void saveSession(Path file) throws IOException {
+        Metrics.FileEvent event = Metrics.file();
+        long bytes = -1;
+        try {
+            bytes = SessionFile.save(this, file, true);
+        } finally {
+            Metrics.fileDone(event, "saveSession", file.toString(), bytes, true);
+        }
+        savedState = true;
+        displayMessage("Session saved to " + file.getFileName() + " (" + bytes / 1024 + " KB)");
+    }
+
+    // Variables and procedures are not part of a session; the command log is
+    // restored for reference and undo starts from the loaded canvas
+    public void loadSession(Path file) throws IOException {
+        Metrics.FileEvent event = Metrics.file();
+        SessionFile.Session session = null;
+        try {
+            session = SessionFile.read(file);
+        } finally {
+            Metrics.fileDone(event, "loadSession", file.toString(), session != null ? Files.size(file) : -1, false);
+        }
+        playback.cancel();
+        isRecording = false;
+        setBufferedImage(session.image);
+        canvasBackground = session.background;
+        setPosition(session.x, session.y);
+        pointTurtle(session.direction);
+        setPenState(session.penDown);
+        setPenColour(session.penColour);
+        setStroke(session.stroke);
+        setTurtleSpeed(session.speed);
+        collisionDetection = session.collision;
+        obstacles = session.obstacles;
+        movementHistory = session.recording;
+        displayList = session.drawing;
+        lines = null;
+        lineCollision = session.lineCollision;
+        collisionPolicy = session.policy;
+        commandHistory.clear();
+        session.readHistory(commandHistory);
+        commandParser.discardPending();
+        timeline.rebase();
+        repaint();
+        savedState = true;
+        displayMessage("Session loaded from " + file.getFileName() + ": " + commandHistory.size() + " commands");
+    }
+
+    int getAnimationSpeed() { return animationSpeed; }
+    Color getCanvasBackground() { return canvasBackground; }
+
+    public void saveCurrentState() { FileHandler.saveCurrentState(this); }
+    public void loadState() { FileHandler.loadState(this); }
 
     public void exitApplication() {
         if (!savedState) {
@@ -251,25 +625,44 @@ public class TurtleGraphics extends LBUGraphics {
                     JOptionPane.YES_NO_CANCEL_OPTION);
             if (response == JOptionPane.CANCEL_OPTION) return;
             if (response == JOptionPane.YES_OPTION) {
-                FileHandler.saveCurrentState(this);
+                // An image is still being encoded; if that fails, stay open so
+                // the error queued for the EDT is shown and the drawing kept
+                try {
+                    FileHandler.saveCurrentState(this).join();
+                } catch (CompletionException | CancellationException e) {
+                    return;
+                }
             }
         }
+        imageExporter.close();
         System.exit(0);
     }
 
-    private void updateHistoryDisplay() {
-        historyArea.setText("");
-        for (String cmd : commandHistory) {
-            historyArea.append(cmd + "\n");
-        }
-    }
-
     public void enableCollisionDetection(boolean enable) {
         this.collisionDetection = enable;
     }
 
+    boolean isCollisionDetection() { return collisionDetection; }
+
+    public void enableLineCollision(boolean enable) {
+        lineCollision = enable;
+        if (!enable) lines = null;
+    }
+
+    boolean isLineCollision() { return lineCollision; }
+    public CollisionPolicy getCollisionPolicy() { return collisionPolicy; }
+    public void setCollisionPolicy(CollisionPolicy policy) { collisionPolicy = policy; }
+
     public void addObstacle(int x, int y) {
-        obstacles.add(new Point(x, y));
+        obstacles.add(x, y);
         displayMessage("Obstacle added at (" + x + "," + y + ")");
     }
+
+    public void loadObstacles(Path file) throws IOException {
+        int count = obstacles.addAll(file);
+        displayMessage(count + " obstacles loaded from " + file.getFileName());
+    }
+
+    public SpatialIndex getObstacleIndex() { return obstacles; }
+    public void setObstacleIndex(SpatialIndex index) { this.obstacles = index; }
 }
@@ -0,0 +1,372 @@
+package turtlegraphics;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Many turtles drawing on one canvas. Each Agent is a HeadlessTurtle with its
+// own position, pen and command queue; agents run concurrently on an executor
+// (a virtual thread per turn by default), but each one runs a turn at a time,
+// so its own commands stay in order. What an agent draws is recorded during
+// its turn and handed to a lock-free queue at the end of it; whichever thread
+// finds the canvas free replays the queue, so the surface only ever has one
+// writer. Lines from different agents land in the order their turns finish.
+public class TurtleSwarm implements AutoCloseable {
+    // Commands an agent runs before giving its thread to the others
+    public static final int TURN_LENGTH = 64;
+    private static final int R = SpatialIndex.COLLISION_RADIUS;
+    private static final LongAdder TURNS = Metrics.counter("swarm.turns");
+
+    private final DrawingSurface canvas;
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+
+    private final ConcurrentLinkedQueue<DisplayList> drawQueue = new ConcurrentLinkedQueue<>();
+    private final ReentrantLock drawLock = new ReentrantLock();
+
+    // Copy-on-write, so every move reads them without locking
+    private volatile GridIndex obstacles = new GridIndex();
+    private volatile Agent[] agents = new Agent[0];
+    private volatile boolean turtleCollision;
+
+    // Commands submitted but not yet run; awaitIdle waits on idle for zero
+    private final AtomicLong outstanding = new AtomicLong();
+    private final Object idle = new Object();
+    private volatile boolean closed;
+
+    public TurtleSwarm(DrawingSurface canvas) {
+        this(canvas, Executors.newVirtualThreadPerTaskExecutor(), true);
+    }
+
+    // The executor stays the caller's to shut down
+    public TurtleSwarm(DrawingSurface canvas, ExecutorService executor) {
+        this(canvas, executor, false);
+    }
+
+    private TurtleSwarm(DrawingSurface canvas, ExecutorService executor, boolean ownsExecutor) {
+        this.canvas = canvas;
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+        canvas.clear(HeadlessTurtle.DEFAULT_BACKGROUND);
+    }
+
+    // === Agents ===
+
+    public Agent spawn() {
+        return spawn(canvas.getWidth() / 2, canvas.getHeight() / 2, 0);
+    }
+
+    public synchronized Agent spawn(int x, int y, int direction) {
+        if (closed) throw new IllegalStateException("Swarm is closed");
+        Agent agent = new Agent(agents.length, x, y, direction);
+        Agent[] grown = Arrays.copyOf(agents, agents.length + 1);
+        grown[agent.id] = agent;
+        agents = grown;
+        return agent;
+    }
+
+    public int size() { return agents.length; }
+    public Agent get(int id) { return agents[id]; }
+
+    // Sent as a command to every agent, so it takes effect in queue order
+    public void enableCollisionDetection(boolean enable) {
+        for (Agent agent : agents) agent.submit(enable ? "collision" : "nocollision");
+    }
+
+    // Agents with collision detection on also stop short of each other; checked
+    // against where the others are at that moment, so two agents moving at once
+    // can still cross
+    public void setTurtleCollision(boolean enable) { turtleCollision = enable; }
+
+    public class Agent extends HeadlessTurtle {
+        private final int id;
+        private final AgentSurface surface;
+        private final CommandParser parser = new CommandParser(this);
+        private final ConcurrentLinkedQueue<Object> commands = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        // x in the high half, y in the low; written only by the agent's own turns
+        private volatile long position;
+
+        private Agent(int id, int x, int y, int direction) {
+            super(new AgentSurface());
+            this.id = id;
+            this.surface = (AgentSurface) getSurface();
+            setObstacleIndex(new SharedObstacles(this));
+            setPenState(false);
+            moveTo(x, y);
+            setPenState(true);
+            pointTurtle(direction);
+        }
+
+        public int getId() { return id; }
+        public int getQueued() { return commands.size(); }
+        public CommandParser getCommandParser() { return parser; }
+
+        // One line, as typed; blocks and procedures may span several submits
+        public void submit(String line) { enqueue(line); }
+
+        // Runs against the same variables and procedures as the submitted lines
+        public void submit(CompiledScript program) { enqueue(program); }
+
+        private void enqueue(Object command) {
+            if (closed) throw new IllegalStateException("Swarm is closed");
+            outstanding.incrementAndGet();
+            commands.add(command);
+            schedule();
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) executor.execute(this::turn);
+        }
+
+        private void turn() {
+            int done = 0;
+            try {
+                Object command;
+                while (done < TURN_LENGTH && (command = commands.poll()) != null) {
+                    done++;
+                    if (command instanceof CompiledScript program) {
+                        ScriptExecutor.execute(program, this, parser.getContext());
+                    } else {
+                        parser.parseAndExecute((String) command);
+                    }
+                }
+            } finally {
+                TURNS.increment();
+                surface.handOver();
+                scheduled.set(false);
+                if (!commands.isEmpty()) schedule();
+                finished(done);
+            }
+        }
+
+        @Override
+        public void moveTo(int newX, int newY) {
+            super.moveTo(newX, newY);
+            publish();
+        }
+
+        @Override
+        public void reset() {
+            super.reset();
+            publish();
+        }
+
+        // Also runs from HeadlessTurtle's constructor, before this class's fields are set
+        private void publish() {
+            position = (long) getxPos() << 32 | (getyPos() & 0xFFFFFFFFL);
+        }
+
+        int x() { return (int) (position >> 32); }
+        int y() { return (int) position; }
+    }
+
+    private void finished(int commands) {
+        if (outstanding.addAndGet(-commands) == 0) {
+            synchronized (idle) {
+                idle.notifyAll();
+            }
+        }
+    }
+
+    // === Running ===
+
+    // Waits until every submitted command has run and been drawn. Not to be
+    // called from an agent's own commands, which would wait for themselves
+    public void awaitIdle() throws InterruptedException {
+        synchronized (idle) {
+            while (outstanding.get() > 0) idle.wait();
+        }
+        drawLock.lock();
+        try {
+            drawQueued();
+        } finally {
+            drawLock.unlock();
+        }
+    }
+
+    public boolean isIdle() { return outstanding.get() == 0; }
+
+    // Stops taking commands and waits for the queued ones; an executor the
+    // swarm created is shut down
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            awaitIdle();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (ownsExecutor) executor.shutdown();
+        }
+    }
+
+    // === Canvas ===
+
+    private void draw(DisplayList batch) {
+        drawQueue.add(batch);
+        // A batch added while another thread draws is picked up by that thread's
+        // recheck after it unlocks, so nobody waits for the canvas
+        while (!drawQueue.isEmpty() && drawLock.tryLock()) {
+            try {
+                drawQueued();
+            } finally {
+                drawLock.unlock();
+            }
+        }
+    }
+
+    private void drawQueued() {
+        DisplayList batch;
+        while ((batch = drawQueue.poll()) != null) batch.replay(canvas);
+    }
+
+    // What the agents have drawn so far; only stable once they are idle
+    public BufferedImage getImage() {
+        drawLock.lock();
+        try {
+            drawQueued();
+            return canvas.toImage();
+        } finally {
+            drawLock.unlock();
+        }
+    }
+
+    public DrawingSurface getSurface() { return canvas; }
+
+    // Drawing handed over before the clear is drawn first, so it is cleared too
+    public void clear() {
+        drawLock.lock();
+        try {
+            drawQueued();
+            canvas.clear(HeadlessTurtle.DEFAULT_BACKGROUND);
+        } finally {
+            drawLock.unlock();
+        }
+    }
+
+    // Records one agent's drawing until the end of its turn. Clearing only
+    // drops what the agent has not handed over; the canvas is the swarm's
+    private class AgentSurface implements DrawingSurface {
+        private DisplayList batch = new DisplayList();
+
+        public int getWidth() { return canvas.getWidth(); }
+        public int getHeight() { return canvas.getHeight(); }
+
+        public void clear(Color background) { batch = new DisplayList(); }
+
+        public void drawLine(int x1, int y1, int x2, int y2, Color colour, int stroke) {
+            batch.addLine(x1, y1, x2, y2, colour.getRGB(), stroke);
+        }
+
+        // The turtles only ever draw circles, which is all the display list holds
+        public void drawOval(int x, int y, int width, int height, Color colour, int stroke) {
+            if (width != height || (width & 1) != 0) throw new UnsupportedOperationException("Only circles can be queued");
+            batch.addCircle(x + width / 2, y + height / 2, width / 2, colour.getRGB(), stroke);
+        }
+
+        public void readRow(int y, int[] dst) {
+            drawLock.lock();
+            try {
+                drawQueued();
+                canvas.readRow(y, dst);
+            } finally {
+                drawLock.unlock();
+            }
+        }
+
+        public BufferedImage toImage() { return getImage(); }
+
+        public void dispose() { batch = new DisplayList(); }
+
+        void handOver() {
+            if (batch.size() == 0) return;
+            draw(batch);
+            batch = new DisplayList();
+        }
+    }
+
+    // === Collision ===
+
+    public synchronized void addObstacle(int x, int y) {
+        GridIndex copy = new GridIndex(obstacles);
+        copy.add(x, y);
+        obstacles = copy;
+    }
+
+    public synchronized int loadObstacles(Path file) throws IOException {
+        GridIndex copy = new GridIndex(obstacles);
+        int added = copy.addAll(file);
+        obstacles = copy;
+        return added;
+    }
+
+    public synchronized void clearObstacles() { obstacles = new GridIndex(); }
+
+    // A snapshot; later additions go to a new copy
+    public SpatialIndex getObstacleIndex() { return obstacles; }
+
+    private boolean hitsAgent(Agent self, int x0, int y0, int x1, int y1) {
+        double dx = x1 - x0, dy = y1 - y0;
+        for (Agent other : agents) {
+            if (other == self) continue;
+            int px = other.x(), py = other.y();
+            if (dx == 0 && dy == 0 ? Math.abs(x1 - px) < R && Math.abs(y1 - py) < R
+                    : GridIndex.crosses(x0, y0, dx, dy, px, py)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Where the move first enters another agent's box, or NO_HIT
+    private double agentEntry(Agent self, int x0, int y0, int x1, int y1) {
+        if (x0 == x1 && y0 == y1) return hitsAgent(self, x1, y1, x1, y1) ? 0 : SpatialIndex.NO_HIT;
+        double dx = x1 - x0, dy = y1 - y0, best = SpatialIndex.NO_HIT;
+        for (Agent other : agents) {
+            if (other != self) best = Math.min(best, GridIndex.entry(x0, y0, dx, dy, other.x(), other.y()));
+        }
+        return best;
+    }
+
+    // An agent's view of what it can run into: the shared obstacles, and the
+    // other agents while turtle collision is on. Adding goes to the shared set
+    private class SharedObstacles implements SpatialIndex {
+        private final Agent self;
+
+        SharedObstacles(Agent self) { this.self = self; }
+
+        public void add(int x, int y) { addObstacle(x, y); }
+
+        @Override
+        public int addAll(Path file) throws IOException { return loadObstacles(file); }
+
+        public boolean hits(int x, int y) {
+            return obstacles.hits(x, y) || turtleCollision && hitsAgent(self, x, y, x, y);
+        }
+
+        public boolean intersects(int x0, int y0, int x1, int y1) {
+            return obstacles.intersects(x0, y0, x1, y1) || turtleCollision && hitsAgent(self, x0, y0, x1, y1);
+        }
+
+        @Override
+        public double firstHit(int x0, int y0, int x1, int y1) {
+            double hit = obstacles.firstHit(x0, y0, x1, y1);
+            return turtleCollision ? Math.min(hit, agentEntry(self, x0, y0, x1, y1)) : hit;
+        }
+
+        public int size() { return obstacles.size(); }
+        public void clear() { clearObstacles(); }
+        public int x(int i) { return obstacles.x(i); }
+        public int y(int i) { return obstacles.y(i); }
+    }
+}